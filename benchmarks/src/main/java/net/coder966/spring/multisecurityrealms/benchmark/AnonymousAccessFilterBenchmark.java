@@ -0,0 +1,75 @@
+package net.coder966.spring.multisecurityrealms.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import net.coder966.spring.multisecurityrealms.filter.AnonymousAccessAuthenticationFilter;
+import net.coder966.spring.multisecurityrealms.reflection.BenchmarkSecurityRealms;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Resolves requests against 10 to 1000 anonymous routes, half literal paths and half patterns.
+ * The requests target the last routes, so a linear scan of the routes would show.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnonymousAccessFilterBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int routes;
+
+    private AnonymousAccessAuthenticationFilter filter;
+
+    private MockHttpServletRequest literalRouteRequest;
+    private MockHttpServletRequest patternRouteRequest;
+    private MockHttpServletRequest otherRequest;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        filter = new AnonymousAccessAuthenticationFilter(BenchmarkSecurityRealms.routeTable(routes));
+
+        literalRouteRequest = new MockHttpServletRequest("GET", "/public-" + (routes - 2) + "/items");
+        patternRouteRequest = new MockHttpServletRequest("GET", "/public-" + (routes - 1) + "/items/42");
+        otherRequest = new MockHttpServletRequest("GET", "/orders/42");
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public boolean literalRoute() {
+        return clearContext(filter.handle(literalRouteRequest, response));
+    }
+
+    @Benchmark
+    public boolean patternRoute() {
+        return clearContext(filter.handle(patternRouteRequest, response));
+    }
+
+    @Benchmark
+    public boolean notAnonymousRoute() {
+        return clearContext(filter.handle(otherRequest, response));
+    }
+
+    /**
+     * Part of the measured call, see {@link MultiSecurityRealmFilterBenchmark}.
+     */
+    private static boolean clearContext(boolean handled) {
+        SecurityContextHolder.clearContext();
+        return handled;
+    }
+}
@@ -0,0 +1,118 @@
+package net.coder966.spring.multisecurityrealms.benchmark;
+
+import jakarta.servlet.FilterChain;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
+import net.coder966.spring.multisecurityrealms.filter.MultiSecurityRealmAuthenticationFilter;
+import net.coder966.spring.multisecurityrealms.reflection.BenchmarkSecurityRealms;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Runs the realms filter against mock requests, with 1, 5 and 50 realms and as many anonymous routes.
+ * The token belongs to the last realm, so a filter that tries every realm in turn would grow with the number of realms.
+ * The requests are reused, which the filter allows, so only the work of the filter is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultiSecurityRealmFilterBenchmark {
+
+    private static final FilterChain NOOP_CHAIN = (request, response) -> {
+    };
+
+    @Param({"1", "5", "50"})
+    public int realms;
+
+    private GenericApplicationContext context;
+    private MultiSecurityRealmAuthenticationFilter filter;
+
+    private MockHttpServletRequest authenticatedRequest;
+    private MockHttpServletRequest anonymousRequest;
+    private MockHttpServletRequest unauthenticatedRequest;
+    private MockHttpServletRequest invalidTokenRequest;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        context = BenchmarkSecurityRealms.context();
+        filter = new MultiSecurityRealmAuthenticationFilter(context, BenchmarkSecurityRealms.scanner(context, realms, realms));
+
+        int lastRealm = realms - 1;
+        SecurityRealmAuthentication authentication = new SecurityRealmAuthentication("khalid", Set.of(new SimpleGrantedAuthority("READ")));
+        authentication._UNSAFE_overrideRealm(BenchmarkSecurityRealms.realmName(lastRealm));
+        String token = new SecurityRealmTokenCodec(BenchmarkSecurityRealms.signingSecret(lastRealm)).encode(authentication, Duration.ofHours(1));
+
+        authenticatedRequest = new MockHttpServletRequest("GET", "/orders");
+        authenticatedRequest.addHeader("Authorization", "Bearer " + token);
+
+        anonymousRequest = new MockHttpServletRequest("GET", "/public-0/items");
+
+        unauthenticatedRequest = new MockHttpServletRequest("GET", "/orders");
+
+        // e.g. a token of a realm whose secret was rotated
+        invalidTokenRequest = new MockHttpServletRequest("GET", "/orders");
+        invalidTokenRequest.addHeader("Authorization", "Bearer " + token.substring(0, token.length() - 4) + "AAAA");
+
+        response = new MockHttpServletResponse();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Object authenticatedRequest() throws Exception {
+        filter.doFilter(authenticatedRequest, response, NOOP_CHAIN);
+        return captureAndClearAuthentication();
+    }
+
+    @Benchmark
+    public Object anonymousRequest() throws Exception {
+        filter.doFilter(anonymousRequest, response, NOOP_CHAIN);
+        return captureAndClearAuthentication();
+    }
+
+    @Benchmark
+    public Object unauthenticatedRequest() throws Exception {
+        filter.doFilter(unauthenticatedRequest, response, NOOP_CHAIN);
+        return captureAndClearAuthentication();
+    }
+
+    @Benchmark
+    public Object invalidTokenRequest() throws Exception {
+        filter.doFilter(invalidTokenRequest, response, NOOP_CHAIN);
+        return captureAndClearAuthentication();
+    }
+
+    /**
+     * Cleared within the measured method, a per-invocation teardown would add the timestamping overhead of JMH to every call.
+     */
+    private static Object captureAndClearAuthentication() {
+        Object authentication = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return authentication;
+    }
+}
@@ -0,0 +1,64 @@
+package net.coder966.spring.multisecurityrealms.benchmark;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAnonymousAuthentication;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.expression.PermitRealmExpressionRoot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Evaluates {@code permitRealm(...)} like a {@code @PreAuthorize} expression would, for a realm user and for an anonymous one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PermitRealmExpressionBenchmark {
+
+    private static final String[] REALMS = {"NORMAL_USER", "SUPPORT_USER", "ADMIN_USER"};
+
+    private PermitRealmExpressionRoot userRoot;
+    private PermitRealmExpressionRoot anonymousRoot;
+
+    @Setup
+    public void setup() {
+        SecurityRealmAuthentication authentication = new SecurityRealmAuthentication("khalid", Set.of(new SimpleGrantedAuthority("READ")));
+        authentication._UNSAFE_overrideRealm("ADMIN_USER");
+
+        userRoot = new PermitRealmExpressionRoot(authentication);
+        anonymousRoot = new PermitRealmExpressionRoot(SecurityRealmAnonymousAuthentication.INSTANCE);
+    }
+
+    @Benchmark
+    public boolean permitRealm() {
+        return userRoot.permitRealm("ADMIN_USER");
+    }
+
+    @Benchmark
+    public boolean permitOneOfRealms() {
+        return userRoot.permitRealm(REALMS);
+    }
+
+    @Benchmark
+    public boolean denyRealm() {
+        return userRoot.permitRealm("NORMAL_USER");
+    }
+
+    @Benchmark
+    public boolean permitAnonymous() {
+        return anonymousRoot.permitRealm("ADMIN_USER");
+    }
+}
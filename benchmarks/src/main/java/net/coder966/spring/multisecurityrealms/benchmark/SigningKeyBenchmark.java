@@ -0,0 +1,111 @@
+package net.coder966.spring.multisecurityrealms.benchmark;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.converter.JwtSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmSigningKey;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenClaims;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Compares signing and verifying with the JWT library own HMAC512 algorithm (a new keyed Mac per call),
+ * against {@link SecurityRealmSigningKey} (pooled clones of a pre-keyed Mac).
+ * Run with <code>-prof gc</code> to see the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SigningKeyBenchmark {
+
+    private static final String SECRET = "f=s|<u1oaJmYQ:5h3D5*v|;^-Q,UeBq(";
+
+    private Algorithm libraryAlgorithm;
+    private JWTVerifier libraryVerifier;
+    private SecurityRealmSigningKey signingKey;
+    private SecurityRealmTokenFormat format;
+    private SecurityRealmTokenCodec codec;
+
+    private byte[] content;
+    private SecurityRealmAuthentication authentication;
+    private String token;
+    private SecurityRealmTokenClaims claims;
+
+    @Setup
+    public void setup() {
+        libraryAlgorithm = Algorithm.HMAC512(SECRET);
+        libraryVerifier = JWT.require(libraryAlgorithm).build();
+        signingKey = new SecurityRealmSigningKey(SECRET);
+        format = new JwtSecurityRealmTokenFormat(signingKey);
+        codec = SecurityRealmTokenCodec.builder(format).build();
+
+        authentication = new SecurityRealmAuthentication("khalid", Set.of(new SimpleGrantedAuthority("READ")));
+        authentication._UNSAFE_overrideRealm("ADMIN_USER");
+        token = codec.encode(authentication, Duration.ofHours(1));
+        claims = format.read(token);
+
+        content = token.substring(0, token.lastIndexOf('.')).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public byte[] signWithLibraryAlgorithm() {
+        return libraryAlgorithm.sign(content);
+    }
+
+    @Benchmark
+    public byte[] signWithSigningKey() {
+        return signingKey.sign(content);
+    }
+
+    @Benchmark
+    public String encodeWithLibraryAlgorithm() {
+        return JWT
+            .create()
+            .withClaim("realm", authentication.getRealm())
+            .withSubject(authentication.getName())
+            .withClaim("authorities", List.of("READ"))
+            .withClaim("nextAuthenticationStep", (String) null)
+            .withClaim("extras", authentication.getExtras())
+            .withExpiresAt(Instant.now().plusSeconds(3600))
+            .sign(libraryAlgorithm);
+    }
+
+    @Benchmark
+    public String encodeWithSigningKey() {
+        return codec.encode(authentication, Duration.ofHours(1));
+    }
+
+    @Benchmark
+    public Object verifyWithLibraryAlgorithm() {
+        return libraryVerifier.verify(token);
+    }
+
+    @Benchmark
+    public Object verifyWithSigningKey() {
+        return format.verify(claims);
+    }
+}
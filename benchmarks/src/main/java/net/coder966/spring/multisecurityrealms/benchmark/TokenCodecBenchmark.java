@@ -0,0 +1,96 @@
+package net.coder966.spring.multisecurityrealms.benchmark;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.converter.CompactSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.JwtSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmSigningKey;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCache;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Encodes and decodes tokens of both formats, growing with the number of authorities and extras they carry.
+ * Decoding goes through the whole codec: reading the token, verifying its signature and building the authentication,
+ * with and without the token cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class TokenCodecBenchmark {
+
+    private static final String SECRET = "f=s|<u1oaJmYQ:5h3D5*v|;^-Q,UeBq(";
+
+    @Param({"JWT", "COMPACT"})
+    public String format;
+
+    // the number of authorities, and of extras, the token carries
+    @Param({"1", "10", "100"})
+    public int size;
+
+    private SecurityRealmTokenCodec codec;
+    private SecurityRealmTokenCodec cachedCodec;
+    private SecurityRealmAuthentication authentication;
+    private String token;
+
+    @Setup
+    public void setup() {
+        SecurityRealmSigningKey signingKey = new SecurityRealmSigningKey(SECRET);
+        SecurityRealmTokenFormat tokenFormat = format.equals("COMPACT")
+            ? new CompactSecurityRealmTokenFormat(signingKey)
+            : new JwtSecurityRealmTokenFormat(signingKey);
+        codec = SecurityRealmTokenCodec.builder(tokenFormat).build();
+        cachedCodec = SecurityRealmTokenCodec.builder(tokenFormat).cache(new SecurityRealmTokenCache(1024)).build();
+
+        Set<GrantedAuthority> authorities = new HashSet<>();
+        for(int i = 0; i < size; i++){
+            authorities.add(new SimpleGrantedAuthority("AUTHORITY_" + i));
+        }
+        authentication = new SecurityRealmAuthentication("khalid", authorities);
+        for(int i = 0; i < size; i++){
+            authentication.addExtra("extra" + i, "value-" + i);
+        }
+        authentication._UNSAFE_overrideRealm("ADMIN_USER");
+
+        token = codec.encode(authentication, Duration.ofHours(1));
+    }
+
+    @Benchmark
+    public String encode() {
+        return codec.encode(authentication, Duration.ofHours(1));
+    }
+
+    @Benchmark
+    public Object decode() {
+        // the authorities and extras are decoded on first access, so consult them like a request would
+        SecurityRealmAuthentication decoded = codec.decode(token);
+        return decoded.getAuthorities();
+    }
+
+    @Benchmark
+    public Object decodeCached() {
+        SecurityRealmAuthentication decoded = cachedCodec.decode(token);
+        return decoded.getAuthorities();
+    }
+}
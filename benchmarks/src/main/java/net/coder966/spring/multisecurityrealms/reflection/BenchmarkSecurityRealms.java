@@ -0,0 +1,94 @@
+package net.coder966.spring.multisecurityrealms.reflection;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import net.coder966.spring.multisecurityrealms.configuration.SecurityRealmConfigurationProperties;
+import net.coder966.spring.multisecurityrealms.converter.JwtSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmSigningKey;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+/**
+ * Builds any number of realms and anonymous routes, without declaring a {@code @SecurityRealm} class or a controller for each of them.
+ * It lives in the reflection package, because the route table is only filled by the scanner.
+ */
+public final class BenchmarkSecurityRealms {
+
+    private BenchmarkSecurityRealms() {
+    }
+
+    public static String realmName(int index) {
+        return "REALM_" + index;
+    }
+
+    public static String signingSecret(int index) {
+        return "benchmark-secret-of-realm-" + index + "-f=s|<u1oaJmYQ:5h3D5";
+    }
+
+    /**
+     * The realms are named {@link #realmName(int)}, signed by {@link #signingSecret(int)}, and authenticate at {@code POST /realm-<index>/login}.
+     * Half of the anonymous routes are literal paths {@code /public-<index>/items}, the other half are patterns {@code /public-<index>/items/{id}}.
+     *
+     * @return a scanner that ignores the beans of the context, and provides the given realms and anonymous routes
+     */
+    public static SecurityRealmScanner scanner(GenericApplicationContext context, int realms, int anonymousRoutes) {
+        return new SecurityRealmScanner(context, context.getEnvironment()) {
+
+            private SecurityRealmSnapshot snapshot;
+
+            @Override
+            public void scan() {
+                List<SecurityRealmDescriptor> descriptors = new ArrayList<>();
+                SecurityRealmRouteTable routeTable = new SecurityRealmRouteTable();
+                for(int i = 0; i < realms; i++){
+                    String authenticationEndpoint = "/realm-" + i + "/login";
+                    descriptors.add(new SecurityRealmDescriptor(
+                        realmName(i),
+                        PathPatternRequestMatcher.withDefaults().matcher(HttpMethod.POST, authenticationEndpoint),
+                        "first",
+                        new SecurityRealmTokenCodec(signingSecret(i)),
+                        Duration.ofHours(1),
+                        Map.of(),
+                        null
+                    ));
+                    routeTable.addAuthenticationEndpoint(HttpMethod.POST, authenticationEndpoint, realmName(i));
+                }
+                for(int i = 0; i < anonymousRoutes; i++){
+                    String path = i % 2 == 0 ? "/public-" + i + "/items" : "/public-" + i + "/items/{id}";
+                    routeTable.addAnonymousRoute(HttpMethod.GET, path, false);
+                }
+                snapshot = new SecurityRealmSnapshot(descriptors, List.of(), routeTable);
+            }
+
+            @Override
+            public SecurityRealmSnapshot getSnapshot() {
+                return snapshot;
+            }
+        };
+    }
+
+    /**
+     * @return the anonymous routes of {@link #scanner(GenericApplicationContext, int, int)}, without any realm
+     */
+    public static SecurityRealmRouteTable routeTable(int anonymousRoutes) {
+        SecurityRealmScanner scanner = scanner(new GenericApplicationContext(), 0, anonymousRoutes);
+        scanner.scan();
+        return scanner.getRouteTable();
+    }
+
+    /**
+     * @return the minimal context the realms filter needs: the configuration properties and a handler adapter to dispatch the steps to
+     */
+    public static GenericApplicationContext context() {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(SecurityRealmConfigurationProperties.class);
+        context.registerBean(RequestMappingHandlerAdapter.class);
+        context.refresh();
+        return context;
+    }
+}
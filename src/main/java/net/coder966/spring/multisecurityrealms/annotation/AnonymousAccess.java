@@ -28,4 +28,11 @@ import org.springframework.stereotype.Component;
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface AnonymousAccess {
+
+    /**
+     * Whether the method is always accessed anonymously, even by authenticated users.
+     * The request token is then neither read nor verified, which makes these the cheapest requests to serve,
+     * use it for public routes that never need to know who the user is.
+     */
+    boolean anonymousOnly() default false;
 }
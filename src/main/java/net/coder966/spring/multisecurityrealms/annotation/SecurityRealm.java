@@ -19,10 +19,49 @@ public @interface SecurityRealm {
 
     String signingSecret() default "";
 
+    /**
+     * The signing keys of this realm, to rotate them without invalidating the issued tokens, each written as <pre>id=secret</pre>,
+     * e.g. <pre>"2025-06=${my-app.realm-secret-2025-06}"</pre>. The id is carried by the tokens (the JWT <pre>kid</pre> header),
+     * so each token is verified by its own key. See {@link net.coder966.spring.multisecurityrealms.converter.SecurityRealmKeyRing}.
+     * The {@link #activeSigningKey()} signs the new tokens, the other keys only verify the tokens they signed, remove them once these expired.
+     * If a {@link #signingSecret()} is also specified, it still verifies the tokens without key id, e.g. issued before the realm had signing keys.
+     * If not specified, will use the default specified under the configuration property <pre>security-realm.signing-keys</pre>
+     */
+    String[] signingKeys() default {};
+
+    /**
+     * The id of the signing key that signs the new tokens, required when there is more than one signing key.
+     * If not specified, will use the default specified under the configuration property <pre>security-realm.active-signing-key</pre>
+     */
+    String activeSigningKey() default "";
+
     /**
      * The TTL (Time-To-Live) after which the token <b>for the fully authenticated user (no further steps)</b> will expire.
      * This is a duration expression, for example, "3m" for 3 minutes or "7h" for 7 hours etc...
      * If not specified, will use the default specified under the configuration property <pre>security-realm.fully-authenticated-token-ttl</pre>
      */
     String fullyAuthenticatedTokenTtl() default "";
+
+    /**
+     * The implementation used to verify and decode this realm tokens, either <pre>STANDARD</pre> or <pre>LIGHTWEIGHT</pre>.
+     * See {@link net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenDecoder}.
+     * If not specified, will use the default specified under the configuration property <pre>security-realm.token-decoder</pre>, or <pre>STANDARD</pre>
+     */
+    String tokenDecoder() default "";
+
+    /**
+     * The format of the tokens issued by this realm, either <pre>JWT</pre>, <pre>COMPACT</pre>,
+     * or the fully qualified class name of a {@link net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenFormat} implementation.
+     * JWT tokens are always accepted, so that existing tokens remain valid after switching formats.
+     * If not specified, will use the default specified under the configuration property <pre>security-realm.token-format</pre>, or <pre>JWT</pre>
+     */
+    String tokenFormat() default "";
+
+    /**
+     * The universe of authorities this realm can grant, it lets tokens carry the authorities as a bitmask, see
+     * {@link net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthorityDictionary}.
+     * Only append to this list, as the position of an authority is its bit in the issued tokens.
+     * It can also be declared as a bean of type SecurityRealmAuthorityDictionary, instead.
+     */
+    String[] authorities() default {};
 }
@@ -0,0 +1,156 @@
+package net.coder966.spring.multisecurityrealms.aot;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import net.coder966.spring.multisecurityrealms.annotation.AnonymousAccess;
+import net.coder966.spring.multisecurityrealms.annotation.AuthenticationStep;
+import net.coder966.spring.multisecurityrealms.annotation.SecurityRealm;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmIndex;
+import org.springframework.aot.generate.GenerationContext;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.ExecutableMode;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.beans.factory.aot.BeanFactoryInitializationAotContribution;
+import org.springframework.beans.factory.aot.BeanFactoryInitializationAotProcessor;
+import org.springframework.beans.factory.aot.BeanFactoryInitializationCode;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.RegisteredBean;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.bind.annotation.RequestBody;
+
+/**
+ * Precomputes, at build time, what {@link net.coder966.spring.multisecurityrealms.reflection.SecurityRealmScanner} finds at startup:
+ * <ul>
+ *     <li>the {@link SecurityRealmIndex} of the realm and anonymous route classes, so the native image does not scan the beans</li>
+ *     <li>the reflection hints of the realm classes and their authentication steps, which are invoked reflectively,
+ *     and the binding hints of the step request bodies</li>
+ *     <li>the reflection hints of the controllers declaring anonymous routes, whose methods are introspected</li>
+ *     <li>the constructors of the custom token formats, which are instantiated reflectively</li>
+ * </ul>
+ * The bean classes are known from the bean definitions, no bean is instantiated.
+ */
+public class SecurityRealmBeanFactoryInitializationAotProcessor implements BeanFactoryInitializationAotProcessor {
+
+    @Override
+    public BeanFactoryInitializationAotContribution processAheadOfTime(ConfigurableListableBeanFactory beanFactory) {
+        Set<Class<?>> realmClasses = new LinkedHashSet<>();
+        Set<Class<?>> anonymousAccessClasses = new LinkedHashSet<>();
+
+        for(String beanName : beanFactory.getBeanDefinitionNames()){
+            Class<?> beanClass = ClassUtils.getUserClass(RegisteredBean.of(beanFactory, beanName).getBeanClass());
+            if(beanClass.isAnnotationPresent(SecurityRealm.class)){
+                realmClasses.add(beanClass);
+            }
+            if(AnnotatedElementUtils.hasAnnotation(beanClass, Controller.class) && hasAnonymousAccessMethod(beanClass)){
+                anonymousAccessClasses.add(beanClass);
+            }
+        }
+
+        if(realmClasses.isEmpty() && anonymousAccessClasses.isEmpty()){
+            return null;
+        }
+
+        Set<Class<?>> tokenFormatClasses = findTokenFormatClasses(beanFactory, realmClasses);
+        return new Contribution(realmClasses, anonymousAccessClasses, tokenFormatClasses);
+    }
+
+    private static boolean hasAnonymousAccessMethod(Class<?> type) {
+        for(Method method : type.getDeclaredMethods()){
+            if(method.isAnnotationPresent(AnonymousAccess.class)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The custom formats named by the realms or the {@code security-realm.token-format} property, the built-in ones are not instantiated reflectively.
+     */
+    private static Set<Class<?>> findTokenFormatClasses(ConfigurableListableBeanFactory beanFactory, Set<Class<?>> realmClasses) {
+        Environment env = beanFactory.getBeanProvider(Environment.class).getIfAvailable();
+
+        Set<String> formats = new LinkedHashSet<>();
+        for(Class<?> realmClass : realmClasses){
+            String format = realmClass.getAnnotation(SecurityRealm.class).tokenFormat();
+            formats.add(env == null ? format : env.resolvePlaceholders(format));
+        }
+        if(env != null && env.getProperty("security-realm.token-format") != null){
+            formats.add(env.getProperty("security-realm.token-format"));
+        }
+
+        Set<Class<?>> formatClasses = new LinkedHashSet<>();
+        for(String format : formats){
+            format = format.trim();
+            if(format.isEmpty() || format.equalsIgnoreCase("JWT") || format.equalsIgnoreCase("COMPACT")){
+                continue;
+            }
+            try{
+                Class<?> formatClass = ClassUtils.forName(format, beanFactory.getBeanClassLoader());
+                if(SecurityRealmTokenFormat.class.isAssignableFrom(formatClass)){
+                    formatClasses.add(formatClass);
+                }
+            }catch(ClassNotFoundException | LinkageError e){
+                // reported by the scanner when the application starts
+            }
+        }
+        return formatClasses;
+    }
+
+    private static final class Contribution implements BeanFactoryInitializationAotContribution {
+
+        private final BindingReflectionHintsRegistrar bindingRegistrar = new BindingReflectionHintsRegistrar();
+
+        private final Set<Class<?>> realmClasses;
+        private final Set<Class<?>> anonymousAccessClasses;
+        private final Set<Class<?>> tokenFormatClasses;
+
+        private Contribution(Set<Class<?>> realmClasses, Set<Class<?>> anonymousAccessClasses, Set<Class<?>> tokenFormatClasses) {
+            this.realmClasses = realmClasses;
+            this.anonymousAccessClasses = anonymousAccessClasses;
+            this.tokenFormatClasses = tokenFormatClasses;
+        }
+
+        @Override
+        public void applyTo(GenerationContext generationContext, BeanFactoryInitializationCode beanFactoryInitializationCode) {
+            RuntimeHints hints = generationContext.getRuntimeHints();
+
+            for(Class<?> realmClass : realmClasses){
+                hints.reflection().registerType(realmClass, MemberCategory.INTROSPECT_DECLARED_METHODS);
+                for(Method method : realmClass.getDeclaredMethods()){
+                    if(!method.isAnnotationPresent(AuthenticationStep.class)){
+                        continue;
+                    }
+                    hints.reflection().registerMethod(method, ExecutableMode.INVOKE);
+                    for(Parameter parameter : method.getParameters()){
+                        if(parameter.isAnnotationPresent(RequestBody.class)){
+                            bindingRegistrar.registerReflectionHints(hints.reflection(), parameter.getParameterizedType());
+                        }
+                    }
+                }
+            }
+
+            for(Class<?> anonymousAccessClass : anonymousAccessClasses){
+                hints.reflection().registerType(anonymousAccessClass, MemberCategory.INTROSPECT_DECLARED_METHODS);
+            }
+
+            for(Class<?> tokenFormatClass : tokenFormatClasses){
+                hints.reflection().registerType(tokenFormatClass, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+            }
+
+            SecurityRealmIndex index = new SecurityRealmIndex(classNames(realmClasses), classNames(anonymousAccessClasses));
+            generationContext.getGeneratedFiles().addResourceFile(SecurityRealmIndex.LOCATION, index.toProperties());
+        }
+
+        private static Set<String> classNames(Set<Class<?>> classes) {
+            return classes.stream().map(Class::getName).collect(Collectors.toSet());
+        }
+    }
+}
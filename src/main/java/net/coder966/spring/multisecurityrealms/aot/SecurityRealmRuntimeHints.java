@@ -0,0 +1,33 @@
+package net.coder966.spring.multisecurityrealms.aot;
+
+import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationErrorResponse;
+import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationSuccessResponse;
+import net.coder966.spring.multisecurityrealms.expression.PermitRealmExpressionRoot;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmIndex;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * The hints every application needs, whatever its realms, see {@link SecurityRealmBeanFactoryInitializationAotProcessor} for the hints of the realms themselves.
+ */
+public class SecurityRealmRuntimeHints implements RuntimeHintsRegistrar {
+
+    private final BindingReflectionHintsRegistrar bindingRegistrar = new BindingReflectionHintsRegistrar();
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        // permitRealm(...) is invoked by SpEL
+        hints.reflection().registerType(PermitRealmExpressionRoot.class, MemberCategory.INVOKE_PUBLIC_METHODS);
+
+        // the authentication responses are serialized by Jackson, from their public fields
+        bindingRegistrar.registerReflectionHints(
+            hints.reflection(), SecurityRealmAuthenticationSuccessResponse.class, SecurityRealmAuthenticationErrorResponse.class
+        );
+        hints.reflection().registerType(SecurityRealmAuthenticationSuccessResponse.class, MemberCategory.PUBLIC_FIELDS);
+        hints.reflection().registerType(SecurityRealmAuthenticationErrorResponse.class, MemberCategory.PUBLIC_FIELDS);
+
+        hints.resources().registerPattern(SecurityRealmIndex.LOCATION);
+    }
+}
@@ -9,9 +9,14 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
 public class SecurityRealmAnonymousAuthentication implements Authentication {
 
+    /**
+     * A shared instance, it holds no per-request state, so it is used for all anonymous requests.
+     */
+    public static final SecurityRealmAnonymousAuthentication INSTANCE = new SecurityRealmAnonymousAuthentication();
+
+    private static final Set<GrantedAuthority> AUTHORITIES = Set.of(new SimpleGrantedAuthority("ROLE_ANONYMOUS"));
+
     private final String anonymousKey = UUID.randomUUID().toString();
-    
-    private final Set<GrantedAuthority> authorities = Set.of(new SimpleGrantedAuthority("ROLE_ANONYMOUS"));
 
     public String getAnonymousKey() {
         return anonymousKey;
@@ -19,7 +24,7 @@ public class SecurityRealmAnonymousAuthentication implements Authentication {
 
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
-        return authorities;
+        return AUTHORITIES;
     }
 
     @Override
@@ -1,11 +1,13 @@
 package net.coder966.spring.multisecurityrealms.authentication;
 
 import java.time.Duration;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import net.coder966.spring.multisecurityrealms.context.SecurityRealmContext;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 
@@ -14,12 +16,15 @@ public class SecurityRealmAuthentication implements Authentication {
     private String realm;
 
     private final String name;
-    private final Set<? extends GrantedAuthority> authorities;
+    private Set<? extends GrantedAuthority> authorities;
 
     private final String nextAuthenticationStep;
     private final Duration tokenTtl;
 
-    private final Map<String, Object> extras = new HashMap<>();
+    // both are loaded on first access when null, see loadAuthorities() and loadExtras()
+    private Map<String, Object> extras;
+
+    private boolean immutable = false;
 
 
     /**
@@ -33,6 +38,16 @@ public class SecurityRealmAuthentication implements Authentication {
      * Use this when the user is not fully authenticated and needs to proceed to the another auth step.
      */
     public SecurityRealmAuthentication(String name, Set<? extends GrantedAuthority> authorities, String nextAuthenticationStep, Duration tokenTtl) {
+        this(name, nextAuthenticationStep, tokenTtl, currentRealm());
+        this.authorities = authorities == null ? new HashSet<>() : authorities;
+    }
+
+    /**
+     * For subclasses which decode the authorities and extras lazily, by overriding {@link #loadAuthorities()} and {@link #loadExtras()}.
+     *
+     * @param realm the realm of the authentication, e.g. read from the verified token, the {@link SecurityRealmContext} is not consulted
+     */
+    protected SecurityRealmAuthentication(String name, String nextAuthenticationStep, Duration tokenTtl, String realm) {
         if(name == null || name.trim().length() != name.length() || name.isBlank()){
             throw new IllegalArgumentException("You must provide the username");
         }
@@ -42,18 +57,26 @@ public class SecurityRealmAuthentication implements Authentication {
         }
 
         this.name = name;
-        this.authorities = authorities == null ? new HashSet<>() : authorities;
 
         this.nextAuthenticationStep = nextAuthenticationStep;
         this.tokenTtl = tokenTtl;
 
-        this.realm = SecurityRealmContext.getDescriptor() == null ? null : SecurityRealmContext.getDescriptor().getName();
+        this.realm = realm;
+    }
+
+    private static String currentRealm() {
+        SecurityRealmDescriptor descriptor = SecurityRealmContext.getDescriptor();
+        return descriptor == null ? null : descriptor.getName();
     }
 
     /**
      * Add extra key-value information to the authentication response. It will be available in the response under "extras" field.
      */
     public SecurityRealmAuthentication addExtra(String key, Object value) {
+        assertMutable();
+        if(getExtras() == Collections.<String, Object>emptyMap()){
+            extras = new HashMap<>();
+        }
         extras.put(key, value);
         return this;
     }
@@ -71,14 +94,34 @@ public class SecurityRealmAuthentication implements Authentication {
     }
 
     public Map<String, Object> getExtras() {
+        if(extras == null){
+            extras = loadExtras();
+        }
         return extras;
     }
 
     @Override
     public Set<? extends GrantedAuthority> getAuthorities() {
+        if(authorities == null){
+            authorities = loadAuthorities();
+        }
         return authorities;
     }
 
+    /**
+     * Called once, on the first access to the authorities, unless they were given to the constructor.
+     */
+    protected Set<? extends GrantedAuthority> loadAuthorities() {
+        return new HashSet<>();
+    }
+
+    /**
+     * Called once, on the first access to the extras. May return {@link Collections#emptyMap()}, which is replaced by a mutable map on {@link #addExtra}.
+     */
+    protected Map<String, Object> loadExtras() {
+        return new HashMap<>();
+    }
+
     @Override
     public Object getCredentials() {
         return null;
@@ -126,6 +169,24 @@ public class SecurityRealmAuthentication implements Authentication {
      * this is used for internal use only
      */
     public void _UNSAFE_overrideRealm(String realm) {
+        assertMutable();
         this.realm = realm;
     }
+
+    /**
+     * this is used for internal use only, after calling it, the authentication can be safely shared between requests
+     */
+    public void _UNSAFE_makeImmutable() {
+        if(!(getAuthorities() instanceof SecurityRealmAuthoritySet)){ // already immutable
+            this.authorities = Collections.unmodifiableSet(authorities);
+        }
+        this.extras = Collections.unmodifiableMap(getExtras());
+        this.immutable = true;
+    }
+
+    private void assertMutable() {
+        if(immutable){
+            throw new UnsupportedOperationException("This SecurityRealmAuthentication is immutable, as it is shared between requests");
+        }
+    }
 }
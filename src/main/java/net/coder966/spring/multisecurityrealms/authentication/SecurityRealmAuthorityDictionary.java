@@ -0,0 +1,127 @@
+package net.coder966.spring.multisecurityrealms.authentication;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * The universe of authorities a realm can grant. When a realm has one, tokens carry the authorities as a bitmask
+ * instead of their names, and decoded authentications share the same {@link GrantedAuthority} instances.
+ * <p>
+ * Declare it using <code>@SecurityRealm(authorities = {...})</code>, or register it as a bean.
+ * <p>
+ * <b>The bit of an authority is its position in the dictionary</b>, so only append new authorities to the end,
+ * reordering or removing authorities changes the meaning of the tokens that were already issued.
+ */
+public class SecurityRealmAuthorityDictionary {
+
+    private final String realm;
+    private final GrantedAuthority[] authorities;
+    private final Map<String, Integer> indexes;
+
+    public SecurityRealmAuthorityDictionary(String realm, List<String> authorityNames) {
+        this.realm = realm;
+        this.authorities = new GrantedAuthority[authorityNames.size()];
+        this.indexes = new HashMap<>(authorityNames.size() * 2);
+
+        for(int i = 0; i < authorityNames.size(); i++){
+            String name = authorityNames.get(i);
+            if(name == null || name.isBlank() || indexes.containsKey(name)){
+                throw new IllegalArgumentException("Invalid authority (" + name + ") for SecurityRealm (" + realm + ")");
+            }
+            authorities[i] = new SimpleGrantedAuthority(name);
+            indexes.put(name, i);
+        }
+    }
+
+    public String getRealm() {
+        return realm;
+    }
+
+    public int size() {
+        return authorities.length;
+    }
+
+    /**
+     * @return the shared instance of the authority, or null if it is not in the dictionary
+     */
+    public GrantedAuthority get(String authorityName) {
+        Integer index = indexes.get(authorityName);
+        return index == null ? null : authorities[index];
+    }
+
+    /**
+     * @return the authorities as a bitset-backed set, or null if any of them is not in the dictionary
+     */
+    public Set<GrantedAuthority> toSet(Collection<? extends GrantedAuthority> grantedAuthorities) {
+        if(grantedAuthorities instanceof SecurityRealmAuthoritySet set && set.getDictionary() == this){
+            return set;
+        }
+
+        BitSet bits = new BitSet(authorities.length);
+        for(GrantedAuthority grantedAuthority : grantedAuthorities){
+            Integer index = grantedAuthority == null ? null : indexes.get(grantedAuthority.getAuthority());
+            if(index == null){
+                return null;
+            }
+            bits.set(index);
+        }
+        return new SecurityRealmAuthoritySet(this, bits);
+    }
+
+    /**
+     * @return the authorities as a bitset-backed set, or null if any of them is not in the dictionary
+     */
+    public Set<GrantedAuthority> toSetOfNames(Collection<String> authorityNames) {
+        BitSet bits = new BitSet(authorities.length);
+        for(String authorityName : authorityNames){
+            Integer index = indexes.get(authorityName);
+            if(index == null){
+                return null;
+            }
+            bits.set(index);
+        }
+        return new SecurityRealmAuthoritySet(this, bits);
+    }
+
+    /**
+     * @param mask as returned by {@link SecurityRealmAuthoritySet#toMask()}
+     * @throws IllegalArgumentException if the mask refers to authorities outside the dictionary
+     */
+    public Set<GrantedAuthority> fromMask(byte[] mask) {
+        BitSet bits = BitSet.valueOf(mask);
+        if(bits.length() > authorities.length){
+            throw new IllegalArgumentException("Invalid authorities mask for SecurityRealm (" + realm + ")");
+        }
+        return new SecurityRealmAuthoritySet(this, bits);
+    }
+
+    /**
+     * Same check as {@link #fromMask(byte[])}, without decoding the mask.
+     */
+    public boolean isValidMask(byte[] mask) {
+        int last = mask.length - 1;
+        while(last >= 0 && mask[last] == 0){
+            last--;
+        }
+        if(last < 0){
+            return true;
+        }
+        int length = last * 8 + (32 - Integer.numberOfLeadingZeros(mask[last] & 0xFF));
+        return length <= authorities.length;
+    }
+
+    int indexOf(String authorityName) {
+        Integer index = indexes.get(authorityName);
+        return index == null ? -1 : index;
+    }
+
+    GrantedAuthority get(int index) {
+        return authorities[index];
+    }
+}
@@ -0,0 +1,73 @@
+package net.coder966.spring.multisecurityrealms.authentication;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * An immutable set of authorities backed by a bitset over a {@link SecurityRealmAuthorityDictionary}.
+ * {@link #contains(Object)} is a lookup and a bit test, and the elements are the dictionary shared instances.
+ */
+public final class SecurityRealmAuthoritySet extends AbstractSet<GrantedAuthority> {
+
+    private final SecurityRealmAuthorityDictionary dictionary;
+    private final BitSet bits;
+    private final int size;
+
+    SecurityRealmAuthoritySet(SecurityRealmAuthorityDictionary dictionary, BitSet bits) {
+        this.dictionary = dictionary;
+        this.bits = bits;
+        this.size = bits.cardinality();
+    }
+
+    public SecurityRealmAuthorityDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the bits, little-endian, without trailing zero bytes
+     */
+    public byte[] toMask() {
+        return bits.toByteArray();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        // same semantics as a set of SimpleGrantedAuthority, which only equals its own type
+        if(!(o instanceof SimpleGrantedAuthority authority)){
+            return false;
+        }
+        int index = dictionary.indexOf(authority.getAuthority());
+        return index >= 0 && bits.get(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<GrantedAuthority> iterator() {
+        return new Iterator<>() {
+            private int next = bits.nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public GrantedAuthority next() {
+                if(next < 0){
+                    throw new NoSuchElementException();
+                }
+                GrantedAuthority authority = dictionary.get(next);
+                next = bits.nextSetBit(next + 1);
+                return authority;
+            }
+        };
+    }
+}
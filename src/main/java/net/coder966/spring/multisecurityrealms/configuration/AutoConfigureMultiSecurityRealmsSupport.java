@@ -1,27 +1,55 @@
 package net.coder966.spring.multisecurityrealms.configuration;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContextTaskExecutorCustomizer;
 import net.coder966.spring.multisecurityrealms.mvc.SecurityRealmControllerAdvice;
 import net.coder966.spring.multisecurityrealms.expression.PermitRealmMethodSecurityExpressionHandler;
 import net.coder966.spring.multisecurityrealms.filter.MultiSecurityRealmAuthenticationFilter;
+import net.coder966.spring.multisecurityrealms.metrics.MicrometerSecurityRealmMetricsRecorder;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmMetricsRecorder;
+import net.coder966.spring.multisecurityrealms.reactive.MultiSecurityRealmWebFilter;
+import net.coder966.spring.multisecurityrealms.reactive.SecurityRealmReactiveAuthenticationManager;
+import net.coder966.spring.multisecurityrealms.reactive.SecurityRealmReactiveControllerAdvice;
 import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationManagerResolver;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.AnonymousAuthenticationFilter;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.HttpStatusServerEntryPoint;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
 
-@AutoConfiguration
+/**
+ * The beans shared by both stacks, then the servlet (Spring MVC) and the reactive (Spring WebFlux) beans, picked according to the application type.
+ * Ordered after the meter registries of Spring Boot Actuator, if any, so the metrics are recorded to them.
+ */
+@AutoConfiguration(afterName = {
+    "org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration",
+    "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration"
+})
 public class AutoConfigureMultiSecurityRealmsSupport {
 
     private static final Logger log = LoggerFactory.getLogger(AutoConfigureMultiSecurityRealmsSupport.class);
@@ -32,21 +60,27 @@ public class AutoConfigureMultiSecurityRealmsSupport {
         return new SecurityRealmConfigurationProperties();
     }
 
-    @Bean
-    public SecurityRealmControllerAdvice defaultSecurityRealmControllerAdvice() {
-        return new SecurityRealmControllerAdvice();
-    }
-
     @Bean
     public SecurityRealmScanner defaultSecurityRealmScanner(ApplicationContext context, Environment env) {
         return new SecurityRealmScanner(context, env);
     }
 
     @Bean
-    public MultiSecurityRealmAuthenticationFilter defaultMultiSecurityRealmAuthenticationFilter(
-        ApplicationContext context, SecurityRealmScanner securityRealmScanner
+    @ConditionalOnProperty(prefix = "security-realm.reload", name = "enabled")
+    public SecurityRealmConfigurationReloader defaultSecurityRealmConfigurationReloader(
+        SecurityRealmScanner securityRealmScanner, ConfigurableEnvironment env, SecurityRealmConfigurationProperties properties
     ) {
-        return new MultiSecurityRealmAuthenticationFilter(context, securityRealmScanner);
+        return new SecurityRealmConfigurationReloader(securityRealmScanner, env, properties.getReload());
+    }
+
+    /**
+     * Carries the realm context into {@code @Async} methods and the application executor, along with the {@link TaskDecorator} of the application, if any.
+     * It is not a {@link TaskDecorator} bean itself, so it neither replaces nor hides the decorator of the application.
+     */
+    @Bean
+    public SecurityRealmContextTaskExecutorCustomizer defaultSecurityRealmContextTaskExecutorCustomizer(ObjectProvider<TaskDecorator> taskDecorator) {
+        // same lookup as the executors of Spring Boot
+        return new SecurityRealmContextTaskExecutorCustomizer(taskDecorator.getIfUnique());
     }
 
     @Bean
@@ -54,31 +88,101 @@ public class AutoConfigureMultiSecurityRealmsSupport {
         return new PermitRealmMethodSecurityExpressionHandler();
     }
 
-    @Bean
-    @ConditionalOnMissingBean(SecurityFilterChain.class)
-    protected SecurityFilterChain defaultSecurityFilterChain(
-        HttpSecurity http,
-        MultiSecurityRealmAuthenticationFilter multiSecurityRealmAuthenticationFilter
-    ) throws Exception {
-        log.info("Creating a default SecurityFilterChain with multi realms support...");
-
-        http.addFilterBefore(multiSecurityRealmAuthenticationFilter, AnonymousAuthenticationFilter.class);
-        http.authorizeHttpRequests(configurer -> configurer.anyRequest().authenticated());
-        http.csrf(AbstractHttpConfigurer::disable);
-        http.sessionManagement(configurer -> configurer.sessionCreationPolicy(SessionCreationPolicy.STATELESS));
-
-        return http.build();
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    static class MetricsConfiguration {
+
+        @Bean
+        @ConditionalOnBean(MeterRegistry.class)
+        @ConditionalOnMissingBean(SecurityRealmMetricsRecorder.class)
+        @ConditionalOnProperty(prefix = "security-realm.metrics", name = "enabled", matchIfMissing = true)
+        public MicrometerSecurityRealmMetricsRecorder defaultMicrometerSecurityRealmMetricsRecorder(
+            MeterRegistry meterRegistry, SecurityRealmConfigurationProperties properties
+        ) {
+            return new MicrometerSecurityRealmMetricsRecorder(meterRegistry, properties.getMetrics());
+        }
     }
 
-    @Bean
-    @ConditionalOnMissingBean(value = {
-        AuthenticationManager.class, AuthenticationProvider.class, UserDetailsService.class, AuthenticationManagerResolver.class
-    }, type = "org.springframework.security.oauth2.jwt.JwtDecoder")
-    protected AuthenticationManagerResolver<?> nullAuthenticationManagerResolver() {
-
-        log.debug("registering a null AuthenticationManagerResolver to prevent spring boot form configuring a default"
-            + " in-memory UserDetailsService (InMemoryUserDetailsManager)");
-        
-        return context -> null;
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    static class ServletConfiguration {
+
+        @Bean
+        public SecurityRealmControllerAdvice defaultSecurityRealmControllerAdvice() {
+            return new SecurityRealmControllerAdvice();
+        }
+
+        @Bean
+        public MultiSecurityRealmAuthenticationFilter defaultMultiSecurityRealmAuthenticationFilter(
+            ApplicationContext context, SecurityRealmScanner securityRealmScanner
+        ) {
+            return new MultiSecurityRealmAuthenticationFilter(context, securityRealmScanner);
+        }
+
+        @Bean
+        @ConditionalOnMissingBean(SecurityFilterChain.class)
+        protected SecurityFilterChain defaultSecurityFilterChain(
+            HttpSecurity http,
+            MultiSecurityRealmAuthenticationFilter multiSecurityRealmAuthenticationFilter
+        ) throws Exception {
+            log.info("Creating a default SecurityFilterChain with multi realms support...");
+
+            http.addFilterBefore(multiSecurityRealmAuthenticationFilter, AnonymousAuthenticationFilter.class);
+            http.authorizeHttpRequests(configurer -> configurer.anyRequest().authenticated());
+            http.csrf(AbstractHttpConfigurer::disable);
+            http.sessionManagement(configurer -> configurer.sessionCreationPolicy(SessionCreationPolicy.STATELESS));
+
+            return http.build();
+        }
+
+        @Bean
+        @ConditionalOnMissingBean(value = {
+            AuthenticationManager.class, AuthenticationProvider.class, UserDetailsService.class, AuthenticationManagerResolver.class
+        }, type = "org.springframework.security.oauth2.jwt.JwtDecoder")
+        protected AuthenticationManagerResolver<?> nullAuthenticationManagerResolver() {
+
+            log.debug("registering a null AuthenticationManagerResolver to prevent spring boot form configuring a default"
+                + " in-memory UserDetailsService (InMemoryUserDetailsManager)");
+
+            return context -> null;
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    static class ReactiveConfiguration {
+
+        @Bean
+        public SecurityRealmReactiveControllerAdvice defaultSecurityRealmReactiveControllerAdvice() {
+            return new SecurityRealmReactiveControllerAdvice();
+        }
+
+        @Bean
+        public MultiSecurityRealmWebFilter defaultMultiSecurityRealmWebFilter(ApplicationContext context, SecurityRealmScanner securityRealmScanner) {
+            return new MultiSecurityRealmWebFilter(context, securityRealmScanner);
+        }
+
+        /**
+         * Also prevents spring boot from configuring a default in-memory ReactiveUserDetailsService (MapReactiveUserDetailsService).
+         */
+        @Bean
+        public SecurityRealmReactiveAuthenticationManager defaultSecurityRealmReactiveAuthenticationManager(MultiSecurityRealmWebFilter multiSecurityRealmWebFilter) {
+            return multiSecurityRealmWebFilter.getAuthenticationManager();
+        }
+
+        @Bean
+        @ConditionalOnMissingBean(SecurityWebFilterChain.class)
+        protected SecurityWebFilterChain defaultSecurityWebFilterChain(ServerHttpSecurity http, MultiSecurityRealmWebFilter multiSecurityRealmWebFilter) {
+            log.info("Creating a default SecurityWebFilterChain with multi realms support...");
+
+            http.addFilterAt(multiSecurityRealmWebFilter, SecurityWebFiltersOrder.AUTHENTICATION);
+            http.authorizeExchange(configurer -> configurer.anyExchange().authenticated());
+            http.csrf(ServerHttpSecurity.CsrfSpec::disable);
+            http.securityContextRepository(NoOpServerSecurityContextRepository.getInstance());
+            // same status as the servlet stack
+            http.exceptionHandling(configurer -> configurer.authenticationEntryPoint(new HttpStatusServerEntryPoint(HttpStatus.FORBIDDEN)));
+
+            return http.build();
+        }
     }
 }
@@ -1,13 +1,26 @@
 package net.coder966.spring.multisecurityrealms.configuration;
 
 import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenDecoder;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 @ConfigurationProperties(prefix = "security-realm")
 public class SecurityRealmConfigurationProperties {
 
     private String signingSecret;
+    private Map<String, String> signingKeys = new LinkedHashMap<>();
+    private String activeSigningKey;
+    private KeyDerivation keyDerivation = new KeyDerivation();
     private Duration fullyAuthenticatedTokenTtl;
+    private SecurityRealmTokenDecoder tokenDecoder;
+    private String tokenFormat;
+    private TokenCache tokenCache = new TokenCache();
+    private boolean deferredTokenVerification = false;
+    private Metrics metrics = new Metrics();
+    private Index index = new Index();
+    private Reload reload = new Reload();
 
     public String getSigningSecret() {
         return signingSecret;
@@ -17,6 +30,30 @@ public class SecurityRealmConfigurationProperties {
         this.signingSecret = signingSecret;
     }
 
+    public Map<String, String> getSigningKeys() {
+        return signingKeys;
+    }
+
+    public void setSigningKeys(Map<String, String> signingKeys) {
+        this.signingKeys = signingKeys;
+    }
+
+    public String getActiveSigningKey() {
+        return activeSigningKey;
+    }
+
+    public void setActiveSigningKey(String activeSigningKey) {
+        this.activeSigningKey = activeSigningKey;
+    }
+
+    public KeyDerivation getKeyDerivation() {
+        return keyDerivation;
+    }
+
+    public void setKeyDerivation(KeyDerivation keyDerivation) {
+        this.keyDerivation = keyDerivation;
+    }
+
     public Duration getFullyAuthenticatedTokenTtl() {
         return fullyAuthenticatedTokenTtl;
     }
@@ -24,4 +61,218 @@ public class SecurityRealmConfigurationProperties {
     public void setFullyAuthenticatedTokenTtl(Duration fullyAuthenticatedTokenTtl) {
         this.fullyAuthenticatedTokenTtl = fullyAuthenticatedTokenTtl;
     }
+
+    public SecurityRealmTokenDecoder getTokenDecoder() {
+        return tokenDecoder;
+    }
+
+    public void setTokenDecoder(SecurityRealmTokenDecoder tokenDecoder) {
+        this.tokenDecoder = tokenDecoder;
+    }
+
+    public String getTokenFormat() {
+        return tokenFormat;
+    }
+
+    public void setTokenFormat(String tokenFormat) {
+        this.tokenFormat = tokenFormat;
+    }
+
+    public TokenCache getTokenCache() {
+        return tokenCache;
+    }
+
+    public void setTokenCache(TokenCache tokenCache) {
+        this.tokenCache = tokenCache;
+    }
+
+    public boolean isDeferredTokenVerification() {
+        return deferredTokenVerification;
+    }
+
+    public void setDeferredTokenVerification(boolean deferredTokenVerification) {
+        this.deferredTokenVerification = deferredTokenVerification;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Index getIndex() {
+        return index;
+    }
+
+    public void setIndex(Index index) {
+        this.index = index;
+    }
+
+    public Reload getReload() {
+        return reload;
+    }
+
+    public void setReload(Reload reload) {
+        this.reload = reload;
+    }
+
+    public static class KeyDerivation {
+
+        /**
+         * Whether to derive the key of each realm from the signing secret and signing keys, and the realm name, instead of using them as is.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The maximum number of derived keys kept in memory, shared by all the realms.
+         */
+        private int maximumSize = 1_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(int maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+    }
+
+    public static class TokenCache {
+
+        /**
+         * Whether to cache verified fully authenticated tokens, per realm.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The maximum number of cached tokens, per realm.
+         */
+        private int maximumSize = 10_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(int maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+    }
+
+    public static class Metrics {
+
+        /**
+         * Whether to record the realms metrics, when a MeterRegistry is available.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Whether to publish a percentile histogram of the timers, e.g. to aggregate percentiles in Prometheus.
+         */
+        private boolean percentileHistogram = false;
+
+        /**
+         * The percentiles of the timers to compute in the application, e.g. 0.5, 0.95, 0.99.
+         */
+        private double[] percentiles = new double[0];
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isPercentileHistogram() {
+            return percentileHistogram;
+        }
+
+        public void setPercentileHistogram(boolean percentileHistogram) {
+            this.percentileHistogram = percentileHistogram;
+        }
+
+        public double[] getPercentiles() {
+            return percentiles;
+        }
+
+        public void setPercentiles(double[] percentiles) {
+            this.percentiles = percentiles;
+        }
+    }
+
+    public static class Index {
+
+        /**
+         * Whether to only inspect the classes listed by the index generated by SecurityRealmIndexProcessor or the AOT processing, instead of scanning the beans.
+         */
+        private boolean enabled = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    public static class Reload {
+
+        /**
+         * Whether to reload the realms configuration when the environment is refreshed, or when the reload file changes.
+         */
+        private boolean enabled = false;
+
+        /**
+         * A local properties or YAML file, watched for changes, whose properties override the other configuration sources.
+         */
+        private String file;
+
+        /**
+         * How often to check the reload file for changes.
+         */
+        private Duration interval = Duration.ofSeconds(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+    }
 }
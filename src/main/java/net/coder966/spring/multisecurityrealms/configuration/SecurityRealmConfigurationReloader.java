@@ -0,0 +1,244 @@
+package net.coder966.spring.multisecurityrealms.configuration;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.event.GenericApplicationListener;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Reloads the realms configuration at runtime, see {@link SecurityRealmScanner#reload()}:
+ * <ul>
+ *     <li>when the environment is refreshed by Spring Cloud (an {@code EnvironmentChangeEvent}, e.g. after a {@code /actuator/refresh}),
+ *     without depending on Spring Cloud, only if a {@code security-realm.*} property, or a property used by the placeholders of the realms, changed</li>
+ *     <li>when the file {@code security-realm.reload.file} changes, it is polled every {@code security-realm.reload.interval}
+ *     and its {@code security-realm.*} properties override the other configuration sources, its other properties are ignored</li>
+ * </ul>
+ * A reload builds new realm descriptors and token codecs on the reloading thread, then publishes them at once,
+ * so the requests being handled keep the previous configuration, and never wait.
+ * If the new configuration is invalid, the error is logged and the previous configuration stays in use.
+ */
+public class SecurityRealmConfigurationReloader implements GenericApplicationListener, SmartInitializingSingleton, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(SecurityRealmConfigurationReloader.class);
+
+    private static final String ENVIRONMENT_CHANGE_EVENT = "org.springframework.cloud.context.environment.EnvironmentChangeEvent";
+
+    public static final String PROPERTY_SOURCE_NAME = "securityRealmReloadFile";
+
+    private static final String PROPERTY_PREFIX = "security-realm.";
+
+    private final SecurityRealmScanner scanner;
+    private final ConfigurableEnvironment env;
+
+    // null when no file is watched
+    private final Path file;
+    private final Duration interval;
+
+    private ScheduledExecutorService executor;
+
+    // null when the file does not exist
+    private FileTime lastModified;
+
+    public SecurityRealmConfigurationReloader(SecurityRealmScanner scanner, ConfigurableEnvironment env, SecurityRealmConfigurationProperties.Reload properties) {
+        this.scanner = scanner;
+        this.env = env;
+        this.file = properties.getFile() == null || properties.getFile().isBlank() ? null : Path.of(properties.getFile().trim());
+        this.interval = properties.getInterval();
+
+        if(file != null && (interval == null || interval.isNegative() || interval.isZero())){
+            throw new IllegalArgumentException("Invalid security-realm.reload.interval (" + interval + "), it should be positive");
+        }
+    }
+
+    @Override
+    public boolean supportsEventType(ResolvableType eventType) {
+        Class<?> eventClass = eventType.resolve();
+        return eventClass != null && eventClass.getName().equals(ENVIRONMENT_CHANGE_EVENT);
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        Set<String> keys = getChangedKeys(event);
+        // e.g. a refresh that only changed the properties of other components
+        if(keys != null && keys.stream().noneMatch(this::isRealmProperty)){
+            log.debug("Not reloading the security realm configuration, none of the changed properties is used by the realms");
+            return;
+        }
+        reload();
+    }
+
+    /**
+     * @return the keys of the {@code EnvironmentChangeEvent}, read reflectively since Spring Cloud is optional, or null if they can't be read
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<String> getChangedKeys(ApplicationEvent event) {
+        Method getKeys = ReflectionUtils.findMethod(event.getClass(), "getKeys");
+        if(getKeys == null || !Set.class.isAssignableFrom(getKeys.getReturnType())){
+            return null;
+        }
+        return (Set<String>) ReflectionUtils.invokeMethod(getKeys, event);
+    }
+
+    private boolean isRealmProperty(String key) {
+        return key.startsWith(PROPERTY_PREFIX) || scanner.getPlaceholderKeys().contains(key);
+    }
+
+    /**
+     * Loads the file, once the realms are scanned, then starts watching it.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if(file == null){
+            return;
+        }
+
+        if(checkFile()){
+            reload();
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "security-realm-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::poll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Watching {} for security realm configuration changes, every {}", file, interval);
+    }
+
+    @Override
+    public void destroy() {
+        if(executor != null){
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reloads the realms configuration from the current environment.
+     *
+     * @return whether the configuration was reloaded, false if it is invalid, or if the realms were never scanned, e.g. not a web application
+     */
+    public boolean reload() {
+        if(scanner.getSnapshot() == null){
+            return false;
+        }
+
+        try{
+            scanner.reload();
+            return true;
+        }catch(RuntimeException e){
+            log.error("Unable to reload the security realm configuration, the previous configuration stays in use", e);
+            return false;
+        }
+    }
+
+    private void poll() {
+        try{
+            if(checkFile()){
+                reload();
+            }
+        }catch(RuntimeException e){
+            // keeps polling, e.g. the file is being written
+            log.error("Unable to read the security realm configuration file ({})", file, e);
+        }
+    }
+
+    /**
+     * Updates the property source of the file, if it changed since the last check.
+     *
+     * @return whether it changed
+     */
+    private synchronized boolean checkFile() {
+        FileTime modified;
+        try{
+            modified = Files.exists(file) ? Files.getLastModifiedTime(file) : null;
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to read the last modified time of (" + file + ")", e);
+        }
+        if(modified == null ? lastModified == null : modified.equals(lastModified)){
+            return false;
+        }
+
+        MutablePropertySources propertySources = env.getPropertySources();
+        if(modified == null){
+            propertySources.remove(PROPERTY_SOURCE_NAME);
+        }else{
+            PropertySource<?> propertySource = load();
+            if(propertySources.contains(PROPERTY_SOURCE_NAME)){
+                propertySources.replace(PROPERTY_SOURCE_NAME, propertySource);
+            }else{
+                propertySources.addFirst(propertySource);
+            }
+        }
+
+        lastModified = modified;
+        return true;
+    }
+
+    private PropertySource<?> load() {
+        String fileName = file.getFileName().toString();
+        PropertySourceLoader loader = fileName.endsWith(".yml") || fileName.endsWith(".yaml")
+            ? new YamlPropertySourceLoader()
+            : new PropertiesPropertySourceLoader();
+
+        List<PropertySource<?>> documents;
+        try{
+            documents = loader.load(PROPERTY_SOURCE_NAME, new FileSystemResource(file));
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to load the security realm configuration file (" + file + ")", e);
+        }
+
+        // e.g. a multi-document YAML file, the last documents take precedence, same as in application.yml
+        CompositePropertySource propertySource = new CompositePropertySource(PROPERTY_SOURCE_NAME);
+        for(int i = documents.size() - 1; i >= 0; i--){
+            propertySource.addPropertySource(documents.get(i));
+        }
+        return new SecurityRealmPropertySource(propertySource);
+    }
+
+    /**
+     * Only exposes the {@code security-realm.*} properties of the file, it takes precedence over the whole environment,
+     * so it must not override the other properties of the application.
+     */
+    private static final class SecurityRealmPropertySource extends EnumerablePropertySource<CompositePropertySource> {
+
+        private SecurityRealmPropertySource(CompositePropertySource source) {
+            super(PROPERTY_SOURCE_NAME, source);
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return name.startsWith(PROPERTY_PREFIX) ? source.getProperty(name) : null;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return Arrays.stream(source.getPropertyNames()).filter(name -> name.startsWith(PROPERTY_PREFIX)).toArray(String[]::new);
+        }
+    }
+}
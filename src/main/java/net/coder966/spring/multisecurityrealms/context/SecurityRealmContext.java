@@ -1,25 +1,66 @@
 package net.coder966.spring.multisecurityrealms.context;
 
 import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import org.springframework.util.Assert;
 
+/**
+ * The realm and authentication step of the current request.
+ * <p>
+ * It is populated by the filter and cleared once the request is done, whatever its outcome.
+ * The state is kept by a {@link SecurityRealmContextHolderStrategy}, a {@link ThreadLocal} by default.
+ */
 public class SecurityRealmContext {
 
-    private static final ThreadLocal<SecurityRealmDescriptor> descriptor = new ThreadLocal<>();
-    private static final ThreadLocal<String> currentStep = new ThreadLocal<>();
+    private static volatile SecurityRealmContextHolderStrategy strategy = new ThreadLocalSecurityRealmContextHolderStrategy();
+
+    public static SecurityRealmContextHolderStrategy getContextHolderStrategy() {
+        return strategy;
+    }
+
+    public static void setContextHolderStrategy(SecurityRealmContextHolderStrategy strategy) {
+        Assert.notNull(strategy, "strategy cannot be null");
+        SecurityRealmContext.strategy = strategy;
+    }
 
     public static void setDescriptor(SecurityRealmDescriptor descriptor) {
-        SecurityRealmContext.descriptor.set(descriptor);
+        getOrCreateState().setDescriptor(descriptor);
     }
 
     public static SecurityRealmDescriptor getDescriptor() {
-        return SecurityRealmContext.descriptor.get();
+        SecurityRealmContextState state = strategy.getState();
+        return state == null ? null : state.getDescriptor();
     }
 
     public static void setCurrentStep(String step) {
-        SecurityRealmContext.currentStep.set(step);
+        getOrCreateState().setCurrentStep(step);
     }
 
     public static String getCurrentStep() {
-        return SecurityRealmContext.currentStep.get();
+        SecurityRealmContextState state = strategy.getState();
+        return state == null ? null : state.getCurrentStep();
+    }
+
+    /**
+     * @return the state of the current request, or null if none was set
+     */
+    public static SecurityRealmContextState getState() {
+        return strategy.getState();
+    }
+
+    public static void setState(SecurityRealmContextState state) {
+        strategy.setState(state);
+    }
+
+    public static void clear() {
+        strategy.clearState();
+    }
+
+    private static SecurityRealmContextState getOrCreateState() {
+        SecurityRealmContextState state = strategy.getState();
+        if(state == null){
+            state = new SecurityRealmContextState();
+            strategy.setState(state);
+        }
+        return state;
     }
 }
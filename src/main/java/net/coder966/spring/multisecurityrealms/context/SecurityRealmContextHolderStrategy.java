@@ -0,0 +1,19 @@
+package net.coder966.spring.multisecurityrealms.context;
+
+/**
+ * Where {@link SecurityRealmContext} keeps the realm context of the current request, see {@link SecurityRealmContext#setContextHolderStrategy}.
+ */
+public interface SecurityRealmContextHolderStrategy {
+
+    /**
+     * @return the state of the current request, or null if none was set
+     */
+    SecurityRealmContextState getState();
+
+    void setState(SecurityRealmContextState state);
+
+    /**
+     * Called once the request is done, whatever its outcome, implementations must not retain the state afterwards.
+     */
+    void clearState();
+}
@@ -0,0 +1,79 @@
+package net.coder966.spring.multisecurityrealms.context;
+
+import java.util.function.Supplier;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+
+/**
+ * The realm context of a request, held by a {@link SecurityRealmContextHolderStrategy}.
+ */
+public final class SecurityRealmContextState {
+
+    private SecurityRealmDescriptor descriptor;
+    private String currentStep;
+
+    // not null until a deferred state is resolved
+    private Supplier<SecurityRealmContextState> deferredState;
+
+    public SecurityRealmContextState() {
+    }
+
+    public SecurityRealmContextState(SecurityRealmDescriptor descriptor, String currentStep) {
+        this.descriptor = descriptor;
+        this.currentStep = currentStep;
+    }
+
+    /**
+     * A state resolved on first access, e.g. once a deferred token is verified.
+     * <p>
+     * The supplier returns null when there is no realm, it may be called from any thread (copies share it), so it must not access the {@link SecurityRealmContext}.
+     */
+    public static SecurityRealmContextState deferred(Supplier<SecurityRealmContextState> supplier) {
+        SecurityRealmContextState state = new SecurityRealmContextState();
+        state.deferredState = supplier;
+        return state;
+    }
+
+    public SecurityRealmDescriptor getDescriptor() {
+        resolve();
+        return descriptor;
+    }
+
+    public void setDescriptor(SecurityRealmDescriptor descriptor) {
+        resolve();
+        this.descriptor = descriptor;
+    }
+
+    public String getCurrentStep() {
+        resolve();
+        return currentStep;
+    }
+
+    public void setCurrentStep(String currentStep) {
+        resolve();
+        this.currentStep = currentStep;
+    }
+
+    /**
+     * @return an independent copy, e.g. to hand over to another thread, a deferred state is still deferred in the copy
+     */
+    public SecurityRealmContextState copy() {
+        if(deferredState != null){
+            return deferred(deferredState);
+        }
+        return new SecurityRealmContextState(descriptor, currentStep);
+    }
+
+    private void resolve() {
+        Supplier<SecurityRealmContextState> supplier = deferredState;
+        if(supplier == null){
+            return;
+        }
+
+        deferredState = null;
+        SecurityRealmContextState resolved = supplier.get();
+        if(resolved != null){
+            this.descriptor = resolved.descriptor;
+            this.currentStep = resolved.currentStep;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package net.coder966.spring.multisecurityrealms.context;
+
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * Carries the {@link SecurityRealmContext} of the submitting thread into the thread running the task,
+ * e.g. {@code @Async} methods or tasks submitted to the application executor, including virtual-thread executors.
+ * <p>
+ * The task sees a copy of the context as it was when the task was submitted, and the context of the running thread is restored once the task is done.
+ */
+public class SecurityRealmContextTaskDecorator implements TaskDecorator {
+
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        SecurityRealmContextState state = SecurityRealmContext.getState();
+        if(state == null){
+            return runnable;
+        }
+
+        SecurityRealmContextState captured = state.copy();
+        return () -> {
+            SecurityRealmContextState previous = SecurityRealmContext.getState();
+            SecurityRealmContext.setState(captured.copy());
+            try{
+                runnable.run();
+            }finally{
+                if(previous == null){
+                    SecurityRealmContext.clear();
+                }else{
+                    SecurityRealmContext.setState(previous);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,41 @@
+package net.coder966.spring.multisecurityrealms.context;
+
+import java.util.List;
+import org.springframework.boot.task.SimpleAsyncTaskExecutorCustomizer;
+import org.springframework.boot.task.ThreadPoolTaskExecutorCustomizer;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.task.support.CompositeTaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Adds the {@link SecurityRealmContextTaskDecorator} to the executors built by Spring Boot (the application executor, used by {@code @Async} methods),
+ * whether they run on platform or virtual threads.
+ * <p>
+ * The executors have no getter for their decorator, so the decorator of the application, the one Spring Boot applied, is given here, and both are combined.
+ */
+public class SecurityRealmContextTaskExecutorCustomizer implements ThreadPoolTaskExecutorCustomizer, SimpleAsyncTaskExecutorCustomizer {
+
+    private final TaskDecorator taskDecorator;
+
+    /**
+     * @param applicationTaskDecorator the {@link TaskDecorator} of the application, or null if it has none
+     */
+    public SecurityRealmContextTaskExecutorCustomizer(TaskDecorator applicationTaskDecorator) {
+        TaskDecorator realmContextTaskDecorator = new SecurityRealmContextTaskDecorator();
+        // the last decorator runs first, so the decorator of the application already sees the realm context
+        this.taskDecorator = applicationTaskDecorator == null
+            ? realmContextTaskDecorator
+            : new CompositeTaskDecorator(List.of(applicationTaskDecorator, realmContextTaskDecorator));
+    }
+
+    @Override
+    public void customize(ThreadPoolTaskExecutor taskExecutor) {
+        taskExecutor.setTaskDecorator(taskDecorator);
+    }
+
+    @Override
+    public void customize(SimpleAsyncTaskExecutor taskExecutor) {
+        taskExecutor.setTaskDecorator(taskDecorator);
+    }
+}
@@ -0,0 +1,37 @@
+package net.coder966.spring.multisecurityrealms.context;
+
+import io.micrometer.context.ThreadLocalAccessor;
+
+/**
+ * Lets Micrometer context-propagation carry the {@link SecurityRealmContext} across threads,
+ * e.g. Reactor operators with automatic context propagation, or executors wrapped by {@code ContextExecutorService}.
+ * <p>
+ * It is registered with the global {@code ContextRegistry} through {@code META-INF/services}, so nothing has to be configured,
+ * as long as {@code io.micrometer:context-propagation} is on the classpath.
+ */
+public class SecurityRealmContextThreadLocalAccessor implements ThreadLocalAccessor<SecurityRealmContextState> {
+
+    public static final String KEY = "net.coder966.spring.multisecurityrealms.context.SecurityRealmContext";
+
+    @Override
+    public Object key() {
+        return KEY;
+    }
+
+    @Override
+    public SecurityRealmContextState getValue() {
+        // a copy, so threads sharing a snapshot don't share the mutable state
+        SecurityRealmContextState state = SecurityRealmContext.getState();
+        return state == null ? null : state.copy();
+    }
+
+    @Override
+    public void setValue(SecurityRealmContextState state) {
+        SecurityRealmContext.setState(state);
+    }
+
+    @Override
+    public void setValue() {
+        SecurityRealmContext.clear();
+    }
+}
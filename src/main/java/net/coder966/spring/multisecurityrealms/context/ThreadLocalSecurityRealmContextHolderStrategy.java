@@ -0,0 +1,25 @@
+package net.coder966.spring.multisecurityrealms.context;
+
+/**
+ * The default strategy, a single {@link ThreadLocal} holding the whole state, removed once the request is done.
+ */
+public class ThreadLocalSecurityRealmContextHolderStrategy implements SecurityRealmContextHolderStrategy {
+
+    private static final ThreadLocal<SecurityRealmContextState> state = new ThreadLocal<>();
+
+    @Override
+    public SecurityRealmContextState getState() {
+        return state.get();
+    }
+
+    @Override
+    public void setState(SecurityRealmContextState state) {
+        ThreadLocalSecurityRealmContextHolderStrategy.state.set(state);
+    }
+
+    @Override
+    public void clearState() {
+        // remove() rather than set(null), so no entry is left in the thread map of a pooled (or virtual) thread
+        state.remove();
+    }
+}
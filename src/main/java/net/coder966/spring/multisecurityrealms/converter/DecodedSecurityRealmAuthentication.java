@@ -0,0 +1,36 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * An authentication decoded from verified claims, the authorities and extras are only decoded when first accessed,
+ * as most requests only look at the realm and the name.
+ */
+class DecodedSecurityRealmAuthentication extends SecurityRealmAuthentication {
+
+    private final SecurityRealmTokenClaims claims;
+    private final SecurityRealmTokenCodec codec;
+
+    DecodedSecurityRealmAuthentication(SecurityRealmTokenClaims claims, SecurityRealmTokenCodec codec) {
+        // the realm is that of the claims, reading the realm context here would resolve a deferred one while the token is being verified
+        super(claims.getSubject(), claims.getNextAuthenticationStep(), Duration.ZERO, claims.getRealm());
+        this.claims = claims;
+        this.codec = codec;
+    }
+
+    @Override
+    protected Set<? extends GrantedAuthority> loadAuthorities() {
+        return codec.buildAuthorities(claims);
+    }
+
+    @Override
+    protected Map<String, Object> loadExtras() {
+        Map<String, Object> extras = claims.getExtras();
+        return extras == null || extras.isEmpty() ? Collections.emptyMap() : extras;
+    }
+}
@@ -0,0 +1,221 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.interfaces.Claim;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthoritySet;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * The default format, HS512 signed JWT tokens.
+ * The tokens signed by a key with an id carry it in their {@code kid} header, see {@link SecurityRealmKeyRing}.
+ */
+public class JwtSecurityRealmTokenFormat implements SecurityRealmTokenFormat {
+
+    private final SecurityRealmKeyRing keys;
+    private final SecurityRealmTokenDecoder decoder;
+    private final Algorithm algorithm;
+    private final JWTVerifier verifier;
+
+    public JwtSecurityRealmTokenFormat(SecurityRealmSigningKey key) {
+        this(key, SecurityRealmTokenDecoder.STANDARD);
+    }
+
+    /**
+     * @param decoder the implementation used to verify and decode tokens
+     */
+    public JwtSecurityRealmTokenFormat(SecurityRealmSigningKey key, SecurityRealmTokenDecoder decoder) {
+        this(new SecurityRealmKeyRing(key), decoder);
+    }
+
+    public JwtSecurityRealmTokenFormat(SecurityRealmKeyRing keys) {
+        this(keys, SecurityRealmTokenDecoder.STANDARD);
+    }
+
+    /**
+     * @param keys the active key signs the tokens, and each token is verified by the key of its {@code kid}
+     * @param decoder the implementation used to verify and decode tokens
+     */
+    public JwtSecurityRealmTokenFormat(SecurityRealmKeyRing keys, SecurityRealmTokenDecoder decoder) {
+        this.keys = keys;
+        this.decoder = decoder;
+        this.algorithm = new KeyRingAlgorithm(keys);
+        this.verifier = JWT.require(algorithm).build();
+    }
+
+    public SecurityRealmTokenDecoder getDecoder() {
+        return decoder;
+    }
+
+    @Override
+    public boolean supports(String token) {
+        int firstDot = token.indexOf('.');
+        return firstDot > 0 && token.indexOf('.', firstDot + 1) > 0;
+    }
+
+    /**
+     * Reads the token with the decoder of this format, so the token is parsed once, by the same implementation that verifies it.
+     */
+    @Override
+    public SecurityRealmTokenClaims read(String token) {
+        if(decoder == SecurityRealmTokenDecoder.LIGHTWEIGHT){
+            return SecurityRealmJwtParser.parse(token);
+        }
+
+        try{
+            return new DecodedJwtTokenClaims(JWT.decode(token));
+        }catch(JWTVerificationException e){
+            return null;
+        }
+    }
+
+    /**
+     * The claims read by another JWT format, i.e. with the other decoder, are read again.
+     */
+    @Override
+    public SecurityRealmTokenClaims verify(SecurityRealmTokenClaims unverifiedClaims) {
+        if(decoder == SecurityRealmTokenDecoder.LIGHTWEIGHT){
+            SecurityRealmTokenClaims claims = unverifiedClaims instanceof JwtTokenClaims ? unverifiedClaims : read(unverifiedClaims.getToken());
+            return claims != null && SecurityRealmJwtParser.verifySignature(claims.getToken(), keys) ? claims : null;
+        }
+
+        try{
+            if(unverifiedClaims instanceof DecodedJwtTokenClaims decodedClaims){
+                // the token was already decoded by read(String), only its signature and claims are checked
+                verifier.verify(decodedClaims.jwt);
+                return decodedClaims;
+            }
+            return new DecodedJwtTokenClaims(verifier.verify(unverifiedClaims.getToken()));
+        }catch(JWTVerificationException e){
+            return null;
+        }
+    }
+
+    @Override
+    public String encode(SecurityRealmAuthentication authentication, Instant expiresAt) {
+        return encode(authentication, authentication.getAuthorities(), expiresAt);
+    }
+
+    @Override
+    public String encode(SecurityRealmAuthentication authentication, Collection<? extends GrantedAuthority> authorities, Instant expiresAt) {
+        JWTCreator.Builder builder = JWT
+            .create()
+            .withClaim("realm", authentication.getRealm())
+
+            .withSubject(authentication.getName());
+
+        if(authorities instanceof SecurityRealmAuthoritySet authoritySet){
+            builder.withClaim("authoritiesMask", Base64.getUrlEncoder().withoutPadding().encodeToString(authoritySet.toMask()));
+        }else{
+            builder.withClaim("authorities", authorities.stream().map(GrantedAuthority::getAuthority).collect(Collectors.toList()));
+        }
+
+        return builder
+            .withClaim("nextAuthenticationStep", authentication.getNextAuthenticationStep())
+
+            .withClaim("extras", authentication.getExtras())
+
+            .withExpiresAt(expiresAt)
+            .sign(algorithm);
+    }
+
+    /**
+     * Lets the JWT library sign using the active key of the realm, and verify using the key of the token {@code kid}.
+     */
+    private static final class KeyRingAlgorithm extends Algorithm {
+
+        private final SecurityRealmKeyRing keys;
+
+        private KeyRingAlgorithm(SecurityRealmKeyRing keys) {
+            super("HS512", SecurityRealmSigningKey.ALGORITHM);
+            this.keys = keys;
+        }
+
+        /**
+         * Written in the {@code kid} header by the JWT library, unless null.
+         */
+        @Override
+        public String getSigningKeyId() {
+            return keys.getActiveKey().getId();
+        }
+
+        @Override
+        public void verify(DecodedJWT jwt) throws SignatureVerificationException {
+            SecurityRealmSigningKey key = keys.getKey(jwt.getKeyId());
+            if(key == null){
+                throw new SignatureVerificationException(this);
+            }
+            try{
+                byte[] content = (jwt.getHeader() + "." + jwt.getPayload()).getBytes(StandardCharsets.US_ASCII);
+                byte[] signature = Base64.getUrlDecoder().decode(jwt.getSignature());
+                if(!key.verify(content, 0, content.length, signature)){
+                    throw new SignatureVerificationException(this);
+                }
+            }catch(IllegalArgumentException e){
+                throw new SignatureVerificationException(this, e);
+            }
+        }
+
+        @Override
+        public byte[] sign(byte[] contentBytes) {
+            return keys.getActiveKey().sign(contentBytes);
+        }
+    }
+
+    /**
+     * The claims of a token decoded by the JWT library, verified or not.
+     */
+    private static final class DecodedJwtTokenClaims extends SecurityRealmTokenClaims {
+
+        private final DecodedJWT jwt;
+
+        /**
+         * @throws JWTDecodeException if the authorities claim is not an array, same as {@link SecurityRealmJwtParser}
+         */
+        private DecodedJwtTokenClaims(DecodedJWT jwt) {
+            super(jwt.getToken());
+            Claim authorities = jwt.getClaim("authorities");
+            if(!authorities.isMissing() && !authorities.isNull() && authorities.asList(Object.class) == null){
+                throw new JWTDecodeException("The authorities claim is not an array");
+            }
+
+            this.jwt = jwt;
+            this.realm = jwt.getClaim("realm").asString();
+            this.subject = jwt.getSubject();
+            this.nextAuthenticationStep = jwt.getClaim("nextAuthenticationStep").asString();
+            this.expiresAt = jwt.getExpiresAtAsInstant() == null ? null : jwt.getExpiresAtAsInstant().getEpochSecond();
+
+            String mask = jwt.getClaim("authoritiesMask").asString();
+            this.authoritiesMask = mask == null ? null : Base64.getUrlDecoder().decode(mask);
+        }
+
+        @Override
+        public boolean hasAuthorities() {
+            return authoritiesMask != null || !(jwt.getClaim("authorities").isMissing() || jwt.getClaim("authorities").isNull());
+        }
+
+        @Override
+        public List<String> getAuthorities() {
+            return jwt.getClaim("authorities").asList(String.class);
+        }
+
+        @Override
+        public Map<String, Object> getExtras() {
+            return jwt.getClaim("extras").asMap();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The claims of a JWT token as read by {@link SecurityRealmJwtParser}, the authorities and extras are only located in the payload.
+ */
+class JwtTokenClaims extends SecurityRealmTokenClaims {
+
+    private final byte[] payload;
+
+    int authoritiesOffset = -1;
+    int extrasOffset = -1;
+
+    JwtTokenClaims(String token, byte[] payload) {
+        super(token);
+        this.payload = payload;
+    }
+
+    @Override
+    public boolean hasAuthorities() {
+        return authoritiesMask != null || (authoritiesOffset >= 0 && payload[authoritiesOffset] != 'n');
+    }
+
+    @Override
+    public List<String> getAuthorities() {
+        return authoritiesOffset < 0 ? null : SecurityRealmJwtParser.readStringList(payload, authoritiesOffset);
+    }
+
+    @Override
+    public Map<String, Object> getExtras() {
+        return extrasOffset < 0 ? null : SecurityRealmJwtParser.readMap(payload, extrasOffset);
+    }
+}
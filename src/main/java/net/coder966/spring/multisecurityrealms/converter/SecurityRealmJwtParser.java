@@ -0,0 +1,554 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A purpose-built parser for the JWT tokens issued by {@link JwtSecurityRealmTokenFormat}.
+ * It decodes the Base64URL characters directly and reads only the claims this library writes, without building an intermediate JSON tree.
+ * The result is the same as the one of the general purpose decoder, see {@link SecurityRealmTokenDecoder}.
+ */
+public class SecurityRealmJwtParser {
+
+    private static final byte[] REALM = "realm".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUB = "sub".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AUTHORITIES = "authorities".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AUTHORITIES_MASK = "authoritiesMask".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEXT_AUTHENTICATION_STEP = "nextAuthenticationStep".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXTRAS = "extras".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXP = "exp".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ALG = "alg".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KID = "kid".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int[] BASE64URL_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64URL_VALUES, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for(int i = 0; i < alphabet.length(); i++){
+            BASE64URL_VALUES[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private SecurityRealmJwtParser() {
+    }
+
+    /**
+     * Reads the claims <b>without</b> verifying the token.
+     *
+     * @return the unverified claims, or null if the token is malformed
+     */
+    public static SecurityRealmTokenClaims parse(String token) {
+        if(token == null){
+            return null;
+        }
+
+        int firstDot = token.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+        if(secondDot < 0 || token.indexOf('.', secondDot + 1) >= 0){
+            return null;
+        }
+
+        byte[] payload = decodeBase64Url(token, firstDot + 1, secondDot);
+        if(payload == null){
+            return null;
+        }
+
+        try{
+            JwtTokenClaims claims = new JwtTokenClaims(token, payload);
+            readClaims(payload, claims);
+            return claims;
+        }catch(RuntimeException e){
+            return null;
+        }
+    }
+
+    /**
+     * Verifies the HMAC-SHA512 signature of the token, and that its header declares the same algorithm.
+     *
+     * @param key the realm signing key
+     */
+    public static boolean verifySignature(String token, SecurityRealmSigningKey key) {
+        int firstDot = token.indexOf('.');
+        int secondDot = token.lastIndexOf('.');
+        if(firstDot < 0 || secondDot <= firstDot){
+            return false;
+        }
+
+        byte[] header = decodeBase64Url(token, 0, firstDot);
+        byte[] signature = decodeBase64Url(token, secondDot + 1, token.length());
+        if(header == null || signature == null || !isHmacSha512Header(header)){
+            return false;
+        }
+
+        return key.verify(token.getBytes(StandardCharsets.US_ASCII), 0, secondDot, signature);
+    }
+
+    /**
+     * Same as {@link #verifySignature(String, SecurityRealmSigningKey)}, with the key of the token {@code kid} header.
+     *
+     * @param keys the realm signing keys
+     */
+    public static boolean verifySignature(String token, SecurityRealmKeyRing keys) {
+        int firstDot = token.indexOf('.');
+        if(firstDot < 0){
+            return false;
+        }
+
+        byte[] header = decodeBase64Url(token, 0, firstDot);
+        if(header == null){
+            return false;
+        }
+
+        SecurityRealmSigningKey key;
+        try{
+            key = keys.getKey(readHeaderString(header, KID));
+        }catch(RuntimeException e){
+            return false;
+        }
+        return key != null && verifySignature(token, key);
+    }
+
+    static List<String> readStringList(byte[] json, int offset) {
+        Reader reader = new Reader(json, offset);
+        if(reader.consumeNull()){
+            return null;
+        }
+
+        List<String> list = new ArrayList<>();
+        reader.expect('[');
+        if(!reader.consumeIf(']')){
+            do{
+                list.add(reader.readString());
+            }while(reader.consumeIf(','));
+            reader.expect(']');
+        }
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> readMap(byte[] json, int offset) {
+        Reader reader = new Reader(json, offset);
+        if(reader.consumeNull()){
+            return null;
+        }
+        return (Map<String, Object>) reader.readValue();
+    }
+
+    private static void readClaims(byte[] payload, JwtTokenClaims claims) {
+        Reader reader = new Reader(payload, 0);
+        reader.expect('{');
+        if(reader.consumeIf('}')){
+            return;
+        }
+
+        do{
+            int keyStart = reader.readRawKey();
+            int keyEnd = reader.pos - 1;
+            reader.expect(':');
+
+            if(reader.keyEquals(keyStart, keyEnd, REALM)){
+                claims.realm = reader.readNullableString();
+            }else if(reader.keyEquals(keyStart, keyEnd, SUB)){
+                claims.subject = reader.readNullableString();
+            }else if(reader.keyEquals(keyStart, keyEnd, NEXT_AUTHENTICATION_STEP)){
+                claims.nextAuthenticationStep = reader.readNullableString();
+            }else if(reader.keyEquals(keyStart, keyEnd, EXP)){
+                claims.expiresAt = reader.consumeNull() ? null : reader.readLong();
+            }else if(reader.keyEquals(keyStart, keyEnd, AUTHORITIES)){
+                claims.authoritiesOffset = reader.skipWhitespaces();
+                if(!reader.consumeIf('[') && !reader.consumeNull()){
+                    // the authorities are read lazily, so a claim they can not be read from must be rejected now
+                    throw new IllegalArgumentException("Invalid authorities claim, not an array");
+                }
+                reader.pos = claims.authoritiesOffset;
+                reader.skipValue();
+            }else if(reader.keyEquals(keyStart, keyEnd, AUTHORITIES_MASK)){
+                String mask = reader.readNullableString();
+                claims.authoritiesMask = mask == null ? null : decodeBase64Url(mask, 0, mask.length());
+                if(mask != null && claims.authoritiesMask == null){
+                    throw new IllegalArgumentException("Invalid authorities mask");
+                }
+            }else if(reader.keyEquals(keyStart, keyEnd, EXTRAS)){
+                claims.extrasOffset = reader.skipWhitespaces();
+                reader.skipValue();
+            }else{
+                reader.skipValue();
+            }
+        }while(reader.consumeIf(','));
+
+        reader.expect('}');
+    }
+
+    private static boolean isHmacSha512Header(byte[] header) {
+        try{
+            return "HS512".equals(readHeaderString(header, ALG));
+        }catch(RuntimeException e){
+            return false;
+        }
+    }
+
+    /**
+     * @return the value of the given string parameter of the header, or null if it is absent
+     */
+    private static String readHeaderString(byte[] header, byte[] name) {
+        Reader reader = new Reader(header, 0);
+        reader.expect('{');
+        if(reader.consumeIf('}')){
+            return null;
+        }
+        do{
+            int keyStart = reader.readRawKey();
+            int keyEnd = reader.pos - 1;
+            reader.expect(':');
+            if(reader.keyEquals(keyStart, keyEnd, name)){
+                return reader.readNullableString();
+            }
+            reader.skipValue();
+        }while(reader.consumeIf(','));
+        return null;
+    }
+
+    /**
+     * @return the decoded bytes, or null if the characters are not valid Base64URL
+     */
+    static byte[] decodeBase64Url(String source, int from, int to) {
+        while(to > from && source.charAt(to - 1) == '='){
+            to--;
+        }
+
+        int length = to - from;
+        if(length % 4 == 1){
+            return null;
+        }
+
+        byte[] out = new byte[length * 3 / 4];
+        int outIndex = 0;
+        int buffer = 0;
+        int bits = 0;
+
+        for(int i = from; i < to; i++){
+            char c = source.charAt(i);
+            int value = c < 128 ? BASE64URL_VALUES[c] : -1;
+            if(value < 0){
+                return null;
+            }
+            buffer = (buffer << 6) | value;
+            bits += 6;
+            if(bits >= 8){
+                bits -= 8;
+                out[outIndex++] = (byte) (buffer >> bits);
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * A minimal JSON reader, positioned on a byte array holding UTF-8 encoded JSON.
+     */
+    private static final class Reader {
+
+        private final byte[] json;
+        private int pos;
+
+        private Reader(byte[] json, int pos) {
+            this.json = json;
+            this.pos = pos;
+        }
+
+        private int skipWhitespaces() {
+            while(pos < json.length){
+                byte b = json[pos];
+                if(b != ' ' && b != '\t' && b != '\n' && b != '\r'){
+                    break;
+                }
+                pos++;
+            }
+            return pos;
+        }
+
+        private void expect(char c) {
+            skipWhitespaces();
+            if(pos >= json.length || json[pos] != c){
+                throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+            }
+            pos++;
+        }
+
+        private boolean consumeIf(char c) {
+            skipWhitespaces();
+            if(pos < json.length && json[pos] == c){
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean consumeNull() {
+            return consumeLiteral("null");
+        }
+
+        private boolean consumeLiteral(String literal) {
+            skipWhitespaces();
+            if(pos + literal.length() > json.length){
+                return false;
+            }
+            for(int i = 0; i < literal.length(); i++){
+                if(json[pos + i] != literal.charAt(i)){
+                    return false;
+                }
+            }
+            pos += literal.length();
+            return true;
+        }
+
+        /**
+         * Reads a key without allocating it, the key must not contain escape sequences.
+         *
+         * @return the index of the first byte of the key, the key ends right before the closing quote (pos - 1)
+         */
+        private int readRawKey() {
+            expect('"');
+            int start = pos;
+            while(pos < json.length && json[pos] != '"'){
+                if(json[pos] == '\\'){
+                    // we never write keys with escape sequences, so this is at least a key we don't need
+                    pos = start - 1;
+                    skipString();
+                    return pos - 1;
+                }
+                pos++;
+            }
+            if(pos >= json.length){
+                throw new IllegalArgumentException("Unterminated string");
+            }
+            pos++;
+            return start;
+        }
+
+        private boolean keyEquals(int start, int end, byte[] expected) {
+            return end - start == expected.length && Arrays.equals(json, start, end, expected, 0, expected.length);
+        }
+
+        private String readNullableString() {
+            if(consumeNull()){
+                return null;
+            }
+            skipWhitespaces();
+            if(pos < json.length && json[pos] != '"'){
+                skipValue(); // not a string claim, treat it as absent
+                return null;
+            }
+            return readString();
+        }
+
+        private String readString() {
+            expect('"');
+            int start = pos;
+
+            // fast path: no escape sequences
+            while(pos < json.length){
+                byte b = json[pos];
+                if(b == '"'){
+                    pos++;
+                    return new String(json, start, pos - 1 - start, StandardCharsets.UTF_8);
+                }
+                if(b == '\\'){
+                    break;
+                }
+                pos++;
+            }
+
+            StringBuilder sb = new StringBuilder(pos - start + 16);
+            sb.append(new String(json, start, pos - start, StandardCharsets.UTF_8));
+            int runStart = pos;
+            while(pos < json.length){
+                byte b = json[pos];
+                if(b == '"'){
+                    sb.append(new String(json, runStart, pos - runStart, StandardCharsets.UTF_8));
+                    pos++;
+                    return sb.toString();
+                }
+                if(b == '\\'){
+                    sb.append(new String(json, runStart, pos - runStart, StandardCharsets.UTF_8));
+                    pos++;
+                    char escaped = (char) json[pos++];
+                    switch(escaped){
+                        case '"', '\\', '/' -> sb.append(escaped);
+                        case 'b' -> sb.append('\b');
+                        case 'f' -> sb.append('\f');
+                        case 'n' -> sb.append('\n');
+                        case 'r' -> sb.append('\r');
+                        case 't' -> sb.append('\t');
+                        case 'u' -> {
+                            sb.append((char) Integer.parseInt(new String(json, pos, 4, StandardCharsets.US_ASCII), 16));
+                            pos += 4;
+                        }
+                        default -> throw new IllegalArgumentException("Invalid escape sequence at " + pos);
+                    }
+                    runStart = pos;
+                }else{
+                    pos++;
+                }
+            }
+            throw new IllegalArgumentException("Unterminated string");
+        }
+
+        private void skipString() {
+            expect('"');
+            while(pos < json.length){
+                byte b = json[pos++];
+                if(b == '"'){
+                    return;
+                }
+                if(b == '\\'){
+                    pos++;
+                }
+            }
+            throw new IllegalArgumentException("Unterminated string");
+        }
+
+        private long readLong() {
+            int start = skipWhitespaces();
+            skipNumber();
+            return Long.parseLong(new String(json, start, pos - start, StandardCharsets.US_ASCII));
+        }
+
+        /**
+         * @return true if the number is an integer (no fraction and no exponent)
+         */
+        private boolean skipNumber() {
+            boolean integer = true;
+            if(pos < json.length && json[pos] == '-'){
+                pos++;
+            }
+            int digitsStart = pos;
+            while(pos < json.length){
+                byte b = json[pos];
+                if(b >= '0' && b <= '9'){
+                    pos++;
+                }else if(b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-'){
+                    integer = false;
+                    pos++;
+                }else{
+                    break;
+                }
+            }
+            if(pos == digitsStart){
+                throw new IllegalArgumentException("Invalid number at " + pos);
+            }
+            return integer;
+        }
+
+        private void skipValue() {
+            skipWhitespaces();
+            if(pos >= json.length){
+                throw new IllegalArgumentException("Unexpected end of input");
+            }
+            switch(json[pos]){
+                case '"' -> skipString();
+                case '{' -> {
+                    pos++;
+                    if(!consumeIf('}')){
+                        do{
+                            skipString();
+                            expect(':');
+                            skipValue();
+                        }while(consumeIf(','));
+                        expect('}');
+                    }
+                }
+                case '[' -> {
+                    pos++;
+                    if(!consumeIf(']')){
+                        do{
+                            skipValue();
+                        }while(consumeIf(','));
+                        expect(']');
+                    }
+                }
+                default -> {
+                    if(!consumeLiteral("null") && !consumeLiteral("true") && !consumeLiteral("false")){
+                        skipNumber();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads any JSON value into the same types Jackson would bind it to when the target is {@link Object}.
+         */
+        private Object readValue() {
+            skipWhitespaces();
+            if(pos >= json.length){
+                throw new IllegalArgumentException("Unexpected end of input");
+            }
+            switch(json[pos]){
+                case '"':
+                    return readString();
+                case '{': {
+                    pos++;
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    if(!consumeIf('}')){
+                        do{
+                            String key = readString();
+                            expect(':');
+                            map.put(key, readValue());
+                        }while(consumeIf(','));
+                        expect('}');
+                    }
+                    return map;
+                }
+                case '[': {
+                    pos++;
+                    List<Object> list = new ArrayList<>();
+                    if(!consumeIf(']')){
+                        do{
+                            list.add(readValue());
+                        }while(consumeIf(','));
+                        expect(']');
+                    }
+                    return list;
+                }
+                default:
+                    if(consumeLiteral("null")){
+                        return null;
+                    }
+                    if(consumeLiteral("true")){
+                        return Boolean.TRUE;
+                    }
+                    if(consumeLiteral("false")){
+                        return Boolean.FALSE;
+                    }
+                    return readNumber();
+            }
+        }
+
+        private Number readNumber() {
+            int start = pos;
+            boolean integer = skipNumber();
+            String lexeme = new String(json, start, pos - start, StandardCharsets.US_ASCII);
+
+            if(!integer){
+                return Double.parseDouble(lexeme);
+            }
+
+            if(lexeme.length() > 18){
+                BigInteger value = new BigInteger(lexeme);
+                return value.bitLength() < 64 ? (Number) value.longValue() : value;
+            }
+
+            long value = Long.parseLong(lexeme);
+            if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE){
+                return (int) value;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Derives the signing key of each realm from a master secret and the realm name, with HKDF (RFC 5869) over HMAC-SHA512,
+ * so many realms, e.g. a realm per tenant, don't need a secret each, and still never share a key.
+ * The key id, if any, is part of the derivation too, so rotating a master secret rotates the keys of all the realms.
+ * <p>
+ * The derived keys are lightweight handles, the actual keys, with their pooled {@link Mac}s, live in a bounded cache shared by all the realms,
+ * so the memory does not grow with the number of realms. A key is derived when it is created, while the cache has room,
+ * and again only once it was evicted, so the requests don't derive keys as long as the cache holds the keys in use.
+ * <p>
+ * The HKDF extract step only depends on the master secret, it runs once per master secret, and the derived keys share its result,
+ * so deriving a key again only runs the expand step, and the master secret is not copied for each key.
+ */
+public class SecurityRealmKeyDerivation {
+
+    // the length of an HMAC-SHA512 output, and of the derived keys
+    private static final int KEY_LENGTH = 64;
+    private static final byte[] INFO_PREFIX = "multi-security-realms:".getBytes(StandardCharsets.UTF_8);
+
+    private final int maximumSize;
+    private final Map<Key, SecurityRealmSigningKey> keys;
+
+    // by master secret, bounded the same way as the keys, an evicted one is simply extracted again
+    private final Map<ByteBuffer, PseudoRandomKey> pseudoRandomKeys;
+
+    private final LongAdder derivationCount = new LongAdder();
+    private final LongAdder extractionCount = new LongAdder();
+
+    public SecurityRealmKeyDerivation(int maximumSize) {
+        if(maximumSize <= 0){
+            throw new IllegalArgumentException("Derived key cache maximum size must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.keys = new ConcurrentHashMap<>(Math.min(maximumSize, 1024));
+        this.pseudoRandomKeys = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param id the id of the key, written in the tokens it signs, or null
+     * @param masterSecret the secret shared by the realms, it is never used as is to sign
+     * @param realm the name of the realm the key is derived for
+     * @return a key that signs with the key derived for the realm
+     */
+    public SecurityRealmSigningKey deriveKey(String id, byte[] masterSecret, String realm) {
+        Key key = new Key(id, getPseudoRandomKey(masterSecret), realm);
+        if(keys.size() < maximumSize){
+            getKey(key);
+        }
+        return new SecurityRealmSigningKey(id, () -> getKey(key));
+    }
+
+    public SecurityRealmSigningKey deriveKey(String id, String masterSecret, String realm) {
+        return deriveKey(id, masterSecret.getBytes(StandardCharsets.UTF_8), realm);
+    }
+
+    /**
+     * @return the number of derived keys in the cache
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return the number of keys derived so far, including the keys derived again once they were evicted
+     */
+    public long getDerivationCount() {
+        return derivationCount.sum();
+    }
+
+    /**
+     * @return the number of HKDF extract steps run so far, once per master secret, unless it was evicted
+     */
+    public long getExtractionCount() {
+        return extractionCount.sum();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * HKDF-SHA512, without salt, see RFC 5869.
+     *
+     * @param length the length of the derived key, at most 255 times 64 bytes
+     */
+    public static byte[] hkdf(byte[] masterSecret, byte[] info, int length) {
+        if(length <= 0 || length > 255 * KEY_LENGTH){
+            throw new IllegalArgumentException("Invalid derived key length (" + length + ")");
+        }
+
+        return expand(extract(masterSecret), info, length);
+    }
+
+    /**
+     * HKDF-SHA512 extract, the salt defaults to a string of zeros, as long as the hash.
+     */
+    private static byte[] extract(byte[] masterSecret) {
+        try{
+            Mac mac = Mac.getInstance(SecurityRealmSigningKey.ALGORITHM);
+            mac.init(new SecretKeySpec(new byte[mac.getMacLength()], SecurityRealmSigningKey.ALGORITHM));
+            return mac.doFinal(masterSecret);
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * HKDF-SHA512 expand.
+     */
+    private static byte[] expand(byte[] pseudoRandomKey, byte[] info, int length) {
+        try{
+            Mac mac = Mac.getInstance(SecurityRealmSigningKey.ALGORITHM);
+            mac.init(new SecretKeySpec(pseudoRandomKey, SecurityRealmSigningKey.ALGORITHM));
+            byte[] derived = new byte[length];
+            byte[] block = new byte[0];
+            for(int offset = 0, i = 1; offset < length; offset += block.length, i++){
+                mac.update(block);
+                mac.update(info);
+                mac.update((byte) i);
+                block = mac.doFinal();
+                System.arraycopy(block, 0, derived, offset, Math.min(block.length, length - offset));
+            }
+            return derived;
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private PseudoRandomKey getPseudoRandomKey(byte[] masterSecret) {
+        // wrapped as is for the lookup, only copied when it is kept
+        PseudoRandomKey pseudoRandomKey = pseudoRandomKeys.get(ByteBuffer.wrap(masterSecret));
+        if(pseudoRandomKey != null){
+            return pseudoRandomKey;
+        }
+
+        pseudoRandomKey = new PseudoRandomKey(extract(masterSecret));
+        extractionCount.increment();
+
+        if(pseudoRandomKeys.size() >= maximumSize){
+            evict(pseudoRandomKeys);
+        }
+
+        PseudoRandomKey existing = pseudoRandomKeys.putIfAbsent(ByteBuffer.wrap(masterSecret.clone()), pseudoRandomKey);
+        return existing == null ? pseudoRandomKey : existing;
+    }
+
+    private SecurityRealmSigningKey getKey(Key key) {
+        SecurityRealmSigningKey signingKey = keys.get(key);
+        if(signingKey != null){
+            return signingKey;
+        }
+
+        signingKey = new SecurityRealmSigningKey(key.id, expand(key.pseudoRandomKey.bytes, key.info(), KEY_LENGTH));
+        derivationCount.increment();
+
+        if(keys.size() >= maximumSize){
+            evict(keys);
+        }
+
+        SecurityRealmSigningKey existing = keys.putIfAbsent(key, signingKey);
+        return existing == null ? signingKey : existing;
+    }
+
+    /**
+     * Drops arbitrary entries until a sixteenth of the capacity is free, same as {@link SecurityRealmTokenCache}.
+     * An evicted key is simply derived again on its next use.
+     */
+    private void evict(Map<?, ?> cache) {
+        int target = maximumSize - Math.max(1, maximumSize / 16);
+        Iterator<?> iterator = cache.keySet().iterator();
+        while(cache.size() > target && iterator.hasNext()){
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * The result of the extract step for a master secret, shared by the keys derived from it.
+     * Equal to the one extracted again from the same master secret, so the cached keys are found again.
+     */
+    private static final class PseudoRandomKey {
+
+        private final byte[] bytes;
+        private final int hash;
+
+        private PseudoRandomKey(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj == this || obj instanceof PseudoRandomKey other && hash == other.hash && Arrays.equals(bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Key {
+
+        private final String id;
+        private final PseudoRandomKey pseudoRandomKey;
+        private final String realm;
+        private final int hash;
+
+        private Key(String id, PseudoRandomKey pseudoRandomKey, String realm) {
+            this.id = id;
+            this.pseudoRandomKey = pseudoRandomKey;
+            this.realm = realm;
+            this.hash = Objects.hash(id, realm) * 31 + pseudoRandomKey.hashCode();
+        }
+
+        /**
+         * The realm name and the key id, length prefixed, so that no two pairs have the same info.
+         */
+        private byte[] info() {
+            byte[] realmBytes = realm.getBytes(StandardCharsets.UTF_8);
+            byte[] idBytes = id == null ? new byte[0] : id.getBytes(StandardCharsets.UTF_8);
+            if(realmBytes.length > 0xFFFF || idBytes.length > 0xFFFF){
+                throw new IllegalArgumentException("Invalid realm name or key id for key derivation, it is too long");
+            }
+
+            return ByteBuffer
+                .allocate(INFO_PREFIX.length + 5 + realmBytes.length + idBytes.length)
+                .put(INFO_PREFIX)
+                .putShort((short) realmBytes.length)
+                .put(realmBytes)
+                .put((byte) (id == null ? 0 : 1))
+                .putShort((short) idBytes.length)
+                .put(idBytes)
+                .array();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key other
+                && Objects.equals(id, other.id)
+                && realm.equals(other.realm)
+                && pseudoRandomKey.equals(other.pseudoRandomKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
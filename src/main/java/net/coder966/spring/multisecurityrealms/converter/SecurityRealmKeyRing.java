@@ -0,0 +1,61 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The signing keys of a realm: the active key signs the new tokens, and the retired keys still verify the tokens they signed,
+ * until they are removed from the ring, once these tokens expired. This lets a realm rotate its keys without logging everyone out.
+ * <p>
+ * Tokens carry the id of their key ({@code kid}), and are verified by the key of that id only, found in a single map lookup.
+ * Tokens without a key id are verified by the key without id, if any, e.g. the tokens issued before the realm started rotating its keys.
+ */
+public class SecurityRealmKeyRing {
+
+    private final SecurityRealmSigningKey activeKey;
+
+    // by id, the key without id under the null key
+    private final Map<String, SecurityRealmSigningKey> keys = new HashMap<>();
+
+    public SecurityRealmKeyRing(SecurityRealmSigningKey activeKey) {
+        this(activeKey, List.of());
+    }
+
+    /**
+     * @param retiredKeys the keys that no longer sign tokens, but whose tokens are still accepted
+     */
+    public SecurityRealmKeyRing(SecurityRealmSigningKey activeKey, Collection<SecurityRealmSigningKey> retiredKeys) {
+        this.activeKey = activeKey;
+        keys.put(activeKey.getId(), activeKey);
+        for(SecurityRealmSigningKey key : retiredKeys){
+            if(keys.putIfAbsent(key.getId(), key) != null){
+                throw new IllegalArgumentException("Invalid signing key id (" + key.getId() + "). Key ids should be unique.");
+            }
+        }
+    }
+
+    /**
+     * @return the key that signs the new tokens
+     */
+    public SecurityRealmSigningKey getActiveKey() {
+        return activeKey;
+    }
+
+    /**
+     * @param id the key id carried by the token, or null if it carries none
+     * @return the key of the given id, or null if there is no such key, e.g. a key that has been removed
+     */
+    public SecurityRealmSigningKey getKey(String id) {
+        return keys.get(id);
+    }
+
+    /**
+     * @return all the keys, including the active one
+     */
+    public Collection<SecurityRealmSigningKey> getKeys() {
+        return Collections.unmodifiableCollection(keys.values());
+    }
+}
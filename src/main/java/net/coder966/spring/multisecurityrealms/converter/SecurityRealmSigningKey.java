@@ -0,0 +1,156 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The HMAC-SHA512 key a realm signs and verifies its tokens with, shared by all the {@link SecurityRealmTokenFormat}s of the realm.
+ * <p>
+ * Looking up a {@link Mac} and keying it costs more than signing a token, so the key is set up once in a prototype,
+ * and the instances used to sign are cloned from it and pooled. A pool (rather than a thread local) keeps the number of instances
+ * bounded by the concurrency, not by the number of threads, which matters with virtual threads.
+ * <p>
+ * A key may have an id, the {@code kid} of the tokens it signs, so a realm can rotate its keys, see {@link SecurityRealmKeyRing}.
+ * <p>
+ * A key may also sign with another key, found when signing, e.g. the keys derived from a master secret, see {@link SecurityRealmKeyDerivation}.
+ */
+public class SecurityRealmSigningKey {
+
+    public static final String ALGORITHM = "HmacSHA512";
+
+    private static final int MAXIMUM_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    // null for a key without id, e.g. the single key of a realm that does not rotate its keys
+    private final String id;
+    // null for a key that signs by itself
+    private final Supplier<SecurityRealmSigningKey> delegate;
+    private final SecretKeySpec key;
+    private final Mac prototype;
+    private final boolean cloneable;
+    private final Queue<Mac> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger poolSize = new AtomicInteger();
+
+    public SecurityRealmSigningKey(String secret) {
+        this(null, secret);
+    }
+
+    public SecurityRealmSigningKey(byte[] secret) {
+        this(null, secret);
+    }
+
+    /**
+     * @param id the id of the key, written in the tokens it signs, or null
+     */
+    public SecurityRealmSigningKey(String id, String secret) {
+        this(id, secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param id the id of the key, written in the tokens it signs, or null
+     */
+    public SecurityRealmSigningKey(String id, byte[] secret) {
+        this.id = id;
+        this.delegate = null;
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.prototype = newMac();
+        this.cloneable = isCloneable(prototype);
+    }
+
+    /**
+     * A key that signs with the key of the delegate, this instance holds no key and no {@link Mac}.
+     *
+     * @param id the id of the key, written in the tokens it signs, or null
+     */
+    SecurityRealmSigningKey(String id, Supplier<SecurityRealmSigningKey> delegate) {
+        this.id = id;
+        this.delegate = delegate;
+        this.key = null;
+        this.prototype = null;
+        this.cloneable = false;
+    }
+
+    /**
+     * @return the id of the key, or null if it has none
+     */
+    public String getId() {
+        return id;
+    }
+
+    public byte[] sign(byte[] data) {
+        return sign(data, 0, data.length);
+    }
+
+    public byte[] sign(byte[] data, int offset, int length) {
+        if(delegate != null){
+            return delegate.get().sign(data, offset, length);
+        }
+
+        Mac mac = acquire();
+        try{
+            mac.update(data, offset, length);
+            return mac.doFinal();
+        }finally{
+            release(mac);
+        }
+    }
+
+    /**
+     * Compares the full MAC with the signature, in constant time.
+     */
+    public boolean verify(byte[] data, int offset, int length, byte[] signature) {
+        return MessageDigest.isEqual(sign(data, offset, length), signature);
+    }
+
+    private Mac acquire() {
+        Mac mac = pool.poll();
+        if(mac != null){
+            poolSize.decrementAndGet();
+            return mac;
+        }
+        return cloneable ? clonePrototype() : newMac();
+    }
+
+    private void release(Mac mac) {
+        // doFinal already resets the instance, unless it failed half way
+        mac.reset();
+        if(poolSize.incrementAndGet() <= MAXIMUM_POOL_SIZE){
+            pool.offer(mac);
+        }else{
+            poolSize.decrementAndGet();
+        }
+    }
+
+    private Mac clonePrototype() {
+        try{
+            return (Mac) prototype.clone();
+        }catch(CloneNotSupportedException e){
+            return newMac();
+        }
+    }
+
+    private Mac newMac() {
+        try{
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        }catch(GeneralSecurityException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isCloneable(Mac mac) {
+        try{
+            mac.clone();
+            return true;
+        }catch(CloneNotSupportedException e){
+            return false;
+        }
+    }
+}
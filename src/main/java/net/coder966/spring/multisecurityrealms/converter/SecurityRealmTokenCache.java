@@ -0,0 +1,161 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+
+/**
+ * A bounded cache of already verified tokens, keyed by the SHA-256 digest of the token (the token itself is never retained).
+ * An entry never outlives the expiration of the token it was created from.
+ */
+public class SecurityRealmTokenCache {
+
+    private final int maximumSize;
+    private final MessageDigest digestPrototype;
+    private final Map<Key, Entry> entries;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    public SecurityRealmTokenCache(int maximumSize) {
+        if(maximumSize <= 0){
+            throw new IllegalArgumentException("Token cache maximum size must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.entries = new ConcurrentHashMap<>(Math.min(maximumSize, 1024));
+        try{
+            this.digestPrototype = MessageDigest.getInstance("SHA-256");
+        }catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the cached authentication, or null if the token was not seen before or has expired
+     */
+    public SecurityRealmAuthentication get(String token) {
+        Key key = new Key(digest(token));
+        Entry entry = entries.get(key);
+
+        if(entry == null){
+            missCount.increment();
+            return null;
+        }
+
+        if(entry.isExpired(System.currentTimeMillis())){
+            if(entries.remove(key, entry)){
+                evictionCount.increment();
+            }
+            missCount.increment();
+            return null;
+        }
+
+        hitCount.increment();
+        return entry.authentication;
+    }
+
+    /**
+     * @param authentication must be immutable, as it will be shared by all the requests carrying the same token
+     */
+    public void put(String token, SecurityRealmAuthentication authentication, Instant expiresAt) {
+        if(expiresAt == null){
+            return; // we never cache tokens that do not expire
+        }
+
+        if(entries.size() >= maximumSize){
+            evict();
+        }
+
+        entries.put(new Key(digest(token)), new Entry(authentication, expiresAt.toEpochMilli()));
+    }
+
+    public SecurityRealmTokenCacheStats getStats() {
+        return new SecurityRealmTokenCacheStats(hitCount.sum(), missCount.sum(), evictionCount.sum(), entries.size());
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Drops expired entries first, then arbitrary ones, until a sixteenth of the capacity is free.
+     * Evicting a batch instead of a single entry keeps the cost amortized when the cache is under pressure.
+     */
+    private void evict() {
+        int target = maximumSize - Math.max(1, maximumSize / 16);
+        long now = System.currentTimeMillis();
+
+        entries.entrySet().removeIf(e -> {
+            if(e.getValue().isExpired(now)){
+                evictionCount.increment();
+                return true;
+            }
+            return false;
+        });
+
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while(entries.size() > target && iterator.hasNext()){
+            iterator.next();
+            iterator.remove();
+            evictionCount.increment();
+        }
+    }
+
+    private byte[] digest(String token) {
+        MessageDigest digest;
+        try{
+            digest = (MessageDigest) digestPrototype.clone();
+        }catch(CloneNotSupportedException e){
+            try{
+                digest = MessageDigest.getInstance(digestPrototype.getAlgorithm());
+            }catch(NoSuchAlgorithmException ex){
+                throw new IllegalStateException(ex);
+            }
+        }
+        return digest.digest(token.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static final class Key {
+
+        private final byte[] digest;
+        private final int hash;
+
+        private Key(byte[] digest) {
+            this.digest = digest;
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key other && Arrays.equals(digest, other.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+
+        private final SecurityRealmAuthentication authentication;
+        private final long expiresAtMillis;
+
+        private Entry(SecurityRealmAuthentication authentication, long expiresAtMillis) {
+            this.authentication = authentication;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        private boolean isExpired(long nowMillis) {
+            return nowMillis >= expiresAtMillis;
+        }
+    }
+}
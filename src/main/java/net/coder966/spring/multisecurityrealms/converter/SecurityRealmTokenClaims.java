@@ -0,0 +1,75 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A view over the claims of a token, as read by a {@link SecurityRealmTokenFormat}.
+ * The scalar claims are read eagerly, while the authorities and extras may be decoded each time they are asked for.
+ * Unless it is returned from {@link SecurityRealmTokenFormat#verify(SecurityRealmTokenClaims)}, the claims are <b>not</b> verified and must not be trusted.
+ */
+public abstract class SecurityRealmTokenClaims {
+
+    private final String token;
+
+    protected String realm;
+    protected String subject;
+    protected String nextAuthenticationStep;
+    protected Long expiresAt;
+    protected byte[] authoritiesMask;
+
+    protected SecurityRealmTokenClaims(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return the raw token these claims were read from
+     */
+    public String getToken() {
+        return token;
+    }
+
+    public String getRealm() {
+        return realm;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getNextAuthenticationStep() {
+        return nextAuthenticationStep;
+    }
+
+    /**
+     * @return the expiration time in seconds since the epoch, or null if the token does not expire
+     */
+    public Long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @return the authorities bitmask over the realm {@link net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthorityDictionary},
+     * or null if the token carries the authority names instead
+     */
+    public byte[] getAuthoritiesMask() {
+        return authoritiesMask;
+    }
+
+    /**
+     * @return whether the token carries its authorities, either as a bitmask or as names, without decoding them
+     */
+    public boolean hasAuthorities() {
+        return authoritiesMask != null || getAuthorities() != null;
+    }
+
+    /**
+     * @return the authority names, or null if the claim is absent or null
+     */
+    public abstract List<String> getAuthorities();
+
+    /**
+     * @return the extras, or null if the claim is absent or null
+     */
+    public abstract Map<String, Object> getExtras();
+}
@@ -1,72 +1,354 @@
 package net.coder966.spring.multisecurityrealms.converter;
 
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.JWTVerifier;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.auth0.jwt.interfaces.DecodedJWT;
+import io.micrometer.observation.ObservationRegistry;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthorityDictionary;
+import net.coder966.spring.multisecurityrealms.jfr.SecurityRealmTokenDecodeEvent;
+import net.coder966.spring.multisecurityrealms.jfr.SecurityRealmTokenEncodeEvent;
+import net.coder966.spring.multisecurityrealms.jfr.SecurityRealmTokenVerifyEvent;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmMetrics;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmTokenFailure;
+import net.coder966.spring.multisecurityrealms.observation.SecurityRealmObservationDocumentation;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
 public class SecurityRealmTokenCodec {
-    private final Algorithm algorithm;
-    private final JWTVerifier verifier;
+    private final SecurityRealmTokenFormat format;
+    private final List<SecurityRealmTokenFormat> decodingFormats;
+    private final SecurityRealmTokenCache cache;
+    private final SecurityRealmAuthorityDictionary authorityDictionary;
+    private final SecurityRealmMetrics metrics;
+    private final ObservationRegistry observationRegistry;
 
     public SecurityRealmTokenCodec(String secret) {
-        this.algorithm = Algorithm.HMAC512(secret);
-        this.verifier = JWT.require(algorithm).build();
+        this(builder(new JwtSecurityRealmTokenFormat(new SecurityRealmSigningKey(secret))));
     }
 
+    private SecurityRealmTokenCodec(Builder builder) {
+        List<SecurityRealmTokenFormat> decodingFormats = new ArrayList<>(1 + builder.legacyFormats.size());
+        decodingFormats.add(builder.format);
+        decodingFormats.addAll(builder.legacyFormats);
+
+        this.format = builder.format;
+        this.decodingFormats = Collections.unmodifiableList(decodingFormats);
+        this.cache = builder.cache;
+        this.authorityDictionary = builder.authorityDictionary;
+        this.metrics = builder.metrics;
+        this.observationRegistry = builder.observationRegistry;
+    }
+
+    /**
+     * @param format the format used to issue tokens
+     */
+    public static Builder builder(SecurityRealmTokenFormat format) {
+        return new Builder(format);
+    }
+
+    /**
+     * @return the format used to issue tokens
+     */
+    public SecurityRealmTokenFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the formats accepted when decoding, starting with {@link #getFormat()}
+     */
+    public List<SecurityRealmTokenFormat> getDecodingFormats() {
+        return decodingFormats;
+    }
+
+    /**
+     * @return the verified tokens cache, or null if caching is disabled
+     */
+    public SecurityRealmTokenCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the realm authority dictionary, or null if the realm does not declare one
+     */
+    public SecurityRealmAuthorityDictionary getAuthorityDictionary() {
+        return authorityDictionary;
+    }
+
+    /**
+     * @return the realm metrics, or null if no metrics are recorded
+     */
+    public SecurityRealmMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The authentication is not modified, e.g. its authorities are written as a bitmask, when they are all in the realm dictionary,
+     * without being replaced.
+     */
     public String encode(SecurityRealmAuthentication authentication, Duration ttl) {
-        return JWT
-            .create()
-            .withClaim("realm", authentication.getRealm())
+        Collection<? extends GrantedAuthority> authorities = authentication.getAuthorities();
+        if(authorityDictionary != null){
+            Set<GrantedAuthority> authoritySet = authorityDictionary.toSet(authorities);
+            if(authoritySet != null){
+                authorities = authoritySet;
+            }
+        }
 
-            .withSubject(authentication.getName())
-            .withClaim("authorities", authentication.getAuthorities().stream().map(GrantedAuthority::getAuthority).collect(Collectors.toList()))
+        Collection<? extends GrantedAuthority> encodedAuthorities = authorities;
+        Instant expiresAt = Instant.now().plus(ttl);
+        if(observationRegistry.isNoop()){
+            return encode(authentication, encodedAuthorities, expiresAt);
+        }
+        return SecurityRealmObservationDocumentation.TOKEN_ENCODE
+            .forRealm(observationRegistry, realmOf(authentication))
+            .observe(() -> encode(authentication, encodedAuthorities, expiresAt));
+    }
 
-            .withClaim("nextAuthenticationStep", authentication.getNextAuthenticationStep())
+    private String encode(SecurityRealmAuthentication authentication, Collection<? extends GrantedAuthority> authorities, Instant expiresAt) {
+        SecurityRealmTokenEncodeEvent event = new SecurityRealmTokenEncodeEvent();
+        event.begin();
 
-            .withClaim("extras", authentication.getExtras())
+        String token = format.encode(authentication, authorities, expiresAt);
 
-            .withExpiresAt(Instant.now().plus(ttl))
-            .sign(algorithm);
+        event.end();
+        if(event.shouldCommit()){
+            event.realm = realmOf(authentication);
+            event.format = format.getClass().getSimpleName();
+            event.fullyAuthenticated = authentication.getNextAuthenticationStep() == null;
+            event.commit();
+        }
+        return token;
     }
 
     public SecurityRealmAuthentication decode(String token) {
-        try{
-            DecodedJWT decodedJWT = verifier.verify(token);
+        SecurityRealmTokenClaims unverifiedClaims = read(token, decodingFormats);
+        return unverifiedClaims == null ? null : decode(unverifiedClaims);
+    }
 
-            String realmName = decodedJWT.getClaim("realm").asString();
+    /**
+     * Verifies and decodes a token previously read using {@link #read(String, List)}.
+     */
+    public SecurityRealmAuthentication decode(SecurityRealmTokenClaims unverifiedClaims) {
+        if(observationRegistry.isNoop()){
+            return verifyAndDecode(unverifiedClaims);
+        }
+        return SecurityRealmObservationDocumentation.TOKEN_DECODE.forRealm(observationRegistry, realmOf(unverifiedClaims)).observe(() -> verifyAndDecode(unverifiedClaims));
+    }
 
-            String username = decodedJWT.getSubject();
-            Set<GrantedAuthority> authorities = decodedJWT
-                .getClaim("authorities")
-                .asList(String.class)
-                .stream()
-                .map(SimpleGrantedAuthority::new)
-                .collect(Collectors.toSet());
+    private SecurityRealmAuthentication verifyAndDecode(SecurityRealmTokenClaims unverifiedClaims) {
+        String token = unverifiedClaims.getToken();
 
-            String nextAuthenticationStep = decodedJWT.getClaim("nextAuthenticationStep").asString();
+        // not even the clock is read when no metrics are recorded
+        long start = metrics == null ? 0 : System.nanoTime();
 
-            Map<String, Object> extras = decodedJWT.getClaim("extras").asMap();
+        // a no-op, unless the event is enabled in a flight recording
+        SecurityRealmTokenDecodeEvent event = new SecurityRealmTokenDecodeEvent();
+        event.begin();
+        if(event.isEnabled()){
+            event.realm = realmOf(unverifiedClaims);
+        }
 
-            SecurityRealmAuthentication auth = new SecurityRealmAuthentication(username, authorities, nextAuthenticationStep, Duration.ZERO);
+        if(cache != null){
+            SecurityRealmAuthentication cached = cache.get(token);
+            if(cached != null){
+                return accept(start, event, "cached", cached);
+            }
+        }
 
-            if(extras != null){ // to still support tokens generated before this feature was introduced
-                extras.forEach(auth::addExtra);
+        SecurityRealmAuthentication auth;
+        Instant expiresAt;
+        try{
+            SecurityRealmTokenFormat tokenFormat = null;
+            for(SecurityRealmTokenFormat decodingFormat : decodingFormats){
+                if(decodingFormat.supports(token)){
+                    tokenFormat = decodingFormat;
+                    break;
+                }
+            }
+            if(tokenFormat == null){
+                return reject(start, event, SecurityRealmTokenFailure.MALFORMED);
             }
 
-            auth._UNSAFE_overrideRealm(realmName);
+            SecurityRealmTokenClaims claims = verify(tokenFormat, unverifiedClaims);
+            if(claims == null){
+                // some decoders reject expired tokens themselves, so tell them apart from forged ones using the unverified expiry
+                return reject(start, event, isExpired(unverifiedClaims) ? SecurityRealmTokenFailure.EXPIRED : SecurityRealmTokenFailure.BAD_SIGNATURE);
+            }
+            if(isExpired(claims)){
+                return reject(start, event, SecurityRealmTokenFailure.EXPIRED);
+            }
+
+            if(!claims.hasAuthorities() || (claims.getAuthoritiesMask() != null
+                && (authorityDictionary == null || !authorityDictionary.isValidMask(claims.getAuthoritiesMask())))){
+                return reject(start, event, SecurityRealmTokenFailure.MALFORMED);
+            }
 
-            return auth;
+            // the authorities and extras are decoded on first access
+            auth = new DecodedSecurityRealmAuthentication(claims, this);
+            expiresAt = claims.getExpiresAt() == null ? null : Instant.ofEpochSecond(claims.getExpiresAt());
         }catch(Exception e){
+            return reject(start, event, SecurityRealmTokenFailure.MALFORMED);
+        }
+
+        // intermediary tokens are used once, so only the fully authenticated ones are worth caching
+        if(cache != null && auth.isAuthenticated()){
+            auth._UNSAFE_makeImmutable();
+            cache.put(token, auth, expiresAt);
+        }
+
+        return accept(start, event, "accepted", auth);
+    }
+
+    private SecurityRealmTokenClaims verify(SecurityRealmTokenFormat tokenFormat, SecurityRealmTokenClaims unverifiedClaims) {
+        SecurityRealmTokenVerifyEvent event = new SecurityRealmTokenVerifyEvent();
+        event.begin();
+
+        SecurityRealmTokenClaims claims = tokenFormat.verify(unverifiedClaims);
+
+        event.end();
+        if(event.shouldCommit()){
+            event.realm = realmOf(unverifiedClaims);
+            event.format = tokenFormat.getClass().getSimpleName();
+            event.valid = claims != null;
+            event.commit();
+        }
+        return claims;
+    }
+
+    // the callers only hand a codec the tokens of its own realm, so the realm they carry is the codec one
+    private static String realmOf(SecurityRealmTokenClaims claims) {
+        return claims.getRealm() == null ? SecurityRealmObservationDocumentation.NO_REALM : claims.getRealm();
+    }
+
+    private static String realmOf(SecurityRealmAuthentication authentication) {
+        return authentication.getRealm() == null ? SecurityRealmObservationDocumentation.NO_REALM : authentication.getRealm();
+    }
+
+    private static boolean isExpired(SecurityRealmTokenClaims claims) {
+        return claims.getExpiresAt() != null && System.currentTimeMillis() / 1000 > claims.getExpiresAt();
+    }
+
+    private SecurityRealmAuthentication accept(long start, SecurityRealmTokenDecodeEvent event, String outcome, SecurityRealmAuthentication auth) {
+        if(metrics != null){
+            metrics.recordTokenVerification(System.nanoTime() - start, null);
+        }
+        commit(event, outcome);
+        return auth;
+    }
+
+    private SecurityRealmAuthentication reject(long start, SecurityRealmTokenDecodeEvent event, SecurityRealmTokenFailure failure) {
+        if(metrics != null){
+            metrics.recordTokenVerification(System.nanoTime() - start, failure);
+        }
+        commit(event, failure.name().toLowerCase());
+        return null;
+    }
+
+    private void commit(SecurityRealmTokenDecodeEvent event, String outcome) {
+        event.end();
+        if(event.shouldCommit()){
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    /**
+     * Reads the token <b>without</b> verifying it, using the first of the formats that supports it.
+     *
+     * @return the unverified claims, or null if the token is missing, malformed, or of an unsupported format
+     */
+    public static SecurityRealmTokenClaims read(String token, List<SecurityRealmTokenFormat> formats) {
+        if(token == null){
             return null;
         }
+        for(SecurityRealmTokenFormat format : formats){
+            if(format.supports(token)){
+                return format.read(token);
+            }
+        }
+        return null;
+    }
+
+    Set<GrantedAuthority> buildAuthorities(SecurityRealmTokenClaims claims) {
+        if(claims.getAuthoritiesMask() != null){
+            return authorityDictionary.fromMask(claims.getAuthoritiesMask());
+        }
+
+        List<String> authorityNames = claims.getAuthorities();
+        if(authorityDictionary != null){
+            Set<GrantedAuthority> authorities = authorityDictionary.toSetOfNames(authorityNames);
+            if(authorities != null){
+                return authorities;
+            }
+        }
+
+        Set<GrantedAuthority> authorities = new HashSet<>(authorityNames.size());
+        for(String authorityName : authorityNames){
+            authorities.add(new SimpleGrantedAuthority(authorityName));
+        }
+        return authorities;
+    }
+
+    public static class Builder {
+        private final SecurityRealmTokenFormat format;
+        private List<SecurityRealmTokenFormat> legacyFormats = List.of();
+        private SecurityRealmTokenCache cache;
+        private SecurityRealmAuthorityDictionary authorityDictionary;
+        private SecurityRealmMetrics metrics;
+        private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
+        private Builder(SecurityRealmTokenFormat format) {
+            this.format = format;
+        }
+
+        /**
+         * @param legacyFormats formats that are no longer used to issue tokens, but whose tokens are still accepted, e.g. while migrating to another format
+         */
+        public Builder legacyFormats(List<SecurityRealmTokenFormat> legacyFormats) {
+            this.legacyFormats = legacyFormats;
+            return this;
+        }
+
+        /**
+         * @param cache when provided, fully authenticated tokens are verified once and then served from the cache until they expire
+         */
+        public Builder cache(SecurityRealmTokenCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * @param authorityDictionary when provided, the authorities are carried as a bitmask, if they are all in the dictionary
+         */
+        public Builder authorityDictionary(SecurityRealmAuthorityDictionary authorityDictionary) {
+            this.authorityDictionary = authorityDictionary;
+            return this;
+        }
+
+        /**
+         * @param metrics when provided, the verifications are timed and the rejected tokens are counted by cause
+         */
+        public Builder metrics(SecurityRealmMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param observationRegistry the registry of the encode and decode observations, {@link ObservationRegistry#NOOP} by default
+         */
+        public Builder observationRegistry(ObservationRegistry observationRegistry) {
+            this.observationRegistry = observationRegistry;
+            return this;
+        }
+
+        public SecurityRealmTokenCodec build() {
+            return new SecurityRealmTokenCodec(this);
+        }
     }
 }
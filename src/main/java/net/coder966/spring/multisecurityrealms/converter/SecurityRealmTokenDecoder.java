@@ -0,0 +1,17 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+/**
+ * The implementation used to verify and decode the realm JWT tokens, see {@link JwtSecurityRealmTokenFormat}.
+ */
+public enum SecurityRealmTokenDecoder {
+
+    /**
+     * The general purpose JWT library decoder.
+     */
+    STANDARD,
+
+    /**
+     * {@link SecurityRealmJwtParser}, which only understands the tokens issued by this library, but allocates much less per token.
+     */
+    LIGHTWEIGHT
+}
@@ -0,0 +1,52 @@
+package net.coder966.spring.multisecurityrealms.converter;
+
+import java.time.Instant;
+import java.util.Collection;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthoritySet;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * The wire format of the realm tokens, see {@link JwtSecurityRealmTokenFormat} (the default) and {@link CompactSecurityRealmTokenFormat}.
+ * <p>
+ * An instance is created per realm, with the realm {@link SecurityRealmSigningKey}.
+ * Custom implementations are selected using <code>@SecurityRealm(tokenFormat = "fully.qualified.ClassName")</code>,
+ * and must declare a public constructor accepting either a {@link SecurityRealmKeyRing}, to support key rotation,
+ * or a {@link SecurityRealmSigningKey}, the active key of the realm.
+ */
+public interface SecurityRealmTokenFormat {
+
+    /**
+     * Tells whether the token is written in this format, without parsing it. It must be cheap, as it is called for every request.
+     */
+    boolean supports(String token);
+
+    /**
+     * Reads the claims <b>without</b> verifying the token.
+     * It must not depend on the signing key, because it is used to find the realm (hence the key) the token claims to belong to.
+     *
+     * @return the unverified claims, or null if the token is malformed
+     */
+    SecurityRealmTokenClaims read(String token);
+
+    /**
+     * Verifies the token signature. The expiration is checked by {@link SecurityRealmTokenCodec}.
+     *
+     * @param unverifiedClaims claims previously returned by {@link #read(String)}
+     * @return the verified claims, which are not necessarily the same instance, or null if the token is invalid
+     */
+    SecurityRealmTokenClaims verify(SecurityRealmTokenClaims unverifiedClaims);
+
+    String encode(SecurityRealmAuthentication authentication, Instant expiresAt);
+
+    /**
+     * Same as {@link #encode(SecurityRealmAuthentication, Instant)}, with the authorities to write instead of the authentication ones,
+     * e.g. the same authorities as a {@link SecurityRealmAuthoritySet} of the realm dictionary, which formats may write as a bitmask.
+     * The authentication is never modified.
+     * <p>
+     * By default, the authentication authorities are written, as named authorities.
+     */
+    default String encode(SecurityRealmAuthentication authentication, Collection<? extends GrantedAuthority> authorities, Instant expiresAt) {
+        return encode(authentication, expiresAt);
+    }
+}
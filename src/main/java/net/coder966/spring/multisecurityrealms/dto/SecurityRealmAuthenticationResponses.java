@@ -0,0 +1,57 @@
+package net.coder966.spring.multisecurityrealms.dto;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationException;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Builds the authentication responses, the same way for the servlet and the reactive stacks.
+ */
+public class SecurityRealmAuthenticationResponses {
+
+    private SecurityRealmAuthenticationResponses() {
+    }
+
+    public static SecurityRealmAuthenticationSuccessResponse success(SecurityRealmDescriptor realmDescriptor, SecurityRealmAuthentication auth) {
+        var response = new SecurityRealmAuthenticationSuccessResponse();
+
+        // asynchronous steps may build the authentication in a thread that has no SecurityRealmContext
+        if(auth.getRealm() == null){
+            auth._UNSAFE_overrideRealm(realmDescriptor.getName());
+        }
+
+        // determine TTL
+        Duration ttl = auth.getNextAuthenticationStep() == null ? realmDescriptor.getFullyAuthenticatedTokenTtl() : auth.getTokenTtl();
+
+        response.realm = realmDescriptor.getName();
+
+        response.name = auth.getName();
+        response.authorities = auth.getAuthorities().stream().map(GrantedAuthority::getAuthority).collect(Collectors.toSet());
+
+        response.token = realmDescriptor.getSecurityRealmTokenCodec().encode(auth, ttl);
+        response.tokenType = "Bearer";
+        response.expiresInSeconds = ttl.toSeconds();
+
+        response.nextAuthenticationStep = auth.getNextAuthenticationStep();
+
+        response.extras = auth.getExtras();
+
+        if(realmDescriptor.getMetrics() != null){
+            realmDescriptor.getMetrics().recordTokenIssued(auth.getNextAuthenticationStep() == null);
+        }
+
+        return response;
+    }
+
+    public static SecurityRealmAuthenticationErrorResponse error(SecurityRealmAuthenticationException e) {
+        var response = new SecurityRealmAuthenticationErrorResponse();
+
+        response.error = e.getMessage();
+        response.errorDescription = e.getErrorDescription();
+
+        return response;
+    }
+}
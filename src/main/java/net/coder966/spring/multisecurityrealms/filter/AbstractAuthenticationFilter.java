@@ -24,8 +24,10 @@ public abstract class AbstractAuthenticationFilter {
     }
 
     private boolean doesContextHoldStrongerAuthentication(Authentication newAuth) {
-        Authentication currentAuth = SecurityContextHolder.getContext().getAuthentication();
+        return isStrongerAuthentication(SecurityContextHolder.getContext().getAuthentication(), newAuth);
+    }
 
+    static boolean isStrongerAuthentication(Authentication currentAuth, Authentication newAuth) {
         if(currentAuth == null){
             return false;
         }
@@ -2,27 +2,36 @@ package net.coder966.spring.multisecurityrealms.filter;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import java.util.List;
 import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAnonymousAuthentication;
-import org.springframework.security.web.util.matcher.RequestMatcher;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmRoute;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmRouteTable;
 
 public class AnonymousAccessAuthenticationFilter extends AbstractAuthenticationFilter {
 
-    private final List<RequestMatcher> requestMatchers;
+    private final SecurityRealmRouteTable routeTable;
 
-    public AnonymousAccessAuthenticationFilter(List<RequestMatcher> requestMatchers) {
-        this.requestMatchers = requestMatchers;
+    public AnonymousAccessAuthenticationFilter(SecurityRealmRouteTable routeTable) {
+        this.routeTable = routeTable;
     }
 
     public boolean handle(HttpServletRequest request, HttpServletResponse response) {
-        for(RequestMatcher matcher : requestMatchers){
-            if(matcher.matches(request)){
-                setAuthenticationInContext(new SecurityRealmAnonymousAuthentication());
-                // don't return true; as we need to continue the filter chain on order to reach the servlet controller
-                return false;
-            }
+        return handle(request, response, routeTable.lookup(request));
+    }
+
+    /**
+     * @param route the route of the request, as already resolved by the caller
+     */
+    public boolean handle(HttpServletRequest request, HttpServletResponse response, SecurityRealmRoute route) {
+        if(route.isAnonymous()){
+            // the authentication is shared, but each request gets its own context, which the application may still mutate (e.g. on logout)
+            setAuthenticationInContext(SecurityRealmAnonymousAuthentication.INSTANCE);
         }
+        // don't return true; as we need to continue the filter chain on order to reach the servlet controller
         return false;
     }
 
+    public boolean matches(HttpServletRequest request) {
+        return routeTable.lookup(request).isAnonymous();
+    }
+
 }
@@ -1,42 +1,296 @@
 package net.coder966.spring.multisecurityrealms.filter;
 
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAnonymousAuthentication;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.configuration.SecurityRealmConfigurationProperties;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContext;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContextState;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenClaims;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmMetricsRecorder;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmTokenFailure;
+import net.coder966.spring.multisecurityrealms.mvc.SecurityRealmAuthenticationStepDispatcher;
+import net.coder966.spring.multisecurityrealms.observation.SecurityRealmObservationDocumentation;
+import net.coder966.spring.multisecurityrealms.observation.SecurityRealmObservationDocumentation.LowCardinalityKeyNames;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmRoute;
 import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmScanner;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmSnapshot;
 import org.springframework.context.ApplicationContext;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.util.function.SingletonSupplier;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+/**
+ * Authenticates the requests of all the realms.
+ * <p>
+ * The realms and routes are those of the current {@link SecurityRealmSnapshot} of the scanner, which is replaced when the configuration is reloaded.
+ * Each request reads the filter state once, and the state is only rebuilt when the snapshot changes, so reloading never blocks a request.
+ */
 public class MultiSecurityRealmAuthenticationFilter extends OncePerRequestFilter {
 
-    private final List<AbstractAuthenticationFilter> filters = new LinkedList<>();
+    private final SecurityRealmScanner scanner;
+    private final SecurityRealmAuthenticationStepDispatcher stepDispatcher;
+
+    // rebuilt from the snapshot of the scanner, when it changes
+    private volatile State state;
+
+    private final boolean deferredTokenVerification;
+
+    // null when no metrics are recorded
+    private final SecurityRealmMetricsRecorder metricsRecorder;
+
+    private final ObservationRegistry observationRegistry;
 
     public MultiSecurityRealmAuthenticationFilter(ApplicationContext context, SecurityRealmScanner scanner) {
         scanner.scan();
 
-        scanner
-            .getDescriptors()
-            .forEach(realm -> filters.add(new SecurityRealmAuthenticationFilter(context, realm)));
+        this.scanner = scanner;
+        this.stepDispatcher = new SecurityRealmAuthenticationStepDispatcher(context);
+        this.state = new State(scanner.getSnapshot(), stepDispatcher);
+        this.deferredTokenVerification = context.getBean(SecurityRealmConfigurationProperties.class).isDeferredTokenVerification();
+        this.metricsRecorder = context.getBeanProvider(SecurityRealmMetricsRecorder.class).getIfAvailable();
+        this.observationRegistry = context.getBeanProvider(ObservationRegistry.class).getIfAvailable(() -> ObservationRegistry.NOOP);
+    }
 
-        // must be at the end, because if the user is authenticated, why clear the user authentication from the context, right ?
-        filters.add(new AnonymousAccessAuthenticationFilter(scanner.getAnonymousRequestMatchers()));
+    /**
+     * @return the state of the current snapshot, without locking: concurrent requests may both rebuild it once, only one of them is kept
+     */
+    private State currentState() {
+        State state = this.state;
+        SecurityRealmSnapshot snapshot = scanner.getSnapshot();
+        if(state.snapshot != snapshot){
+            state = new State(snapshot, stepDispatcher);
+            this.state = state;
+        }
+        return state;
+    }
+
+    /**
+     * Asynchronous authentication steps are completed in an async dispatch, which needs the realm context and the step handler again.
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
         throws ServletException, IOException {
+        try{
+            if(observationRegistry.isNoop()){
+                doFilterWithRealmContext(request, response, filterChain, null);
+            }else{
+                doFilterObserved(request, response, filterChain);
+            }
+        }finally{
+            // the realm context is bound to the request, so it doesn't outlive it on pooled threads
+            SecurityRealmContext.clear();
+        }
+    }
+
+    /**
+     * The observation only covers the work of this filter, it is stopped once the request proceeds down the filter chain.
+     */
+    private void doFilterObserved(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+        throws ServletException, IOException {
+        Observation observation = SecurityRealmObservationDocumentation.FILTER
+            .forRealm(observationRegistry, SecurityRealmObservationDocumentation.NO_REALM)
+            .start();
+        ObservedFilterChain observedFilterChain = new ObservedFilterChain(observation, filterChain);
+        try{
+            doFilterWithRealmContext(request, response, observedFilterChain, observation);
+        }catch(ServletException | IOException | RuntimeException e){
+            if(!observedFilterChain.stopped){
+                observation.error(e);
+            }
+            throw e;
+        }finally{
+            observedFilterChain.stop();
+        }
+    }
+
+    /**
+     * @param observation the observation of this filter, or null if nothing is observed
+     */
+    private void doFilterWithRealmContext(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain, Observation observation)
+        throws ServletException, IOException {
+
+        // read once, the whole request is handled with the same realms and routes, even if the configuration is reloaded meanwhile
+        State state = currentState();
+        Map<String, SecurityRealmAuthenticationFilter> realmFilters = state.realmFilters;
+        AnonymousAccessAuthenticationFilter anonymousAccessAuthenticationFilter = state.anonymousAccessAuthenticationFilter;
+
+        // the route is resolved once, instead of testing every authentication endpoint and anonymous route
+        SecurityRealmRoute route = state.snapshot.getRouteTable().lookup(request);
+        if(observation != null){
+            observation.lowCardinalityKeyValue(LowCardinalityKeyNames.ROUTE.asString(), route.getType());
+        }
+        if(metricsRecorder != null && route.isAnonymous()){
+            metricsRecorder.recordAnonymousRequest(route.isAnonymousOnly());
+        }
+
+        // the request is anonymous whatever token it carries, so don't even read it
+        if(route.isAnonymousOnly()){
+            anonymousAccessAuthenticationFilter.handle(request, response, route);
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        // the token is parsed once and only verified by the realm it claims to belong to
+        SecurityRealmAuthentication auth = null;
+        SecurityRealmAuthenticationFilter tokenRealmFilter = null;
+
+        String token = SecurityRealmTokenExtractor.extract(request);
+        SecurityRealmTokenClaims unverifiedClaims = SecurityRealmTokenCodec.read(token, state.snapshot.getTokenFormats());
+        if(unverifiedClaims != null && unverifiedClaims.getRealm() != null){
+            tokenRealmFilter = realmFilters.get(unverifiedClaims.getRealm());
+        }
+        if(metricsRecorder != null && token != null && tokenRealmFilter == null){
+            metricsRecorder.recordTokenRejected(unverifiedClaims == null ? SecurityRealmTokenFailure.MALFORMED : SecurityRealmTokenFailure.WRONG_REALM);
+        }
+
+        // authentication requests need the verified step to be dispatched, so only the other requests can be deferred
+        if(deferredTokenVerification && !route.isAuthenticationEndpoint()){
+            deferAuthentication(route, tokenRealmFilter, unverifiedClaims);
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        if(tokenRealmFilter != null){
+            auth = tokenRealmFilter.decode(unverifiedClaims);
+        }
+
+        if(observation != null){
+            String realm = route.isAuthenticationEndpoint() ? route.getAuthenticationRealm() : auth != null ? auth.getRealm() : null;
+            if(realm != null){
+                observation.lowCardinalityKeyValue(LowCardinalityKeyNames.REALM.asString(), realm);
+            }
+        }
 
-        for(AbstractAuthenticationFilter filter : filters){
-            boolean handled = filter.handle(request, response);
-            if(handled){
+        if(route.isAuthenticationEndpoint()){
+            SecurityRealmAuthenticationFilter filter = realmFilters.get(route.getAuthenticationRealm());
+            if(auth != null && filter != tokenRealmFilter && tokenRealmFilter.getDescriptor().getMetrics() != null){
+                // e.g. a token of another realm sent to the authentication endpoint of this realm, it is ignored
+                tokenRealmFilter.getDescriptor().getMetrics().recordTokenRejected(SecurityRealmTokenFailure.WRONG_REALM);
+            }
+            if(filter.handle(request, response, filter == tokenRealmFilter ? auth : null, true)){
                 return;
             }
+        }else if(auth != null){
+            tokenRealmFilter.handle(request, response, auth, false);
+        }
+
+        // must be at the end, because if the user is authenticated, why clear the user authentication from the context, right ?
+        if(anonymousAccessAuthenticationFilter.handle(request, response, route)){
+            return;
         }
 
         filterChain.doFilter(request, response);
     }
+
+    /**
+     * Installs a deferred security context that only verifies the token once the authentication is consulted,
+     * so requests that never consult it (e.g. permitAll routes) skip the signature verification altogether.
+     */
+    private void deferAuthentication(SecurityRealmRoute route, SecurityRealmAuthenticationFilter tokenRealmFilter, SecurityRealmTokenClaims unverifiedClaims) {
+        boolean isAnonymousRequest = route.isAnonymous();
+        if(tokenRealmFilter == null && !isAnonymousRequest){
+            return;
+        }
+
+        // shared by the security context and the realm context, so the token is verified once, whichever is consulted first
+        Supplier<Optional<SecurityRealmAuthentication>> verifiedAuth = SingletonSupplier.of(
+            () -> Optional.ofNullable(tokenRealmFilter == null ? null : tokenRealmFilter.decode(unverifiedClaims))
+        );
+
+        // the supplier may be resolved on another thread, so it only builds the state, the filter binds it to this request and clears it
+        if(tokenRealmFilter != null){
+            SecurityRealmContext.setState(SecurityRealmContextState.deferred(() -> verifiedAuth
+                .get()
+                .map(auth -> new SecurityRealmContextState(tokenRealmFilter.getDescriptor(), auth.getNextAuthenticationStep()))
+                .orElse(null)));
+        }
+
+        Supplier<SecurityContext> previousContext = SecurityContextHolder.getContextHolderStrategy().getDeferredContext();
+        SecurityContextHolder.getContextHolderStrategy().setDeferredContext(SingletonSupplier.of(() -> {
+            SecurityContext context = previousContext.get();
+
+            SecurityRealmAuthentication auth = verifiedAuth.get().orElse(null);
+            if(auth != null){
+                SecurityContext newContext = SecurityContextHolder.createEmptyContext();
+                newContext.setAuthentication(auth);
+                context = withAuthentication(context, newContext);
+            }
+
+            // same order as the eager path, a partially authenticated user is anonymous on anonymous routes
+            if(isAnonymousRequest){
+                // a new context per request, only the authentication is shared
+                context = withAuthentication(context, new SecurityContextImpl(SecurityRealmAnonymousAuthentication.INSTANCE));
+            }
+
+            return context;
+        }));
+    }
+
+    private static SecurityContext withAuthentication(SecurityContext context, SecurityContext newContext) {
+        return AbstractAuthenticationFilter.isStrongerAuthentication(context.getAuthentication(), newContext.getAuthentication()) ? context : newContext;
+    }
+
+    private static final class State {
+
+        private final SecurityRealmSnapshot snapshot;
+        private final Map<String, SecurityRealmAuthenticationFilter> realmFilters = new HashMap<>();
+        private final AnonymousAccessAuthenticationFilter anonymousAccessAuthenticationFilter;
+
+        private State(SecurityRealmSnapshot snapshot, SecurityRealmAuthenticationStepDispatcher stepDispatcher) {
+            this.snapshot = snapshot;
+            snapshot
+                .getDescriptors()
+                .forEach(realm -> realmFilters.put(realm.getName(), new SecurityRealmAuthenticationFilter(realm, stepDispatcher)));
+            this.anonymousAccessAuthenticationFilter = new AnonymousAccessAuthenticationFilter(snapshot.getRouteTable());
+        }
+    }
+
+    private static final class ObservedFilterChain implements FilterChain {
+
+        private final Observation observation;
+        private final Observation.Scope scope;
+        private final FilterChain filterChain;
+        private boolean stopped;
+
+        private ObservedFilterChain(Observation observation, FilterChain filterChain) {
+            this.observation = observation;
+            this.scope = observation.openScope();
+            this.filterChain = filterChain;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            stop();
+            filterChain.doFilter(request, response);
+        }
+
+        private void stop() {
+            if(!stopped){
+                stopped = true;
+                scope.close();
+                observation.stop();
+            }
+        }
+    }
 }
@@ -1,34 +1,50 @@
 package net.coder966.spring.multisecurityrealms.filter;
 
-import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import java.util.Collection;
 import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
 import net.coder966.spring.multisecurityrealms.context.SecurityRealmContext;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenClaims;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
 import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationAlreadyAuthenticatedException;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmTokenFailure;
+import net.coder966.spring.multisecurityrealms.mvc.SecurityRealmAuthenticationStepDispatcher;
 import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
 import org.springframework.context.ApplicationContext;
-import org.springframework.web.servlet.HandlerExceptionResolver;
 
 public class SecurityRealmAuthenticationFilter extends AbstractAuthenticationFilter {
     public final static String AUTHENTICATION_REQUEST_ATTRIBUTE_NAME = SecurityRealmAuthenticationFilter.class.getCanonicalName() + ".AUTHENTICATION_STEP_NAME";
 
     private final SecurityRealmDescriptor descriptor;
-    private final HttpServlet httpServlet;
-    private final Collection<HandlerExceptionResolver> exceptionResolvers;
+    private final SecurityRealmAuthenticationStepDispatcher stepDispatcher;
 
     public SecurityRealmAuthenticationFilter(ApplicationContext context, SecurityRealmDescriptor descriptor) {
+        this(descriptor, new SecurityRealmAuthenticationStepDispatcher(context));
+    }
+
+    public SecurityRealmAuthenticationFilter(SecurityRealmDescriptor descriptor, SecurityRealmAuthenticationStepDispatcher stepDispatcher) {
         this.descriptor = descriptor;
-        this.httpServlet = context.getBean(HttpServlet.class);
-        this.exceptionResolvers = context.getBeansOfType(HandlerExceptionResolver.class).values();
+        this.stepDispatcher = stepDispatcher;
     }
 
     public boolean handle(HttpServletRequest request, HttpServletResponse response){
-        SecurityRealmAuthentication auth = extractAuthenticationFromRequest(request);
+        SecurityRealmTokenCodec codec = descriptor.getSecurityRealmTokenCodec();
+        return handle(request, response, decode(SecurityRealmTokenCodec.read(SecurityRealmTokenExtractor.extract(request), codec.getDecodingFormats())));
+    }
 
-        boolean isAuthenticationRequest = descriptor.getAuthenticationEndpointRequestMatcher().matches(request);
-        boolean isSameRealm = isAuthenticationRequest || (auth != null && auth.getRealm().equals(descriptor.getName()));
+    /**
+     * @param auth the already verified authentication carried by the request token, or null if the request does not carry a token of this realm
+     */
+    public boolean handle(HttpServletRequest request, HttpServletResponse response, SecurityRealmAuthentication auth){
+        return handle(request, response, auth, isAuthenticationRequest(request));
+    }
+
+    /**
+     * @param auth the already verified authentication carried by the request token, or null if the request does not carry a token of this realm
+     * @param isAuthenticationRequest whether the request targets the authentication endpoint of this realm, as already resolved by the caller
+     */
+    public boolean handle(HttpServletRequest request, HttpServletResponse response, SecurityRealmAuthentication auth, boolean isAuthenticationRequest){
+        boolean isSameRealm = isAuthenticationRequest || auth != null;
 
         if(!isSameRealm){
             return false;
@@ -45,17 +61,16 @@ public class SecurityRealmAuthenticationFilter extends AbstractAuthenticationFil
 
         if(isAuthenticationRequest){
 
-            // if already fully authenticated
-            if(auth != null && auth.isAuthenticated()){
-                exceptionResolvers
-                    .forEach(resolver -> resolver.resolveException(request, response, null, new SecurityRealmAuthenticationAlreadyAuthenticatedException()));
-                return true;
-            }
-
             try{
-                // craft the request so that it can be routed to the appropriate step handler and dispatch it
+                // if already fully authenticated
+                if(auth != null && auth.isAuthenticated()){
+                    stepDispatcher.resolveException(request, response, null, new SecurityRealmAuthenticationAlreadyAuthenticatedException());
+                    return true;
+                }
+
+                // invoke the handler of the current step directly
                 request.setAttribute(AUTHENTICATION_REQUEST_ATTRIBUTE_NAME, SecurityRealmContext.getCurrentStep());
-                httpServlet.service(request, response);
+                stepDispatcher.dispatch(request, response, descriptor, SecurityRealmContext.getCurrentStep());
                 return true;
             }catch(Exception e){
                 throw new RuntimeException(e);
@@ -65,52 +80,30 @@ public class SecurityRealmAuthenticationFilter extends AbstractAuthenticationFil
         }
     }
 
-    private SecurityRealmAuthentication extractAuthenticationFromRequest(HttpServletRequest request) {
-        String authorization = extractTokenFromRequest(request);
-
-        if(authorization != null){
-            SecurityRealmAuthentication authentication = descriptor.getSecurityRealmTokenCodec().decode(authorization);
-            if(authentication != null && authentication.getRealm().equals(descriptor.getName())){
-                return authentication;
-            }
-        }
-
-        return null;
+    public boolean isAuthenticationRequest(HttpServletRequest request) {
+        return descriptor.getAuthenticationEndpointRequestMatcher().matches(request);
     }
 
-    private String extractTokenFromRequest(HttpServletRequest request) {
-        String authorization;
+    public SecurityRealmDescriptor getDescriptor() {
+        return descriptor;
+    }
 
-        if(isWebsocketUpgradeRequest(request)){
-            // if the request is a websocket upgrade, we support passing the token in Authorization param or token param (case-sensitive)
-            authorization = request.getParameter("Authorization");
-            if(authorization == null){
-                authorization = request.getParameter("token");
+    /**
+     * Verifies a token that was read (but not verified) using {@link SecurityRealmTokenCodec#read(String, java.util.List)}.
+     *
+     * @return the authentication, or null if the token is not a valid token of this realm
+     */
+    public SecurityRealmAuthentication decode(SecurityRealmTokenClaims unverifiedClaims) {
+        if(unverifiedClaims != null){
+            SecurityRealmAuthentication authentication = descriptor.getSecurityRealmTokenCodec().decode(unverifiedClaims);
+            if(authentication != null && descriptor.getName().equals(authentication.getRealm())){
+                return authentication;
             }
-        }else{
-            authorization = request.getHeader("Authorization");
-        }
-
-        if(authorization != null){
-            if(authorization.toUpperCase().startsWith("BEARER ")){
-                authorization = authorization.substring(7);
+            if(authentication != null && descriptor.getMetrics() != null){
+                descriptor.getMetrics().recordTokenRejected(SecurityRealmTokenFailure.WRONG_REALM);
             }
-            return authorization.trim();
         }
 
         return null;
     }
-
-    private boolean isWebsocketUpgradeRequest(HttpServletRequest request){
-        String connectionHeader = request.getHeader("Connection");
-        if(connectionHeader == null || !connectionHeader.equalsIgnoreCase("Upgrade")){
-            return false;
-        }
-        String upgradeHeader = request.getHeader("Upgrade");
-        if(upgradeHeader == null || !upgradeHeader.equalsIgnoreCase("websocket")){
-            return false;
-        }
-        return true;
-    }
-
 }
@@ -0,0 +1,54 @@
+package net.coder966.spring.multisecurityrealms.filter;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+public class SecurityRealmTokenExtractor {
+
+    private SecurityRealmTokenExtractor() {
+    }
+
+    /**
+     * @return the raw token found in the request (without the "Bearer " prefix), or null if the request does not carry one
+     */
+    public static String extract(HttpServletRequest request) {
+        String authorization;
+
+        if(isWebsocketUpgradeRequest(request)){
+            // if the request is a websocket upgrade, we support passing the token in Authorization param or token param (case-sensitive)
+            authorization = request.getParameter("Authorization");
+            if(authorization == null){
+                authorization = request.getParameter("token");
+            }
+        }else{
+            authorization = request.getHeader("Authorization");
+        }
+
+        return normalize(authorization);
+    }
+
+    /**
+     * Strips the optional "Bearer " prefix and the surrounding whitespaces.
+     */
+    public static String normalize(String authorization) {
+        if(authorization != null){
+            if(authorization.regionMatches(true, 0, "Bearer ", 0, 7)){
+                authorization = authorization.substring(7);
+            }
+            return authorization.trim();
+        }
+
+        return null;
+    }
+
+    private static boolean isWebsocketUpgradeRequest(HttpServletRequest request){
+        String connectionHeader = request.getHeader("Connection");
+        if(connectionHeader == null || !connectionHeader.equalsIgnoreCase("Upgrade")){
+            return false;
+        }
+        String upgradeHeader = request.getHeader("Upgrade");
+        if(upgradeHeader == null || !upgradeHeader.equalsIgnoreCase("websocket")){
+            return false;
+        }
+        return true;
+    }
+}
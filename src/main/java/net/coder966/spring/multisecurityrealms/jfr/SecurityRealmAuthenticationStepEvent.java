@@ -0,0 +1,31 @@
+package net.coder966.spring.multisecurityrealms.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Dispatching a request to an authentication step. An asynchronous step is dispatched twice on the servlet stack,
+ * once to start it (outcome {@code async_started}) and once to write its result.
+ */
+@Name("net.coder966.spring.multisecurityrealms.AuthenticationStep")
+@Label("Security Realm Authentication Step")
+@Category("Security Realms")
+@Description("Dispatching a request to an authentication step")
+@Enabled(false)
+@StackTrace(false)
+public class SecurityRealmAuthenticationStepEvent extends Event {
+
+    @Label("Realm")
+    public String realm;
+
+    @Label("Step")
+    public String step;
+
+    @Label("Outcome")
+    public String outcome;
+}
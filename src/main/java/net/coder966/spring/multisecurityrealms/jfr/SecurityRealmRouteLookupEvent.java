@@ -0,0 +1,33 @@
+package net.coder966.spring.multisecurityrealms.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Resolving what a request targets: an authentication endpoint, an anonymous route, or none, see {@link net.coder966.spring.multisecurityrealms.reflection.SecurityRealmRouteTable}.
+ */
+@Name("net.coder966.spring.multisecurityrealms.RouteLookup")
+@Label("Security Realm Route Lookup")
+@Category("Security Realms")
+@Description("Resolving whether a request targets an authentication endpoint or an anonymous route")
+@Enabled(false)
+@StackTrace(false)
+public class SecurityRealmRouteLookupEvent extends Event {
+
+    @Label("Method")
+    public String method;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Route")
+    public String route;
+
+    @Label("Realm")
+    public String realm;
+}
@@ -0,0 +1,29 @@
+package net.coder966.spring.multisecurityrealms.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Verifying and decoding a token, including the token cache lookup.
+ * <p>
+ * Disabled by default, like all the realm events, so it costs nothing until enabled in a recording.
+ */
+@Name("net.coder966.spring.multisecurityrealms.TokenDecode")
+@Label("Security Realm Token Decode")
+@Category("Security Realms")
+@Description("Verifying and decoding a token, including the token cache lookup")
+@Enabled(false)
+@StackTrace(false)
+public class SecurityRealmTokenDecodeEvent extends Event {
+
+    @Label("Realm")
+    public String realm;
+
+    @Label("Outcome")
+    public String outcome;
+}
@@ -0,0 +1,30 @@
+package net.coder966.spring.multisecurityrealms.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Issuing (signing) a token.
+ */
+@Name("net.coder966.spring.multisecurityrealms.TokenEncode")
+@Label("Security Realm Token Encode")
+@Category("Security Realms")
+@Description("Issuing (signing) a token")
+@Enabled(false)
+@StackTrace(false)
+public class SecurityRealmTokenEncodeEvent extends Event {
+
+    @Label("Realm")
+    public String realm;
+
+    @Label("Format")
+    public String format;
+
+    @Label("Fully Authenticated")
+    public boolean fullyAuthenticated;
+}
@@ -0,0 +1,30 @@
+package net.coder966.spring.multisecurityrealms.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Verifying the signature of a token, a part of {@link SecurityRealmTokenDecodeEvent} that is skipped for cached tokens.
+ */
+@Name("net.coder966.spring.multisecurityrealms.TokenVerify")
+@Label("Security Realm Token Verify")
+@Category("Security Realms")
+@Description("Verifying the signature of a token")
+@Enabled(false)
+@StackTrace(false)
+public class SecurityRealmTokenVerifyEvent extends Event {
+
+    @Label("Realm")
+    public String realm;
+
+    @Label("Format")
+    public String format;
+
+    @Label("Valid")
+    public boolean valid;
+}
@@ -0,0 +1,158 @@
+package net.coder966.spring.multisecurityrealms.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import net.coder966.spring.multisecurityrealms.configuration.SecurityRealmConfigurationProperties;
+
+/**
+ * Records the realms metrics to a Micrometer {@link MeterRegistry}:
+ * <ul>
+ *     <li>{@value #TOKEN_VERIFICATION}: timer of the token verifications, tagged by realm</li>
+ *     <li>{@value #TOKEN_REJECTIONS}: counter of the rejected tokens, tagged by realm and cause (see {@link SecurityRealmTokenFailure})</li>
+ *     <li>{@value #AUTHENTICATION_STEP}: timer of the authentication steps, tagged by realm, step and outcome (see {@link SecurityRealmAuthenticationStepOutcome})</li>
+ *     <li>{@value #TOKENS_ISSUED}: counter of the issued tokens, tagged by realm and type (partial or full)</li>
+ *     <li>{@value #ANONYMOUS_REQUESTS}: counter of the requests to anonymous routes, tagged by access (anonymous or anonymous_only)</li>
+ * </ul>
+ * The meters are registered upfront (or on the first invocation of a step), so recording never looks up a meter in the registry.
+ * The timers percentiles are configured by the {@code security-realm.metrics.*} properties, and by the Spring Boot {@code management.metrics.distribution.*} properties.
+ */
+public class MicrometerSecurityRealmMetricsRecorder implements SecurityRealmMetricsRecorder {
+
+    public static final String TOKEN_VERIFICATION = "security.realm.token.verification";
+    public static final String TOKEN_REJECTIONS = "security.realm.token.rejections";
+    public static final String AUTHENTICATION_STEP = "security.realm.authentication.step";
+    public static final String TOKENS_ISSUED = "security.realm.tokens.issued";
+    public static final String ANONYMOUS_REQUESTS = "security.realm.anonymous.requests";
+
+    // the realm tag of the tokens that could not be attributed to any realm
+    private static final String UNKNOWN_REALM = "unknown";
+
+    private final MeterRegistry registry;
+    private final SecurityRealmConfigurationProperties.Metrics properties;
+
+    private final Counter anonymousRequests;
+    private final Counter anonymousOnlyRequests;
+    private final Map<SecurityRealmTokenFailure, Counter> unknownRealmRejections;
+
+    public MicrometerSecurityRealmMetricsRecorder(MeterRegistry registry, SecurityRealmConfigurationProperties.Metrics properties) {
+        this.registry = registry;
+        this.properties = properties;
+
+        this.anonymousRequests = anonymousRequestsCounter("anonymous");
+        this.anonymousOnlyRequests = anonymousRequestsCounter("anonymous_only");
+        this.unknownRealmRejections = rejectionCounters(UNKNOWN_REALM);
+    }
+
+    @Override
+    public SecurityRealmMetrics forRealm(String realm) {
+        return new RealmMetrics(realm);
+    }
+
+    @Override
+    public void recordAnonymousRequest(boolean anonymousOnly) {
+        (anonymousOnly ? anonymousOnlyRequests : anonymousRequests).increment();
+    }
+
+    @Override
+    public void recordTokenRejected(SecurityRealmTokenFailure failure) {
+        unknownRealmRejections.get(failure).increment();
+    }
+
+    private Counter anonymousRequestsCounter(String access) {
+        return Counter
+            .builder(ANONYMOUS_REQUESTS)
+            .description("Requests to anonymous routes")
+            .tag("access", access)
+            .register(registry);
+    }
+
+    private Map<SecurityRealmTokenFailure, Counter> rejectionCounters(String realm) {
+        Map<SecurityRealmTokenFailure, Counter> counters = new EnumMap<>(SecurityRealmTokenFailure.class);
+        for(SecurityRealmTokenFailure failure : SecurityRealmTokenFailure.values()){
+            counters.put(failure, Counter
+                .builder(TOKEN_REJECTIONS)
+                .description("Tokens rejected, by cause")
+                .tags("realm", realm, "cause", failure.name().toLowerCase())
+                .register(registry));
+        }
+        return counters;
+    }
+
+    private Timer timer(String name, String description, Tags tags) {
+        return Timer
+            .builder(name)
+            .description(description)
+            .tags(tags)
+            .publishPercentileHistogram(properties.isPercentileHistogram())
+            .publishPercentiles(properties.getPercentiles())
+            .register(registry);
+    }
+
+    private final class RealmMetrics implements SecurityRealmMetrics {
+
+        private final String realm;
+        private final Timer tokenVerification;
+        private final Map<SecurityRealmTokenFailure, Counter> tokenRejections;
+        private final Counter partialTokensIssued;
+        private final Counter fullTokensIssued;
+
+        // by step name, then by outcome ordinal, the steps of a realm are known at startup, so this is bounded
+        private final Map<String, Timer[]> authenticationSteps = new ConcurrentHashMap<>();
+
+        private RealmMetrics(String realm) {
+            this.realm = realm;
+            this.tokenVerification = timer(TOKEN_VERIFICATION, "Time taken to verify and decode a token", Tags.of("realm", realm));
+            this.tokenRejections = rejectionCounters(realm);
+            this.partialTokensIssued = tokensIssuedCounter("partial");
+            this.fullTokensIssued = tokensIssuedCounter("full");
+        }
+
+        private Counter tokensIssuedCounter(String type) {
+            return Counter
+                .builder(TOKENS_ISSUED)
+                .description("Tokens issued by the authentication steps")
+                .tags("realm", realm, "type", type)
+                .register(registry);
+        }
+
+        @Override
+        public void recordTokenVerification(long durationNanos, SecurityRealmTokenFailure failure) {
+            tokenVerification.record(durationNanos, TimeUnit.NANOSECONDS);
+            if(failure != null){
+                tokenRejections.get(failure).increment();
+            }
+        }
+
+        @Override
+        public void recordTokenRejected(SecurityRealmTokenFailure failure) {
+            tokenRejections.get(failure).increment();
+        }
+
+        @Override
+        public void recordAuthenticationStep(String step, long durationNanos, SecurityRealmAuthenticationStepOutcome outcome) {
+            authenticationSteps.computeIfAbsent(step, this::stepTimers)[outcome.ordinal()].record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private Timer[] stepTimers(String step) {
+            SecurityRealmAuthenticationStepOutcome[] outcomes = SecurityRealmAuthenticationStepOutcome.values();
+            Timer[] timers = new Timer[outcomes.length];
+            for(SecurityRealmAuthenticationStepOutcome outcome : outcomes){
+                timers[outcome.ordinal()] = timer(
+                    AUTHENTICATION_STEP, "Time taken by the authentication steps", Tags.of("realm", realm, "step", step, "outcome", outcome.name().toLowerCase())
+                );
+            }
+            return timers;
+        }
+
+        @Override
+        public void recordTokenIssued(boolean fullyAuthenticated) {
+            (fullyAuthenticated ? fullTokensIssued : partialTokensIssued).increment();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package net.coder966.spring.multisecurityrealms.metrics;
+
+import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationException;
+
+/**
+ * How an {@link net.coder966.spring.multisecurityrealms.annotation.AuthenticationStep} invocation ended.
+ */
+public enum SecurityRealmAuthenticationStepOutcome {
+
+    /**
+     * The step returned an authentication.
+     */
+    SUCCESS,
+
+    /**
+     * The step rejected the user, by throwing a {@link SecurityRealmAuthenticationException}.
+     */
+    FAILURE,
+
+    /**
+     * The step threw any other exception.
+     */
+    ERROR;
+
+    public static SecurityRealmAuthenticationStepOutcome of(Throwable e) {
+        return e == null ? SUCCESS : e instanceof SecurityRealmAuthenticationException ? FAILURE : ERROR;
+    }
+}
@@ -0,0 +1,31 @@
+package net.coder966.spring.multisecurityrealms.metrics;
+
+/**
+ * Records the metrics of a single realm, as obtained from {@link SecurityRealmMetricsRecorder#forRealm(String)}.
+ * <p>
+ * Implementations are called on the request hot path, so they should only update already registered meters.
+ */
+public interface SecurityRealmMetrics {
+
+    /**
+     * @param durationNanos the time taken to verify and decode the token
+     * @param failure why the token was rejected, or null if it was accepted
+     */
+    void recordTokenVerification(long durationNanos, SecurityRealmTokenFailure failure);
+
+    /**
+     * Records a token that was rejected after its verification, e.g. a token of this realm used where another realm is expected.
+     */
+    void recordTokenRejected(SecurityRealmTokenFailure failure);
+
+    /**
+     * @param step the name of the step
+     * @param durationNanos the time taken to run the step, until its result was written
+     */
+    void recordAuthenticationStep(String step, long durationNanos, SecurityRealmAuthenticationStepOutcome outcome);
+
+    /**
+     * @param fullyAuthenticated whether the issued token is a fully authenticated token, or an intermediary token for the next step
+     */
+    void recordTokenIssued(boolean fullyAuthenticated);
+}
@@ -0,0 +1,24 @@
+package net.coder966.spring.multisecurityrealms.metrics;
+
+/**
+ * Records the realms metrics. When there is no recorder, e.g. no {@code MeterRegistry} in the application, nothing is measured at all.
+ *
+ * @see MicrometerSecurityRealmMetricsRecorder
+ */
+public interface SecurityRealmMetricsRecorder {
+
+    /**
+     * Called once per realm, at startup.
+     */
+    SecurityRealmMetrics forRealm(String realm);
+
+    /**
+     * @param anonymousOnly whether the request targets an {@link net.coder966.spring.multisecurityrealms.annotation.AnonymousAccess#anonymousOnly()} route
+     */
+    void recordAnonymousRequest(boolean anonymousOnly);
+
+    /**
+     * Records a token that could not be attributed to any realm, e.g. an unreadable token, or a token of an unknown realm.
+     */
+    void recordTokenRejected(SecurityRealmTokenFailure failure);
+}
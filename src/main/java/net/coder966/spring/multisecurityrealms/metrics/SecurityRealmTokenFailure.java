@@ -0,0 +1,27 @@
+package net.coder966.spring.multisecurityrealms.metrics;
+
+/**
+ * Why a token carried by a request was rejected.
+ */
+public enum SecurityRealmTokenFailure {
+
+    /**
+     * The token could not be read, or its claims are invalid.
+     */
+    MALFORMED,
+
+    /**
+     * The token signature does not match, e.g. a tampered token, or a token signed with another secret.
+     */
+    BAD_SIGNATURE,
+
+    /**
+     * The token is genuine, but expired.
+     */
+    EXPIRED,
+
+    /**
+     * The token claims a realm that does not exist, or is used where another realm is expected, e.g. on the authentication endpoint of another realm.
+     */
+    WRONG_REALM
+}
@@ -3,6 +3,11 @@ package net.coder966.spring.multisecurityrealms.mvc;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.web.servlet.mvc.condition.RequestCondition;
 
+/**
+ * @deprecated no longer used, the authentication steps are not registered in the {@code RequestMappingHandlerMapping} anymore,
+ * they are dispatched by {@link SecurityRealmAuthenticationStepDispatcher}. Kept for applications that use it in their own mappings.
+ */
+@Deprecated(forRemoval = true)
 public class AttributeValueRequestCondition implements RequestCondition<AttributeValueRequestCondition> {
 
     private final String attributeName;
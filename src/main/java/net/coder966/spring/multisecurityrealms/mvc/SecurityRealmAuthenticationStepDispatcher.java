@@ -0,0 +1,445 @@
+package net.coder966.spring.multisecurityrealms.mvc;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import net.coder966.spring.multisecurityrealms.jfr.SecurityRealmAuthenticationStepEvent;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmAuthenticationStepOutcome;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmMetrics;
+import net.coder966.spring.multisecurityrealms.observation.SecurityRealmObservationDocumentation;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import org.springframework.beans.factory.config.EmbeddedValueResolver;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.http.HttpMethod;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringValueResolver;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.CorsConfigurationSource;
+import org.springframework.web.cors.CorsProcessor;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.handler.MappedInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.util.ServletRequestPathUtils;
+
+/**
+ * Dispatches authentication requests straight to the handler of their step, as resolved at startup by the scanner,
+ * instead of re-entering the {@code DispatcherServlet} and going through all the handler mappings.
+ * <p>
+ * The handler is still invoked by the application {@link RequestMappingHandlerAdapter}, so argument resolution, validation,
+ * {@code ResponseBodyAdvice} (e.g. {@link SecurityRealmControllerAdvice}) and {@code @ExceptionHandler} methods apply as for any controller method.
+ * This includes asynchronous steps, their result is processed when the request is dispatched again, once the result is available.
+ * <p>
+ * The handler runs behind the interceptors of the application {@link RequestMappingHandlerMapping}, as if it was mapped by it,
+ * including the CORS processing of its global configuration ({@code addCorsMappings}) and of {@code @CrossOrigin} on the realm.
+ */
+public class SecurityRealmAuthenticationStepDispatcher {
+
+    // the execution of an asynchronous step, so it is timed and observed until its result is processed in the async dispatch
+    private static final String STEP_EXECUTION_ATTRIBUTE_NAME = SecurityRealmAuthenticationStepDispatcher.class.getName() + ".STEP_EXECUTION";
+
+    private final RequestMappingHandlerMapping handlerMapping;
+    private final RequestMappingHandlerAdapter handlerAdapter;
+    private final List<HandlerExceptionResolver> exceptionResolvers;
+    private final ObservationRegistry observationRegistry;
+
+    // resolves the placeholders of @CrossOrigin, null if the context can't resolve them
+    private final StringValueResolver embeddedValueResolver;
+    private final Map<HandlerMethod, Optional<CorsConfiguration>> crossOriginConfigurations = new ConcurrentHashMap<>();
+
+    public SecurityRealmAuthenticationStepDispatcher(ApplicationContext context) {
+        // we prefer the application "regular" handler mapping and adapter, see WebMvcConfigurationSupport from spring-webmvc.
+        this.handlerMapping = context.getBeansOfType(RequestMappingHandlerMapping.class).values().stream().findFirst().get();
+        this.handlerAdapter = context.getBeansOfType(RequestMappingHandlerAdapter.class).values().stream().findFirst().get();
+
+        List<HandlerExceptionResolver> exceptionResolvers = new ArrayList<>(context.getBeansOfType(HandlerExceptionResolver.class).values());
+        AnnotationAwareOrderComparator.sort(exceptionResolvers);
+        this.exceptionResolvers = exceptionResolvers;
+
+        this.observationRegistry = context.getBeanProvider(ObservationRegistry.class).getIfAvailable(() -> ObservationRegistry.NOOP);
+
+        this.embeddedValueResolver = context instanceof ConfigurableApplicationContext configurableContext
+            ? new EmbeddedValueResolver(configurableContext.getBeanFactory())
+            : null;
+    }
+
+    public void dispatch(HttpServletRequest request, HttpServletResponse response, SecurityRealmDescriptor descriptor, String stepName) throws Exception {
+        HandlerMethod handler = descriptor.getAuthenticationStepHandler(stepName);
+        if(handler == null){
+            // same as when no handler mapping matched
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        request.setAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE, handler);
+        if(hasPathVariables(handler)){
+            request.setAttribute(
+                HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE,
+                descriptor.getAuthenticationEndpointRequestMatcher().matcher(request).getVariables()
+            );
+        }
+
+        if(Callable.class.isAssignableFrom(handler.getReturnType().getParameterType())){
+            WebAsyncUtils
+                .getAsyncManager(request)
+                .registerCallableInterceptor(SecurityRealmContextCallableProcessingInterceptor.class.getName(), new SecurityRealmContextCallableProcessingInterceptor());
+        }
+
+        // the interceptors may stop the request before the step, e.g. a rejected CORS request, it is then not a step execution
+        InterceptorChain chain = new InterceptorChain(handler, getInterceptors(request, handler));
+        try{
+            if(!chain.applyPreHandle(request, response)){
+                return;
+            }
+        }catch(Exception e){
+            resolveException(request, response, chain, e);
+            return;
+        }
+
+        // a no-op, unless the event is enabled in a flight recording
+        SecurityRealmAuthenticationStepEvent event = new SecurityRealmAuthenticationStepEvent();
+        event.begin();
+
+        SecurityRealmMetrics metrics = descriptor.getMetrics();
+        StepExecution execution = metrics == null && observationRegistry.isNoop() ? null : getOrStartExecution(request, descriptor, stepName);
+
+        Exception failure = null;
+        Observation.Scope scope = execution == null ? null : execution.observation.openScope();
+        try{
+            ModelAndView modelAndView = handlerAdapter.handle(request, response, handler);
+            if(!request.isAsyncStarted()){
+                chain.applyPostHandle(request, response, modelAndView);
+            }
+        }catch(Exception e){
+            failure = e;
+            if(execution != null){
+                execution.observation.error(e);
+            }
+        }finally{
+            if(scope != null){
+                scope.close();
+            }
+
+            boolean asyncStarted = request.isAsyncStarted();
+            SecurityRealmAuthenticationStepOutcome outcome = SecurityRealmAuthenticationStepOutcome.of(failure);
+            if(execution != null){
+                if(asyncStarted){
+                    request.setAttribute(STEP_EXECUTION_ATTRIBUTE_NAME, execution);
+                }else{
+                    execution.observation.stop();
+                    if(metrics != null){
+                        metrics.recordAuthenticationStep(stepName, System.nanoTime() - execution.start, outcome);
+                    }
+                }
+            }
+
+            event.end();
+            if(event.shouldCommit()){
+                event.realm = descriptor.getName();
+                event.step = stepName;
+                event.outcome = asyncStarted ? "async_started" : outcome.name().toLowerCase();
+                event.commit();
+            }
+        }
+
+        if(failure != null){
+            resolveException(request, response, chain, failure);
+        }else if(request.isAsyncStarted()){
+            chain.applyAfterConcurrentHandlingStarted(request, response);
+        }else{
+            chain.triggerAfterCompletion(request, response, null);
+        }
+    }
+
+    /**
+     * Same as the handler execution chain of the handler mapping, see {@code AbstractHandlerMapping.getHandler(...)} from spring-webmvc.
+     */
+    private List<HandlerInterceptor> getInterceptors(HttpServletRequest request, HandlerMethod handler) {
+        // the mapped interceptors match the parsed path, which the DispatcherServlet would have cached
+        if(!ServletRequestPathUtils.hasCachedPath(request)){
+            ServletRequestPathUtils.parseAndCache(request);
+        }
+
+        List<HandlerInterceptor> interceptors = new ArrayList<>();
+
+        CorsConfiguration corsConfiguration = getCorsConfiguration(request, handler);
+        if(corsConfiguration != null){
+            interceptors.add(new CorsInterceptor(corsConfiguration, handlerMapping.getCorsProcessor()));
+        }
+
+        for(HandlerInterceptor interceptor : handlerMapping.getAdaptedInterceptors()){
+            if(interceptor instanceof MappedInterceptor mappedInterceptor){
+                if(mappedInterceptor.matches(request)){
+                    interceptors.add(mappedInterceptor.getInterceptor());
+                }
+            }else{
+                interceptors.add(interceptor);
+            }
+        }
+        return interceptors;
+    }
+
+    /**
+     * @return the global CORS configuration combined with the {@code @CrossOrigin} one of the handler, or null if there is none
+     */
+    private CorsConfiguration getCorsConfiguration(HttpServletRequest request, HandlerMethod handler) {
+        CorsConfiguration config = crossOriginConfigurations
+            .computeIfAbsent(handler, key -> Optional.ofNullable(initCorsConfiguration(key)))
+            .orElse(null);
+
+        CorsConfigurationSource globalSource = handlerMapping.getCorsConfigurationSource();
+        if(globalSource != null){
+            CorsConfiguration globalConfig = globalSource.getCorsConfiguration(request);
+            config = globalConfig != null ? globalConfig.combine(config) : config;
+        }
+
+        if(config != null){
+            config.validateAllowCredentials();
+            config.validateAllowPrivateNetwork();
+        }
+        return config;
+    }
+
+    /**
+     * Reads {@code @CrossOrigin} on the realm and the step, the same way {@link RequestMappingHandlerMapping} does for its own handlers,
+     * the authentication endpoints being POST only.
+     *
+     * @return the configuration, or null if there is no {@code @CrossOrigin}
+     */
+    private CorsConfiguration initCorsConfiguration(HandlerMethod handler) {
+        CrossOrigin typeAnnotation = AnnotatedElementUtils.findMergedAnnotation(handler.getBeanType(), CrossOrigin.class);
+        CrossOrigin methodAnnotation = AnnotatedElementUtils.findMergedAnnotation(handler.getMethod(), CrossOrigin.class);
+        if(typeAnnotation == null && methodAnnotation == null){
+            return null;
+        }
+
+        CorsConfiguration config = new CorsConfiguration();
+        updateCorsConfiguration(config, typeAnnotation);
+        updateCorsConfiguration(config, methodAnnotation);
+
+        if(CollectionUtils.isEmpty(config.getAllowedMethods())){
+            config.addAllowedMethod(HttpMethod.POST);
+        }
+        return config.applyPermitDefaultValues();
+    }
+
+    private void updateCorsConfiguration(CorsConfiguration config, CrossOrigin annotation) {
+        if(annotation == null){
+            return;
+        }
+
+        for(String origin : annotation.origins()){
+            config.addAllowedOrigin(resolveCorsAnnotationValue(origin));
+        }
+        for(String pattern : annotation.originPatterns()){
+            config.addAllowedOriginPattern(resolveCorsAnnotationValue(pattern));
+        }
+        for(RequestMethod method : annotation.methods()){
+            config.addAllowedMethod(method.name());
+        }
+        for(String header : annotation.allowedHeaders()){
+            config.addAllowedHeader(resolveCorsAnnotationValue(header));
+        }
+        for(String header : annotation.exposedHeaders()){
+            config.addExposedHeader(resolveCorsAnnotationValue(header));
+        }
+
+        Boolean allowCredentials = resolveCorsAnnotationFlag("allowCredentials", annotation.allowCredentials());
+        if(allowCredentials != null){
+            config.setAllowCredentials(allowCredentials);
+        }
+        Boolean allowPrivateNetwork = resolveCorsAnnotationFlag("allowPrivateNetwork", annotation.allowPrivateNetwork());
+        if(allowPrivateNetwork != null){
+            config.setAllowPrivateNetwork(allowPrivateNetwork);
+        }
+
+        if(annotation.maxAge() >= 0){
+            config.setMaxAge(annotation.maxAge());
+        }
+    }
+
+    /**
+     * @return the flag, or null if it is not set
+     */
+    private Boolean resolveCorsAnnotationFlag(String attribute, String value) {
+        String resolved = resolveCorsAnnotationValue(value);
+        if("true".equalsIgnoreCase(resolved)){
+            return true;
+        }else if("false".equalsIgnoreCase(resolved)){
+            return false;
+        }else if(!resolved.isEmpty()){
+            throw new IllegalStateException(
+                "@CrossOrigin's " + attribute + " value must be \"true\", \"false\", or an empty string (\"\"): current value is [" + resolved + "]"
+            );
+        }
+        return null;
+    }
+
+    private String resolveCorsAnnotationValue(String value) {
+        if(embeddedValueResolver == null){
+            return value;
+        }
+        String resolved = embeddedValueResolver.resolveStringValue(value);
+        return resolved != null ? resolved : "";
+    }
+
+    private void resolveException(HttpServletRequest request, HttpServletResponse response, InterceptorChain chain, Exception e) throws Exception {
+        try{
+            resolveException(request, response, chain.handler, e);
+        }catch(Exception unresolved){
+            chain.triggerAfterCompletion(request, response, unresolved);
+            throw unresolved;
+        }
+        chain.triggerAfterCompletion(request, response, null);
+    }
+
+    /**
+     * @return the execution started by the first dispatch of an asynchronous step, or a newly started one
+     */
+    private StepExecution getOrStartExecution(HttpServletRequest request, SecurityRealmDescriptor descriptor, String stepName) {
+        StepExecution execution = (StepExecution) request.getAttribute(STEP_EXECUTION_ATTRIBUTE_NAME);
+        if(execution != null){
+            return execution;
+        }
+
+        Observation observation = SecurityRealmObservationDocumentation.STEP
+            .forRealm(observationRegistry, descriptor.getName())
+            .lowCardinalityKeyValue(SecurityRealmObservationDocumentation.LowCardinalityKeyNames.STEP.asString(), stepName)
+            .start();
+        return new StepExecution(System.nanoTime(), observation);
+    }
+
+    /**
+     * Resolves the exception using the application {@link HandlerExceptionResolver}s, e.g. {@code @ExceptionHandler} methods.
+     *
+     * @throws Exception the given exception, if no resolver handled it
+     */
+    public void resolveException(HttpServletRequest request, HttpServletResponse response, Object handler, Exception e) throws Exception {
+        for(HandlerExceptionResolver resolver : exceptionResolvers){
+            if(resolver.resolveException(request, response, handler, e) != null){
+                return;
+            }
+        }
+        throw e;
+    }
+
+    private static boolean hasPathVariables(HandlerMethod handler) {
+        for(MethodParameter parameter : handler.getMethodParameters()){
+            if(parameter.hasParameterAnnotation(PathVariable.class)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@code HandlerExecutionChain} from spring-webmvc, whose methods applying the interceptors are not public.
+     */
+    private static final class InterceptorChain {
+
+        private final HandlerMethod handler;
+        private final List<HandlerInterceptor> interceptors;
+
+        // the index of the last interceptor whose preHandle succeeded, only these get their afterCompletion called
+        private int interceptorIndex = -1;
+
+        private InterceptorChain(HandlerMethod handler, List<HandlerInterceptor> interceptors) {
+            this.handler = handler;
+            this.interceptors = interceptors;
+        }
+
+        private boolean applyPreHandle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+            for(int i = 0; i < interceptors.size(); i++){
+                if(!interceptors.get(i).preHandle(request, response, handler)){
+                    triggerAfterCompletion(request, response, null);
+                    return false;
+                }
+                interceptorIndex = i;
+            }
+            return true;
+        }
+
+        private void applyPostHandle(HttpServletRequest request, HttpServletResponse response, ModelAndView modelAndView) throws Exception {
+            for(int i = interceptors.size() - 1; i >= 0; i--){
+                interceptors.get(i).postHandle(request, response, handler, modelAndView);
+            }
+        }
+
+        private void triggerAfterCompletion(HttpServletRequest request, HttpServletResponse response, Exception e) {
+            for(int i = interceptorIndex; i >= 0; i--){
+                try{
+                    interceptors.get(i).afterCompletion(request, response, handler, e);
+                }catch(Exception ignored){
+                    // same as the DispatcherServlet, a failing afterCompletion does not fail the request, nor skips the other interceptors
+                }
+            }
+            interceptorIndex = -1;
+        }
+
+        private void applyAfterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response) {
+            for(int i = interceptors.size() - 1; i >= 0; i--){
+                if(interceptors.get(i) instanceof AsyncHandlerInterceptor asyncInterceptor){
+                    try{
+                        asyncInterceptor.afterConcurrentHandlingStarted(request, response, handler);
+                    }catch(Exception ignored){
+                        // same as the DispatcherServlet
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as the CORS interceptor of the handler mapping, the first interceptor of the chain.
+     */
+    private static final class CorsInterceptor implements HandlerInterceptor {
+
+        private final CorsConfiguration config;
+        private final CorsProcessor processor;
+
+        private CorsInterceptor(CorsConfiguration config, CorsProcessor processor) {
+            this.config = config;
+            this.processor = processor;
+        }
+
+        @Override
+        public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+            // the request was already processed by the first dispatch of an asynchronous step
+            if(WebAsyncUtils.getAsyncManager(request).hasConcurrentResult()){
+                return true;
+            }
+            return processor.processRequest(config, request, response);
+        }
+    }
+
+    private static final class StepExecution {
+
+        private final long start;
+        private final Observation observation;
+
+        private StepExecution(long start, Observation observation) {
+            this.start = start;
+            this.observation = observation;
+        }
+    }
+}
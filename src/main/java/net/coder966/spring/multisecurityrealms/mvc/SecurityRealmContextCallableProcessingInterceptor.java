@@ -0,0 +1,34 @@
+package net.coder966.spring.multisecurityrealms.mvc;
+
+import java.util.concurrent.Callable;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContext;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContextState;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+/**
+ * Carries the {@link SecurityRealmContext} of the request into the thread executing a {@link Callable} authentication step,
+ * the same way Spring Security carries the {@code SecurityContext}.
+ */
+public class SecurityRealmContextCallableProcessingInterceptor implements CallableProcessingInterceptor {
+
+    private volatile SecurityRealmContextState state;
+
+    @Override
+    public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+        SecurityRealmContextState state = SecurityRealmContext.getState();
+        this.state = state == null ? null : state.copy();
+    }
+
+    @Override
+    public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+        if(state != null){
+            SecurityRealmContext.setState(state);
+        }
+    }
+
+    @Override
+    public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+        SecurityRealmContext.clear();
+    }
+}
@@ -1,12 +1,11 @@
 package net.coder966.spring.multisecurityrealms.mvc;
 
 import jakarta.annotation.Nonnull;
-import java.time.Duration;
-import java.util.stream.Collectors;
 import net.coder966.spring.multisecurityrealms.annotation.AuthenticationStep;
 import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
 import net.coder966.spring.multisecurityrealms.context.SecurityRealmContext;
 import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationErrorResponse;
+import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationResponses;
 import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationSuccessResponse;
 import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationAlreadyAuthenticatedException;
 import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationException;
@@ -18,7 +17,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServerHttpResponse;
-import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -57,34 +55,10 @@ public class SecurityRealmControllerAdvice implements ResponseBodyAdvice<Object>
     }
 
     private SecurityRealmAuthenticationSuccessResponse mapSuccess(@Nonnull SecurityRealmAuthentication auth) {
-        var realmDescriptor = SecurityRealmContext.getDescriptor();
-        var response = new SecurityRealmAuthenticationSuccessResponse();
-
-        // determine TTL
-        Duration ttl = auth.getNextAuthenticationStep() == null ? realmDescriptor.getFullyAuthenticatedTokenTtl() : auth.getTokenTtl();
-
-        response.realm = realmDescriptor.getName();
-
-        response.name = auth.getName();
-        response.authorities = auth.getAuthorities().stream().map(GrantedAuthority::getAuthority).collect(Collectors.toSet());
-
-        response.token = realmDescriptor.getSecurityRealmTokenCodec().encode(auth, ttl);
-        response.tokenType = "Bearer";
-        response.expiresInSeconds = ttl.toSeconds();
-
-        response.nextAuthenticationStep = auth.getNextAuthenticationStep();
-
-        response.extras = auth.getExtras();
-
-        return response;
+        return SecurityRealmAuthenticationResponses.success(SecurityRealmContext.getDescriptor(), auth);
     }
 
     private SecurityRealmAuthenticationErrorResponse mapError(@Nonnull SecurityRealmAuthenticationException e) {
-        var response = new SecurityRealmAuthenticationErrorResponse();
-
-        response.error = e.getMessage();
-        response.errorDescription = e.getErrorDescription();
-
-        return response;
+        return SecurityRealmAuthenticationResponses.error(e);
     }
 }
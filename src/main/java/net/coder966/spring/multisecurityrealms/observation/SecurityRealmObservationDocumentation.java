@@ -0,0 +1,134 @@
+package net.coder966.spring.multisecurityrealms.observation;
+
+import io.micrometer.common.docs.KeyName;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.docs.ObservationDocumentation;
+
+/**
+ * The observations of the realms hot paths, so a slow login can be broken down in traces, and timed by the observation handlers.
+ * <p>
+ * All the observations only carry low cardinality keys, the realm and step names are known at startup.
+ * Nothing is observed when the {@link ObservationRegistry} is a noop one.
+ */
+public enum SecurityRealmObservationDocumentation implements ObservationDocumentation {
+
+    /**
+     * The work of the realms filter, until the request proceeds down the filter chain (or is answered by an authentication step).
+     */
+    FILTER {
+        @Override
+        public String getName() {
+            return "security.realm.filter";
+        }
+
+        @Override
+        public String getContextualName() {
+            return "security realm filter";
+        }
+
+        @Override
+        public KeyName[] getLowCardinalityKeyNames() {
+            return new KeyName[]{LowCardinalityKeyNames.REALM, LowCardinalityKeyNames.ROUTE};
+        }
+    },
+
+    /**
+     * Issuing (signing) a token.
+     */
+    TOKEN_ENCODE {
+        @Override
+        public String getName() {
+            return "security.realm.token.encode";
+        }
+
+        @Override
+        public String getContextualName() {
+            return "security realm token encode";
+        }
+
+        @Override
+        public KeyName[] getLowCardinalityKeyNames() {
+            return new KeyName[]{LowCardinalityKeyNames.REALM};
+        }
+    },
+
+    /**
+     * Verifying and decoding a token.
+     */
+    TOKEN_DECODE {
+        @Override
+        public String getName() {
+            return "security.realm.token.decode";
+        }
+
+        @Override
+        public String getContextualName() {
+            return "security realm token decode";
+        }
+
+        @Override
+        public KeyName[] getLowCardinalityKeyNames() {
+            return new KeyName[]{LowCardinalityKeyNames.REALM};
+        }
+    },
+
+    /**
+     * Running an authentication step, until its result is written.
+     */
+    STEP {
+        @Override
+        public String getName() {
+            return "security.realm.step";
+        }
+
+        @Override
+        public String getContextualName() {
+            return "security realm step";
+        }
+
+        @Override
+        public KeyName[] getLowCardinalityKeyNames() {
+            return new KeyName[]{LowCardinalityKeyNames.REALM, LowCardinalityKeyNames.STEP};
+        }
+    };
+
+    /**
+     * The value of the realm key when the request is not attributed to any realm.
+     */
+    public static final String NO_REALM = "none";
+
+    /**
+     * @return an observation of the given realm, not started yet, or {@link Observation#NOOP} if the registry is a noop one
+     */
+    public Observation forRealm(ObservationRegistry registry, String realm) {
+        return observation(registry).lowCardinalityKeyValue(LowCardinalityKeyNames.REALM.asString(), realm);
+    }
+
+    public enum LowCardinalityKeyNames implements KeyName {
+
+        REALM {
+            @Override
+            public String asString() {
+                return "realm";
+            }
+        },
+
+        STEP {
+            @Override
+            public String asString() {
+                return "step";
+            }
+        },
+
+        /**
+         * What the request targets: authentication_endpoint, anonymous, anonymous_only or none.
+         */
+        ROUTE {
+            @Override
+            public String asString() {
+                return "route";
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package net.coder966.spring.multisecurityrealms.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmIndex;
+
+/**
+ * Writes the {@link SecurityRealmIndex} of the compiled classes, so the scanner does not have to inspect all the beans at startup.
+ * It is not registered automatically, enable it in the compiler configuration, e.g. with Maven:
+ * <pre>
+ * &lt;annotationProcessors&gt;
+ *     &lt;annotationProcessor&gt;net.coder966.spring.multisecurityrealms.processor.SecurityRealmIndexProcessor&lt;/annotationProcessor&gt;
+ * &lt;/annotationProcessors&gt;
+ * </pre>
+ * The index of a previous compilation is merged, so incremental builds, which only process the changed classes, keep the other entries.
+ * <p>
+ * It only depends on the compiler API, the annotation names are compile-time constants.
+ */
+@SupportedAnnotationTypes({SecurityRealmIndex.SECURITY_REALM, SecurityRealmIndex.ANONYMOUS_ACCESS})
+public class SecurityRealmIndexProcessor extends AbstractProcessor {
+
+    // by binary class name, the annotations found in the class
+    private final Map<String, Set<String>> index = new TreeMap<>();
+    private final List<Element> originatingElements = new ArrayList<>();
+    private boolean previousIndexMerged;
+    private boolean previousIndexFound;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if(!previousIndexMerged){
+            previousIndexMerged = true;
+            mergePreviousIndex();
+        }
+
+        for(TypeElement annotation : annotations){
+            String annotationName = annotation.getQualifiedName().toString();
+            for(Element element : roundEnv.getElementsAnnotatedWith(annotation)){
+                Element type = annotationName.equals(SecurityRealmIndex.SECURITY_REALM) ? element : element.getEnclosingElement();
+                if(type.getKind() == ElementKind.CLASS){
+                    add((TypeElement) type, annotationName);
+                    originatingElements.add(type);
+                }
+            }
+        }
+
+        if(roundEnv.processingOver() && (!index.isEmpty() || previousIndexFound)){
+            writeIndex();
+        }
+
+        // other processors may process the same annotations
+        return false;
+    }
+
+    private void add(TypeElement type, String annotation) {
+        String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+        index.computeIfAbsent(className, key -> new TreeSet<>()).add(annotation);
+    }
+
+    /**
+     * Keeps the entries of the previous compilation whose classes still carry the annotations.
+     */
+    private void mergePreviousIndex() {
+        Properties previous = new Properties();
+        try{
+            FileObject resource = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SecurityRealmIndex.LOCATION);
+            try(InputStream inputStream = resource.openInputStream()){
+                previous.load(inputStream);
+            }
+            previousIndexFound = true;
+        }catch(IOException e){
+            // no previous index, e.g. a clean build
+            return;
+        }
+
+        for(String className : previous.stringPropertyNames()){
+            // the canonical name, nested classes are indexed by their binary name
+            TypeElement type = processingEnv.getElementUtils().getTypeElement(className.replace('$', '.'));
+            if(type == null){
+                continue;
+            }
+            for(String annotation : previous.getProperty(className).split(",")){
+                annotation = annotation.trim();
+                if(annotation.equals(SecurityRealmIndex.SECURITY_REALM) ? isAnnotated(type, annotation) : hasAnnotatedMethod(type, annotation)){
+                    add(type, annotation);
+                }
+            }
+        }
+    }
+
+    private static boolean hasAnnotatedMethod(TypeElement type, String annotation) {
+        for(Element enclosed : type.getEnclosedElements()){
+            if(enclosed.getKind() == ElementKind.METHOD && isAnnotated(enclosed, annotation)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAnnotated(Element element, String annotation) {
+        for(AnnotationMirror mirror : element.getAnnotationMirrors()){
+            if(((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeIndex() {
+        try{
+            FileObject resource = processingEnv
+                .getFiler()
+                .createResource(StandardLocation.CLASS_OUTPUT, "", SecurityRealmIndex.LOCATION, originatingElements.toArray(new Element[0]));
+            // written by hand instead of Properties.store, so the index is sorted and has no timestamp, for reproducible builds
+            try(Writer writer = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.ISO_8859_1)){
+                for(Map.Entry<String, Set<String>> entry : index.entrySet()){
+                    writer.write(entry.getKey() + "=" + String.join(",", entry.getValue()) + "\n");
+                }
+            }
+        }catch(IOException e){
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write the security realm index (" + SecurityRealmIndex.LOCATION + "): " + e);
+        }
+    }
+}
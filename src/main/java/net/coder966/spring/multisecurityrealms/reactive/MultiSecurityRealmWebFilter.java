@@ -0,0 +1,161 @@
+package net.coder966.spring.multisecurityrealms.reactive;
+
+import java.util.Optional;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAnonymousAuthentication;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContextState;
+import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationAlreadyAuthenticatedException;
+import net.coder966.spring.multisecurityrealms.filter.SecurityRealmTokenExtractor;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmMetricsRecorder;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmTokenFailure;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmRoute;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmScanner;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmSnapshot;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * The counterpart of {@link net.coder966.spring.multisecurityrealms.filter.MultiSecurityRealmAuthenticationFilter} on the reactive stack.
+ * <p>
+ * The {@code SecurityContext} and the realm context are written to the Reactor context, as {@link Mono}s that only verify the token
+ * once they are consulted, so routes that never consult the authentication (e.g. permitAll routes) skip the verification altogether.
+ * Authentication requests are dispatched directly to the handler of their step, by {@link SecurityRealmReactiveAuthenticationStepDispatcher}.
+ * <p>
+ * Each exchange is handled with the {@link SecurityRealmSnapshot} current when it arrives, even if the configuration is reloaded meanwhile.
+ */
+public class MultiSecurityRealmWebFilter implements WebFilter {
+
+    // the filter is typically both added to the SecurityWebFilterChain and registered as a global WebFilter, it only applies once
+    private static final String ALREADY_FILTERED_ATTRIBUTE_NAME = MultiSecurityRealmWebFilter.class.getName() + ".FILTERED";
+
+    private static final SecurityContext ANONYMOUS_CONTEXT = new SecurityContextImpl(SecurityRealmAnonymousAuthentication.INSTANCE);
+
+    private final SecurityRealmReactiveAuthenticationManager authenticationManager;
+    private final SecurityRealmReactiveAuthenticationStepDispatcher stepDispatcher;
+
+    // null when no metrics are recorded
+    private final SecurityRealmMetricsRecorder metricsRecorder;
+
+    public MultiSecurityRealmWebFilter(ApplicationContext context, SecurityRealmScanner scanner) {
+        scanner.scan();
+
+        this.metricsRecorder = context.getBeanProvider(SecurityRealmMetricsRecorder.class).getIfAvailable();
+        this.authenticationManager = new SecurityRealmReactiveAuthenticationManager(scanner, metricsRecorder);
+        this.stepDispatcher = new SecurityRealmReactiveAuthenticationStepDispatcher(context);
+    }
+
+    public SecurityRealmReactiveAuthenticationManager getAuthenticationManager() {
+        return authenticationManager;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if(exchange.getAttributes().putIfAbsent(ALREADY_FILTERED_ATTRIBUTE_NAME, Boolean.TRUE) != null){
+            return chain.filter(exchange);
+        }
+
+        // read once, the whole exchange is handled with the same realms and routes
+        SecurityRealmSnapshot snapshot = authenticationManager.getSnapshot();
+
+        // the route is resolved once, instead of testing every authentication endpoint and anonymous route
+        ServerHttpRequest request = exchange.getRequest();
+        SecurityRealmRoute route = snapshot.getRouteTable().lookup(request.getMethod().name(), request.getPath().pathWithinApplication());
+        if(metricsRecorder != null && route.isAnonymous()){
+            metricsRecorder.recordAnonymousRequest(route.isAnonymousOnly());
+        }
+
+        // the request is anonymous whatever token it carries, so don't even read it
+        if(route.isAnonymousOnly()){
+            return chain.filter(exchange).contextWrite(ReactiveSecurityContextHolder.withSecurityContext(Mono.just(ANONYMOUS_CONTEXT)));
+        }
+
+        // verified at most once, and only if consulted
+        Mono<SecurityRealmAuthentication> auth = authenticationManager.authenticate(snapshot, extractToken(request)).cache();
+
+        if(route.isAuthenticationEndpoint()){
+            SecurityRealmDescriptor descriptor = snapshot.getDescriptor(route.getAuthenticationRealm());
+            return auth
+                .filter(authentication -> isSameRealm(snapshot, descriptor, authentication))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(authentication -> authenticate(exchange, route, descriptor, authentication.orElse(null)));
+        }
+
+        Mono<SecurityRealmContextState> state = auth
+            .map(authentication -> new SecurityRealmContextState(
+                snapshot.getDescriptor(authentication.getRealm()), authentication.getNextAuthenticationStep()
+            ))
+            .cache();
+
+        Mono<SecurityContext> securityContext = auth.map(SecurityContextImpl::new);
+
+        // same as the servlet filter, a partially authenticated (or not authenticated) user is anonymous on anonymous routes
+        if(route.isAnonymous()){
+            securityContext = securityContext
+                .filter(context -> context.getAuthentication().isAuthenticated())
+                .defaultIfEmpty(ANONYMOUS_CONTEXT);
+        }
+
+        return chain
+            .filter(exchange)
+            .contextWrite(ReactiveSecurityContextHolder.withSecurityContext(securityContext.cache()))
+            .contextWrite(ReactiveSecurityRealmContext.withState(state));
+    }
+
+    /**
+     * @param auth the verified authentication carried by the request token, or null if the request does not carry a token of this realm
+     */
+    private Mono<Void> authenticate(ServerWebExchange exchange, SecurityRealmRoute route, SecurityRealmDescriptor descriptor, SecurityRealmAuthentication auth) {
+        String currentStep = auth == null ? descriptor.getFirstStepName() : auth.getNextAuthenticationStep();
+
+        Mono<Void> result;
+        if(auth != null && auth.isAuthenticated()){
+            // already fully authenticated
+            result = stepDispatcher.resolveException(exchange, new SecurityRealmAuthenticationAlreadyAuthenticatedException());
+        }else{
+            // invoke the handler of the current step directly
+            result = stepDispatcher.dispatch(exchange, descriptor, route.getAuthenticationEndpointPattern(), currentStep);
+        }
+
+        return result
+            .contextWrite(ReactiveSecurityContextHolder.withSecurityContext(auth == null ? Mono.empty() : Mono.just(new SecurityContextImpl(auth))))
+            .contextWrite(ReactiveSecurityRealmContext.withState(Mono.just(new SecurityRealmContextState(descriptor, currentStep))));
+    }
+
+    private boolean isSameRealm(SecurityRealmSnapshot snapshot, SecurityRealmDescriptor descriptor, SecurityRealmAuthentication authentication) {
+        if(descriptor.getName().equals(authentication.getRealm())){
+            return true;
+        }
+
+        // e.g. a token of another realm sent to the authentication endpoint of this realm, it is ignored
+        SecurityRealmDescriptor tokenDescriptor = snapshot.getDescriptor(authentication.getRealm());
+        if(tokenDescriptor != null && tokenDescriptor.getMetrics() != null){
+            tokenDescriptor.getMetrics().recordTokenRejected(SecurityRealmTokenFailure.WRONG_REALM);
+        }
+        return false;
+    }
+
+    private static String extractToken(ServerHttpRequest request) {
+        HttpHeaders headers = request.getHeaders();
+
+        // if the request is a websocket upgrade, we support passing the token in Authorization param or token param (case-sensitive)
+        if("Upgrade".equalsIgnoreCase(headers.getFirst(HttpHeaders.CONNECTION)) && "websocket".equalsIgnoreCase(headers.getUpgrade())){
+            String authorization = request.getQueryParams().getFirst("Authorization");
+            if(authorization == null){
+                authorization = request.getQueryParams().getFirst("token");
+            }
+            return SecurityRealmTokenExtractor.normalize(authorization);
+        }
+
+        return SecurityRealmTokenExtractor.normalize(headers.getFirst(HttpHeaders.AUTHORIZATION));
+    }
+}
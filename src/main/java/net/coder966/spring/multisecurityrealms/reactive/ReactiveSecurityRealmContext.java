@@ -0,0 +1,46 @@
+package net.coder966.spring.multisecurityrealms.reactive;
+
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContext;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContextState;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+/**
+ * The realm and authentication step of the current request on the reactive stack, the counterpart of {@link SecurityRealmContext}.
+ * <p>
+ * They travel in the Reactor {@link Context} instead of a {@link ThreadLocal}, as a {@link Mono} that is only resolved when consulted,
+ * so the request token is not verified unless the realm context or the authentication is needed.
+ */
+public final class ReactiveSecurityRealmContext {
+
+    private static final Class<?> KEY = SecurityRealmContextState.class;
+
+    private ReactiveSecurityRealmContext() {
+    }
+
+    /**
+     * @return the state of the current request, or empty if the request does not belong to any realm
+     */
+    public static Mono<SecurityRealmContextState> getState() {
+        return Mono
+            .deferContextual(Mono::just)
+            .filter(context -> context.hasKey(KEY))
+            .flatMap(context -> context.<Mono<SecurityRealmContextState>>get(KEY));
+    }
+
+    public static Mono<SecurityRealmDescriptor> getDescriptor() {
+        return getState().mapNotNull(SecurityRealmContextState::getDescriptor);
+    }
+
+    public static Mono<String> getCurrentStep() {
+        return getState().mapNotNull(SecurityRealmContextState::getCurrentStep);
+    }
+
+    /**
+     * @return a context holding the given state, to be written using {@link Mono#contextWrite(reactor.util.context.ContextView)}
+     */
+    public static Context withState(Mono<SecurityRealmContextState> state) {
+        return Context.of(KEY, state);
+    }
+}
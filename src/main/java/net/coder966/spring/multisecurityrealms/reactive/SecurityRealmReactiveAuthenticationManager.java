@@ -0,0 +1,128 @@
+package net.coder966.spring.multisecurityrealms.reactive;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenClaims;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmMetricsRecorder;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmTokenFailure;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmRouteTable;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmScanner;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmSnapshot;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.core.Authentication;
+import reactor.core.publisher.Mono;
+
+/**
+ * Verifies the tokens of all the realms, on the reactive stack.
+ * <p>
+ * Same as the servlet filter, the token is parsed once and only verified by the realm it claims to belong to.
+ * Verifying a token is a short CPU bound operation (an HMAC, possibly served from the token cache) that never blocks,
+ * so it runs on the subscribing thread instead of being offloaded to another scheduler.
+ */
+public class SecurityRealmReactiveAuthenticationManager implements ReactiveAuthenticationManager {
+
+    // the current realms, e.g. the current snapshot of a scanner, which is replaced when the configuration is reloaded
+    private final Supplier<SecurityRealmSnapshot> snapshots;
+
+    // null when no metrics are recorded
+    private final SecurityRealmMetricsRecorder metricsRecorder;
+
+    public SecurityRealmReactiveAuthenticationManager(Collection<SecurityRealmDescriptor> descriptors) {
+        this(descriptors, null);
+    }
+
+    /**
+     * @param metricsRecorder optional, records the tokens that can't be attributed to any realm
+     */
+    public SecurityRealmReactiveAuthenticationManager(Collection<SecurityRealmDescriptor> descriptors, SecurityRealmMetricsRecorder metricsRecorder) {
+        SecurityRealmSnapshot snapshot = new SecurityRealmSnapshot(descriptors, List.of(), new SecurityRealmRouteTable());
+        this.snapshots = () -> snapshot;
+        this.metricsRecorder = metricsRecorder;
+    }
+
+    /**
+     * Verifies the tokens with the realms of the current snapshot of the scanner, so it follows the configuration reloads.
+     *
+     * @param metricsRecorder optional, records the tokens that can't be attributed to any realm
+     */
+    public SecurityRealmReactiveAuthenticationManager(SecurityRealmScanner scanner, SecurityRealmMetricsRecorder metricsRecorder) {
+        this.snapshots = scanner::getSnapshot;
+        this.metricsRecorder = metricsRecorder;
+    }
+
+    /**
+     * @return the authentication, or empty if the given authentication is not a {@link SecurityRealmTokenAuthenticationRequest}
+     * or its token is not a valid token of any realm
+     */
+    @Override
+    public Mono<Authentication> authenticate(Authentication authentication) {
+        if(authentication instanceof SecurityRealmTokenAuthenticationRequest request){
+            return authenticate(request.getToken()).cast(Authentication.class);
+        }
+        return Mono.empty();
+    }
+
+    /**
+     * @param token the raw token (without the "Bearer " prefix), or null
+     * @return the authentication, or empty if the token is not a valid token of any realm
+     */
+    public Mono<SecurityRealmAuthentication> authenticate(String token) {
+        return authenticate(snapshots.get(), token);
+    }
+
+    /**
+     * Same as {@link #authenticate(String)}, with the given realms, e.g. those the rest of the request is handled with.
+     */
+    Mono<SecurityRealmAuthentication> authenticate(SecurityRealmSnapshot snapshot, String token) {
+        if(token == null){
+            return Mono.empty();
+        }
+        return Mono.fromSupplier(() -> decode(snapshot, token));
+    }
+
+    /**
+     * @return the descriptor of the given realm, or null if there is no such realm
+     */
+    public SecurityRealmDescriptor getDescriptor(String realm) {
+        return snapshots.get().getDescriptor(realm);
+    }
+
+    /**
+     * @return the realms the tokens are currently verified with
+     */
+    SecurityRealmSnapshot getSnapshot() {
+        return snapshots.get();
+    }
+
+    private SecurityRealmAuthentication decode(SecurityRealmSnapshot snapshot, String token) {
+        SecurityRealmTokenClaims unverifiedClaims = SecurityRealmTokenCodec.read(token, snapshot.getTokenFormats());
+        if(unverifiedClaims == null){
+            if(metricsRecorder != null){
+                metricsRecorder.recordTokenRejected(SecurityRealmTokenFailure.MALFORMED);
+            }
+            return null;
+        }
+
+        SecurityRealmDescriptor descriptor = snapshot.getDescriptor(unverifiedClaims.getRealm());
+        if(descriptor == null){
+            if(metricsRecorder != null){
+                metricsRecorder.recordTokenRejected(SecurityRealmTokenFailure.WRONG_REALM);
+            }
+            return null;
+        }
+
+        SecurityRealmAuthentication authentication = descriptor.getSecurityRealmTokenCodec().decode(unverifiedClaims);
+        if(authentication != null && descriptor.getName().equals(authentication.getRealm())){
+            return authentication;
+        }
+
+        if(authentication != null && descriptor.getMetrics() != null){
+            descriptor.getMetrics().recordTokenRejected(SecurityRealmTokenFailure.WRONG_REALM);
+        }
+        return null;
+    }
+}
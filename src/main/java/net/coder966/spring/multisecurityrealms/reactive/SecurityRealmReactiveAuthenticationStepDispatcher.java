@@ -0,0 +1,242 @@
+package net.coder966.spring.multisecurityrealms.reactive;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.contextpropagation.ObservationThreadLocalAccessor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import jdk.jfr.EventType;
+import net.coder966.spring.multisecurityrealms.annotation.AuthenticationStep;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationResponses;
+import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationSuccessResponse;
+import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationException;
+import net.coder966.spring.multisecurityrealms.jfr.SecurityRealmAuthenticationStepEvent;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmAuthenticationStepOutcome;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmMetrics;
+import net.coder966.spring.multisecurityrealms.observation.SecurityRealmObservationDocumentation;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ReactiveAdapter;
+import org.springframework.core.ReactiveAdapterRegistry;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.function.SingletonSupplier;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.HandlerResult;
+import org.springframework.web.reactive.HandlerResultHandler;
+import org.springframework.web.reactive.result.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.pattern.PathPattern;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+/**
+ * Dispatches authentication requests straight to the handler of their step on the reactive stack,
+ * the counterpart of {@link net.coder966.spring.multisecurityrealms.mvc.SecurityRealmAuthenticationStepDispatcher}.
+ * <p>
+ * The handler is invoked by the application {@link RequestMappingHandlerAdapter}, so argument resolution, validation,
+ * blocking execution (if configured) and {@code @ExceptionHandler} methods apply as for any controller method.
+ * The resulting authentication is mapped to the authentication response, then written by the application {@link HandlerResultHandler}s.
+ */
+public class SecurityRealmReactiveAuthenticationStepDispatcher {
+
+    // the return type of the success result, as seen by the HandlerResultHandlers
+    private static final MethodParameter SUCCESS_RESPONSE_TYPE;
+
+    static{
+        Method method = ReflectionUtils.findMethod(
+            SecurityRealmReactiveAuthenticationStepDispatcher.class, "toSuccessResponse", SecurityRealmDescriptor.class, SecurityRealmAuthentication.class
+        );
+        SUCCESS_RESPONSE_TYPE = new MethodParameter(method, -1);
+    }
+
+    // where the current observation is kept in the Reactor context, a constant, so context-propagation is not needed at runtime
+    private static final String OBSERVATION_CONTEXT_KEY = ObservationThreadLocalAccessor.KEY;
+
+    private static final EventType STEP_EVENT_TYPE = EventType.getEventType(SecurityRealmAuthenticationStepEvent.class);
+
+    // resolved on first use, the handler adapter depends on the security configuration, which depends on the authentication manager
+    private final Supplier<RequestMappingHandlerAdapter> handlerAdapter;
+    private final Supplier<List<HandlerResultHandler>> resultHandlers;
+    private final ReactiveAdapterRegistry adapterRegistry = ReactiveAdapterRegistry.getSharedInstance();
+    private final ObservationRegistry observationRegistry;
+
+    public SecurityRealmReactiveAuthenticationStepDispatcher(ApplicationContext context) {
+        this.handlerAdapter = SingletonSupplier.of(() -> context.getBeansOfType(RequestMappingHandlerAdapter.class).values().stream().findFirst().get());
+        this.resultHandlers = SingletonSupplier.of(() -> {
+            List<HandlerResultHandler> resultHandlers = new ArrayList<>(context.getBeansOfType(HandlerResultHandler.class).values());
+            AnnotationAwareOrderComparator.sort(resultHandlers);
+            return resultHandlers;
+        });
+        this.observationRegistry = context.getBeanProvider(ObservationRegistry.class).getIfAvailable(() -> ObservationRegistry.NOOP);
+    }
+
+    /**
+     * @param pattern the pattern of the authentication endpoint, to extract its path variables
+     */
+    public Mono<Void> dispatch(ServerWebExchange exchange, SecurityRealmDescriptor descriptor, PathPattern pattern, String stepName) {
+        HandlerMethod handler = descriptor.getAuthenticationStepHandler(stepName);
+        if(handler == null){
+            // same as when no handler mapping matched
+            exchange.getResponse().setStatusCode(HttpStatus.NOT_FOUND);
+            return exchange.getResponse().setComplete();
+        }
+
+        exchange.getAttributes().put(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE, handler);
+        exchange.getAttributes().put(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, pattern);
+        PathPattern.PathMatchInfo matchInfo = pattern.matchAndExtract(exchange.getRequest().getPath().pathWithinApplication());
+        if(matchInfo != null){
+            exchange.getAttributes().put(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, matchInfo.getUriVariables());
+        }
+
+        RequestMappingHandlerAdapter handlerAdapter = this.handlerAdapter.get();
+        Mono<HandlerResult> result = handlerAdapter
+            .handle(exchange, handler)
+            .flatMap(handlerResult -> isAuthenticationStepResult(handlerResult) ? toSuccessResult(descriptor, handlerResult) : Mono.just(handlerResult));
+
+        SecurityRealmMetrics metrics = descriptor.getMetrics();
+        if(metrics == null && observationRegistry.isNoop() && !STEP_EVENT_TYPE.isEnabled()){
+            return result
+                .onErrorResume(e -> handlerAdapter.handleError(exchange, e))
+                .flatMap(handlerResult -> handleResult(exchange, handlerResult));
+        }
+
+        return Mono.deferContextual(context -> {
+            long start = System.nanoTime();
+            SecurityRealmAuthenticationStepEvent event = new SecurityRealmAuthenticationStepEvent();
+            event.begin();
+            Observation observation = SecurityRealmObservationDocumentation.STEP
+                .forRealm(observationRegistry, descriptor.getName())
+                .lowCardinalityKeyValue(SecurityRealmObservationDocumentation.LowCardinalityKeyNames.STEP.asString(), stepName)
+                .parentObservation(context.getOrDefault(OBSERVATION_CONTEXT_KEY, null))
+                .start();
+
+            return result
+                .map(handlerResult -> new TimedResult(handlerResult, outcomeOf(handlerResult)))
+                .onErrorResume(e -> {
+                    observation.error(e);
+                    return handlerAdapter.handleError(exchange, e).map(handlerResult -> new TimedResult(handlerResult, SecurityRealmAuthenticationStepOutcome.of(e)));
+                })
+                // not handled by any @ExceptionHandler method
+                .doOnError(e -> {
+                    if(metrics != null){
+                        metrics.recordAuthenticationStep(stepName, System.nanoTime() - start, SecurityRealmAuthenticationStepOutcome.of(e));
+                    }
+                    event.outcome = SecurityRealmAuthenticationStepOutcome.of(e).name().toLowerCase();
+                })
+                .flatMap(timed -> handleResult(exchange, timed.result).doFinally(signal -> {
+                    if(metrics != null){
+                        metrics.recordAuthenticationStep(stepName, System.nanoTime() - start, timed.outcome);
+                    }
+                    event.outcome = timed.outcome.name().toLowerCase();
+                }))
+                .doFinally(signal -> {
+                    observation.stop();
+                    event.end();
+                    if(event.shouldCommit()){
+                        event.realm = descriptor.getName();
+                        event.step = stepName;
+                        event.commit();
+                    }
+                })
+                .contextWrite(Context.of(OBSERVATION_CONTEXT_KEY, observation));
+        });
+    }
+
+    /**
+     * Resolves the exception using the application {@code @ExceptionHandler} methods.
+     *
+     * @return an error with the given exception, if no exception handler handled it
+     */
+    public Mono<Void> resolveException(ServerWebExchange exchange, Throwable e) {
+        return handlerAdapter.get().handleError(exchange, e).flatMap(result -> handleResult(exchange, result));
+    }
+
+    // the result of the step itself, rather than the result of an @ExceptionHandler method
+    private static boolean isAuthenticationStepResult(HandlerResult result) {
+        return result.getReturnTypeSource().hasMethodAnnotation(AuthenticationStep.class);
+    }
+
+    /**
+     * The adapter already hands the exceptions of the step to the {@code @ExceptionHandler} methods,
+     * so a step that threw is told apart by the exceptions the method that produced the result handles.
+     */
+    private static SecurityRealmAuthenticationStepOutcome outcomeOf(HandlerResult result) {
+        if(isSuccessResult(result)){
+            return SecurityRealmAuthenticationStepOutcome.SUCCESS;
+        }
+
+        Method method = result.getReturnTypeSource().getMethod();
+        ExceptionHandler exceptionHandler = method == null ? null : AnnotatedElementUtils.findMergedAnnotation(method, ExceptionHandler.class);
+        if(exceptionHandler == null){
+            return SecurityRealmAuthenticationStepOutcome.ERROR;
+        }
+
+        Class<?>[] exceptionTypes = exceptionHandler.value().length == 0 ? method.getParameterTypes() : exceptionHandler.value();
+        for(Class<?> exceptionType : exceptionTypes){
+            if(SecurityRealmAuthenticationException.class.isAssignableFrom(exceptionType)){
+                return SecurityRealmAuthenticationStepOutcome.FAILURE;
+            }
+        }
+        return SecurityRealmAuthenticationStepOutcome.ERROR;
+    }
+
+    private static boolean isSuccessResult(HandlerResult result) {
+        return SUCCESS_RESPONSE_TYPE.getMethod().equals(result.getReturnTypeSource().getMethod());
+    }
+
+    private Mono<HandlerResult> toSuccessResult(SecurityRealmDescriptor descriptor, HandlerResult result) {
+        return toAuthentication(result.getReturnValue())
+            .map(auth -> new HandlerResult(result.getHandler(), toSuccessResponse(descriptor, auth), SUCCESS_RESPONSE_TYPE));
+    }
+
+    private Mono<SecurityRealmAuthentication> toAuthentication(Object returnValue) {
+        if(returnValue == null || returnValue instanceof SecurityRealmAuthentication){
+            return Mono.justOrEmpty((SecurityRealmAuthentication) returnValue);
+        }
+
+        ReactiveAdapter adapter = adapterRegistry.getAdapter(returnValue.getClass());
+        if(adapter == null || adapter.isMultiValue()){
+            return Mono.error(new IllegalStateException(
+                "Unsupported AuthenticationStep result (" + returnValue.getClass().getName() + ") on the reactive stack. "
+                    + "It should be SecurityRealmAuthentication, or a CompletionStage or Mono of SecurityRealmAuthentication."
+            ));
+        }
+        return Mono.from(adapter.toPublisher(returnValue)).cast(SecurityRealmAuthentication.class);
+    }
+
+    private Mono<Void> handleResult(ServerWebExchange exchange, HandlerResult result) {
+        for(HandlerResultHandler resultHandler : resultHandlers.get()){
+            if(resultHandler.supports(result)){
+                return resultHandler.handleResult(exchange, result);
+            }
+        }
+        return Mono.error(new IllegalStateException("No HandlerResultHandler for " + result.getReturnValue()));
+    }
+
+    private static ResponseEntity<SecurityRealmAuthenticationSuccessResponse> toSuccessResponse(
+        SecurityRealmDescriptor descriptor, SecurityRealmAuthentication auth
+    ) {
+        return ResponseEntity.ok(SecurityRealmAuthenticationResponses.success(descriptor, auth));
+    }
+
+    private static final class TimedResult {
+
+        private final HandlerResult result;
+        private final SecurityRealmAuthenticationStepOutcome outcome;
+
+        private TimedResult(HandlerResult result, SecurityRealmAuthenticationStepOutcome outcome) {
+            this.result = result;
+            this.outcome = outcome;
+        }
+    }
+}
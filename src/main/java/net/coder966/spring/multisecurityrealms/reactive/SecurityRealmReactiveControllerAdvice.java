@@ -0,0 +1,38 @@
+package net.coder966.spring.multisecurityrealms.reactive;
+
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationErrorResponse;
+import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationResponses;
+import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationSuccessResponse;
+import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationAlreadyAuthenticatedException;
+import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationException;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import reactor.core.publisher.Mono;
+
+/**
+ * The counterpart of {@link net.coder966.spring.multisecurityrealms.mvc.SecurityRealmControllerAdvice} on the reactive stack,
+ * the success responses are mapped by {@link SecurityRealmReactiveAuthenticationStepDispatcher}.
+ */
+@Order(Ordered.HIGHEST_PRECEDENCE + 100) // + 100 to allow user some room to override this if they want
+@ControllerAdvice
+public class SecurityRealmReactiveControllerAdvice {
+
+    @ExceptionHandler(SecurityRealmAuthenticationException.class)
+    public ResponseEntity<SecurityRealmAuthenticationErrorResponse> handleAuthError(SecurityRealmAuthenticationException e) {
+        return ResponseEntity.status(400).body(SecurityRealmAuthenticationResponses.error(e));
+    }
+
+    @ExceptionHandler(SecurityRealmAuthenticationAlreadyAuthenticatedException.class)
+    public Mono<ResponseEntity<SecurityRealmAuthenticationSuccessResponse>> handleAlreadyAuthenticated(SecurityRealmAuthenticationAlreadyAuthenticatedException e) {
+        return ReactiveSecurityContextHolder
+            .getContext()
+            .map(context -> (SecurityRealmAuthentication) context.getAuthentication())
+            .zipWith(ReactiveSecurityRealmContext.getDescriptor())
+            .map(authAndDescriptor -> ResponseEntity.ok(SecurityRealmAuthenticationResponses.success(authAndDescriptor.getT2(), authAndDescriptor.getT1())));
+    }
+}
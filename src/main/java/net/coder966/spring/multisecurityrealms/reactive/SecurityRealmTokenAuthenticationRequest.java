@@ -0,0 +1,30 @@
+package net.coder966.spring.multisecurityrealms.reactive;
+
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+
+/**
+ * An authentication request carrying a raw token, to be verified by {@link SecurityRealmReactiveAuthenticationManager}.
+ */
+public class SecurityRealmTokenAuthenticationRequest extends AbstractAuthenticationToken {
+
+    private final String token;
+
+    public SecurityRealmTokenAuthenticationRequest(String token) {
+        super(null);
+        this.token = token;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    @Override
+    public Object getCredentials() {
+        return token;
+    }
+
+    @Override
+    public Object getPrincipal() {
+        return token;
+    }
+}
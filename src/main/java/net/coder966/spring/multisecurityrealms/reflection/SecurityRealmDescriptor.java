@@ -1,8 +1,11 @@
 package net.coder966.spring.multisecurityrealms.reflection;
 
 import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmMetrics;
 import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.method.HandlerMethod;
 import java.time.Duration;
+import java.util.Map;
 
 public class SecurityRealmDescriptor {
 
@@ -11,25 +14,34 @@ public class SecurityRealmDescriptor {
     private final String firstStepName;
     private final SecurityRealmTokenCodec securityRealmTokenCodec;
     private final Duration fullyAuthenticatedTokenTtl;
+    private final Map<String, HandlerMethod> authenticationStepHandlers;
+    private final SecurityRealmMetrics metrics;
 
     public SecurityRealmDescriptor(
         String name,
         RequestMatcher authenticationEndpointRequestMatcher,
         String firstStepName,
         SecurityRealmTokenCodec securityRealmTokenCodec,
-        Duration fullyAuthenticatedTokenTtl
+        Duration fullyAuthenticatedTokenTtl,
+        Map<String, HandlerMethod> authenticationStepHandlers,
+        SecurityRealmMetrics metrics
     ) {
         this.name = name;
         this.authenticationEndpointRequestMatcher = authenticationEndpointRequestMatcher;
         this.firstStepName = firstStepName;
         this.securityRealmTokenCodec = securityRealmTokenCodec;
         this.fullyAuthenticatedTokenTtl = fullyAuthenticatedTokenTtl;
+        this.authenticationStepHandlers = Map.copyOf(authenticationStepHandlers);
+        this.metrics = metrics;
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return the servlet request matcher of the authentication endpoint, or null if the Servlet API is not available, e.g. in a reactive application
+     */
     public RequestMatcher getAuthenticationEndpointRequestMatcher() {
         return authenticationEndpointRequestMatcher;
     }
@@ -45,4 +57,18 @@ public class SecurityRealmDescriptor {
     public Duration getFullyAuthenticatedTokenTtl() {
         return fullyAuthenticatedTokenTtl;
     }
+
+    /**
+     * @return the handler of the given step, or null if the realm has no such step
+     */
+    public HandlerMethod getAuthenticationStepHandler(String stepName) {
+        return stepName == null ? null : authenticationStepHandlers.get(stepName);
+    }
+
+    /**
+     * @return the realm metrics, or null if no metrics are recorded, e.g. there is no MeterRegistry
+     */
+    public SecurityRealmMetrics getMetrics() {
+        return metrics;
+    }
 }
@@ -0,0 +1,105 @@
+package net.coder966.spring.multisecurityrealms.reflection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.springframework.util.StringUtils;
+
+/**
+ * The classes declaring security realms and anonymous routes, as written at compile time by
+ * {@link net.coder966.spring.multisecurityrealms.processor.SecurityRealmIndexProcessor}, or at build time by the AOT processing,
+ * see {@link net.coder966.spring.multisecurityrealms.aot.SecurityRealmBeanFactoryInitializationAotProcessor}.
+ * When present, the scanner only inspects these classes, instead of all the beans and all the controller methods.
+ * <p>
+ * The index is a properties file, keyed by the binary class name, whose value is the comma separated annotations found in the class,
+ * either {@value #SECURITY_REALM} or {@value #ANONYMOUS_ACCESS}. The indexes of all the jars on the classpath are merged.
+ */
+public final class SecurityRealmIndex {
+
+    public static final String LOCATION = "META-INF/multi-security-realms.index";
+
+    public static final String SECURITY_REALM = "net.coder966.spring.multisecurityrealms.annotation.SecurityRealm";
+    public static final String ANONYMOUS_ACCESS = "net.coder966.spring.multisecurityrealms.annotation.AnonymousAccess";
+
+    private final Set<String> securityRealmClasses;
+    private final Set<String> anonymousAccessClasses;
+
+    public SecurityRealmIndex(Set<String> securityRealmClasses, Set<String> anonymousAccessClasses) {
+        this.securityRealmClasses = Set.copyOf(securityRealmClasses);
+        this.anonymousAccessClasses = Set.copyOf(anonymousAccessClasses);
+    }
+
+    /**
+     * @return the merged indexes found on the classpath, or null if there is none, so the classes have to be scanned
+     */
+    public static SecurityRealmIndex load(ClassLoader classLoader) {
+        Set<String> securityRealmClasses = new HashSet<>();
+        Set<String> anonymousAccessClasses = new HashSet<>();
+
+        Enumeration<URL> urls;
+        try{
+            urls = classLoader == null ? ClassLoader.getSystemResources(LOCATION) : classLoader.getResources(LOCATION);
+        }catch(IOException e){
+            throw new IllegalStateException("Unable to list the security realm indexes (" + LOCATION + ")", e);
+        }
+        if(!urls.hasMoreElements()){
+            return null;
+        }
+
+        for(URL url : Collections.list(urls)){
+            Properties properties = new Properties();
+            try(InputStream inputStream = url.openStream()){
+                properties.load(inputStream);
+            }catch(IOException e){
+                throw new IllegalStateException("Unable to read the security realm index (" + url + ")", e);
+            }
+
+            for(String className : properties.stringPropertyNames()){
+                for(String annotation : StringUtils.commaDelimitedListToSet(properties.getProperty(className))){
+                    if(SECURITY_REALM.equals(annotation.trim())){
+                        securityRealmClasses.add(className);
+                    }else if(ANONYMOUS_ACCESS.equals(annotation.trim())){
+                        anonymousAccessClasses.add(className);
+                    }
+                }
+            }
+        }
+
+        return new SecurityRealmIndex(securityRealmClasses, anonymousAccessClasses);
+    }
+
+    /**
+     * @return the content of an index file, sorted by class name, e.g. to write the index at build time
+     */
+    public String toProperties() {
+        Map<String, Set<String>> annotationsByClass = new TreeMap<>();
+        securityRealmClasses.forEach(className -> annotationsByClass.computeIfAbsent(className, key -> new TreeSet<>()).add(SECURITY_REALM));
+        anonymousAccessClasses.forEach(className -> annotationsByClass.computeIfAbsent(className, key -> new TreeSet<>()).add(ANONYMOUS_ACCESS));
+
+        StringBuilder properties = new StringBuilder();
+        annotationsByClass.forEach((className, annotations) -> properties.append(className).append('=').append(String.join(",", annotations)).append('\n'));
+        return properties.toString();
+    }
+
+    /**
+     * @return the binary names of the classes annotated with {@code @SecurityRealm}
+     */
+    public Set<String> getSecurityRealmClasses() {
+        return securityRealmClasses;
+    }
+
+    /**
+     * @return the binary names of the classes declaring {@code @AnonymousAccess} methods
+     */
+    public Set<String> getAnonymousAccessClasses() {
+        return anonymousAccessClasses;
+    }
+}
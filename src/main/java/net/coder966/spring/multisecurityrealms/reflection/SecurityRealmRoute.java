@@ -0,0 +1,74 @@
+package net.coder966.spring.multisecurityrealms.reflection;
+
+import org.springframework.web.util.pattern.PathPattern;
+
+/**
+ * What a request targets, as far as this library is concerned, as resolved by {@link SecurityRealmRouteTable}.
+ */
+public final class SecurityRealmRoute {
+
+    public static final SecurityRealmRoute NONE = new SecurityRealmRoute(null, null, false, false);
+    public static final SecurityRealmRoute ANONYMOUS = new SecurityRealmRoute(null, null, true, false);
+    public static final SecurityRealmRoute ANONYMOUS_ONLY = new SecurityRealmRoute(null, null, true, true);
+
+    private final String authenticationRealm;
+    private final PathPattern authenticationEndpointPattern;
+    private final boolean anonymous;
+    private final boolean anonymousOnly;
+
+    private SecurityRealmRoute(String authenticationRealm, PathPattern authenticationEndpointPattern, boolean anonymous, boolean anonymousOnly) {
+        this.authenticationRealm = authenticationRealm;
+        this.authenticationEndpointPattern = authenticationEndpointPattern;
+        this.anonymous = anonymous;
+        this.anonymousOnly = anonymousOnly;
+    }
+
+    static SecurityRealmRoute authenticationEndpoint(String realm, PathPattern pattern) {
+        return new SecurityRealmRoute(realm, pattern, false, false);
+    }
+
+    /**
+     * @return the name of the realm whose authentication endpoint is targeted, or null if the request does not target an authentication endpoint
+     */
+    public String getAuthenticationRealm() {
+        return authenticationRealm;
+    }
+
+    /**
+     * @return the pattern of the targeted authentication endpoint, e.g. to extract its path variables, or null if the request does not target an authentication endpoint
+     */
+    public PathPattern getAuthenticationEndpointPattern() {
+        return authenticationEndpointPattern;
+    }
+
+    public boolean isAuthenticationEndpoint() {
+        return authenticationRealm != null;
+    }
+
+    /**
+     * @return whether the request targets an {@link net.coder966.spring.multisecurityrealms.annotation.AnonymousAccess} route
+     */
+    public boolean isAnonymous() {
+        return anonymous;
+    }
+
+    /**
+     * @return whether the request targets an {@link net.coder966.spring.multisecurityrealms.annotation.AnonymousAccess#anonymousOnly()} route,
+     * which is accessed anonymously whatever token the request carries
+     */
+    public boolean isAnonymousOnly() {
+        return anonymousOnly;
+    }
+
+    /**
+     * @return what the request targets, one of authentication_endpoint, anonymous_only, anonymous or none, e.g. to tag observations
+     */
+    public String getType() {
+        return isAuthenticationEndpoint() ? "authentication_endpoint" : anonymousOnly ? "anonymous_only" : anonymous ? "anonymous" : "none";
+    }
+
+    @Override
+    public String toString() {
+        return isAuthenticationEndpoint() ? "AUTHENTICATION_ENDPOINT(" + authenticationRealm + ")" : anonymousOnly ? "ANONYMOUS_ONLY" : anonymous ? "ANONYMOUS" : "NONE";
+    }
+}
@@ -0,0 +1,212 @@
+package net.coder966.spring.multisecurityrealms.reflection;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.coder966.spring.multisecurityrealms.jfr.SecurityRealmRouteLookupEvent;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.RequestPath;
+import org.springframework.web.util.ServletRequestPathUtils;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+/**
+ * All the authentication endpoints and anonymous routes, compiled at startup, so a request is resolved in a single lookup
+ * instead of being tested against each route.
+ * <p>
+ * Routes are indexed by HTTP method, then literal paths are looked up in a hash map, and the patterns are bucketed by their first path segment.
+ * The patterns are matched exactly like {@link org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher#withDefaults()}.
+ * Authentication endpoints take precedence over anonymous routes.
+ */
+public class SecurityRealmRouteTable {
+
+    // key for routes without a method restriction
+    private static final String ANY_METHOD = "";
+
+    private final Map<String, PathIndex> authenticationEndpoints = new HashMap<>();
+    private final Map<String, PathIndex> anonymousRoutes = new HashMap<>();
+
+    void addAuthenticationEndpoint(HttpMethod method, String path, String realm) {
+        PathPattern pattern = parse(path);
+        add(authenticationEndpoints, method, pattern, SecurityRealmRoute.authenticationEndpoint(realm, pattern));
+    }
+
+    /**
+     * @param method the route method, or null if the route is not restricted to a method
+     * @param anonymousOnly whether the route is accessed anonymously whatever token the request carries
+     */
+    void addAnonymousRoute(HttpMethod method, String path, boolean anonymousOnly) {
+        add(anonymousRoutes, method, parse(path), anonymousOnly ? SecurityRealmRoute.ANONYMOUS_ONLY : SecurityRealmRoute.ANONYMOUS);
+    }
+
+    private static PathPattern parse(String path) {
+        if(path == null || !path.startsWith("/")){
+            throw new IllegalArgumentException("Invalid path (" + path + "), it should start with a /");
+        }
+        return PathPatternParser.defaultInstance.parse(path);
+    }
+
+    private void add(Map<String, PathIndex> routes, HttpMethod method, PathPattern pattern, SecurityRealmRoute route) {
+        routes.computeIfAbsent(method == null ? ANY_METHOD : method.name(), key -> new PathIndex()).add(pattern, route);
+    }
+
+    public SecurityRealmRoute lookup(HttpServletRequest request) {
+        if(authenticationEndpoints.isEmpty() && anonymousRoutes.isEmpty()){
+            return SecurityRealmRoute.NONE;
+        }
+
+        return lookup(request.getMethod(), ServletRequestPaths.getPathWithinApplication(request));
+    }
+
+    /**
+     * Same as {@link #lookup(HttpServletRequest)}, for any request, e.g. a reactive one.
+     *
+     * @param path the request path, within the application
+     */
+    public SecurityRealmRoute lookup(String method, PathContainer path) {
+        if(authenticationEndpoints.isEmpty() && anonymousRoutes.isEmpty()){
+            return SecurityRealmRoute.NONE;
+        }
+
+        // a no-op, unless the event is enabled in a flight recording
+        SecurityRealmRouteLookupEvent event = new SecurityRealmRouteLookupEvent();
+        event.begin();
+
+        SecurityRealmRoute route = find(authenticationEndpoints, method, path);
+        if(route == null){
+            route = find(anonymousRoutes, method, path);
+        }
+        if(route == null){
+            route = SecurityRealmRoute.NONE;
+        }
+
+        event.end();
+        if(event.shouldCommit()){
+            event.method = method;
+            event.path = path.value();
+            event.route = route.getType();
+            event.realm = route.getAuthenticationRealm();
+            event.commit();
+        }
+        return route;
+    }
+
+    private static SecurityRealmRoute find(Map<String, PathIndex> routes, String method, PathContainer path) {
+        PathIndex index = routes.get(method);
+        SecurityRealmRoute route = index == null ? null : index.find(path);
+        if(route == null){
+            index = routes.get(ANY_METHOD);
+            route = index == null ? null : index.find(path);
+        }
+        return route;
+    }
+
+    // kept apart, so the table can be used without the Servlet API on the classpath
+    private static final class ServletRequestPaths {
+
+        private static PathContainer getPathWithinApplication(HttpServletRequest request) {
+            RequestPath path = ServletRequestPathUtils.hasParsedRequestPath(request)
+                ? ServletRequestPathUtils.getParsedRequestPath(request)
+                : ServletRequestPathUtils.parse(request);
+            return path.pathWithinApplication();
+        }
+    }
+
+    private static final class PathIndex {
+
+        private final Map<String, SecurityRealmRoute> literals = new HashMap<>();
+        private final Map<String, List<Entry>> patternsByFirstSegment = new HashMap<>();
+        private final List<Entry> otherPatterns = new ArrayList<>();
+
+        // used when the request path has to be decoded before being compared, so it can't be looked up by its raw value
+        private final List<Entry> all = new ArrayList<>();
+
+        private void add(PathPattern pattern, SecurityRealmRoute route) {
+            Entry entry = new Entry(pattern, route);
+            all.add(entry);
+
+            String patternString = pattern.getPatternString();
+            if(!pattern.hasPatternSyntax() && !requiresDecoding(patternString)){
+                literals.putIfAbsent(patternString, route);
+                return;
+            }
+
+            String firstSegment = firstSegment(patternString);
+            if(firstSegment == null || firstSegment.isEmpty() || requiresDecoding(firstSegment) || hasPatternSyntax(firstSegment)){
+                otherPatterns.add(entry);
+            }else{
+                patternsByFirstSegment.computeIfAbsent(firstSegment, key -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        private SecurityRealmRoute find(PathContainer path) {
+            String value = path.value();
+            if(requiresDecoding(value)){
+                return find(all, path);
+            }
+
+            SecurityRealmRoute route = literals.get(value);
+            if(route != null){
+                return route;
+            }
+
+            String firstSegment = firstSegment(value);
+            if(firstSegment != null){
+                List<Entry> patterns = patternsByFirstSegment.get(firstSegment);
+                if(patterns != null){
+                    route = find(patterns, path);
+                    if(route != null){
+                        return route;
+                    }
+                }
+            }
+
+            return find(otherPatterns, path);
+        }
+
+        private static SecurityRealmRoute find(List<Entry> entries, PathContainer path) {
+            for(Entry entry : entries){
+                if(entry.pattern.matches(path)){
+                    return entry.route;
+                }
+            }
+            return null;
+        }
+
+        private static String firstSegment(String path) {
+            if(!path.startsWith("/")){
+                return null;
+            }
+            int end = path.indexOf('/', 1);
+            return end < 0 ? path.substring(1) : path.substring(1, end);
+        }
+
+        private static boolean requiresDecoding(String path) {
+            return path.indexOf('%') >= 0 || path.indexOf(';') >= 0;
+        }
+
+        private static boolean hasPatternSyntax(String segment) {
+            for(int i = 0; i < segment.length(); i++){
+                char c = segment.charAt(i);
+                if(c == '{' || c == '*' || c == '?'){
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Entry {
+
+        private final PathPattern pattern;
+        private final SecurityRealmRoute route;
+
+        private Entry(PathPattern pattern, SecurityRealmRoute route) {
+            this.pattern = pattern;
+            this.route = route;
+        }
+    }
+}
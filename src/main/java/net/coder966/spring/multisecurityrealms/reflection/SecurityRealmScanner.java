@@ -1,92 +1,235 @@
 package net.coder966.spring.multisecurityrealms.reflection;
 
+import io.micrometer.observation.ObservationRegistry;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import net.coder966.spring.multisecurityrealms.annotation.AnonymousAccess;
 import net.coder966.spring.multisecurityrealms.annotation.AuthenticationStep;
 import net.coder966.spring.multisecurityrealms.annotation.SecurityRealm;
 import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthorityDictionary;
 import net.coder966.spring.multisecurityrealms.configuration.SecurityRealmConfigurationProperties;
+import net.coder966.spring.multisecurityrealms.converter.CompactSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.JwtSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmKeyDerivation;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmKeyRing;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmSigningKey;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCache;
 import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
-import net.coder966.spring.multisecurityrealms.filter.SecurityRealmAuthenticationFilter;
-import net.coder966.spring.multisecurityrealms.mvc.AttributeValueRequestCondition;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenDecoder;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmMetrics;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmMetricsRecorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeanUtils;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.boot.convert.DurationStyle;
 import org.springframework.context.ApplicationContext;
+import org.springframework.core.ReactiveAdapter;
+import org.springframework.core.ReactiveAdapterRegistry;
+import org.springframework.core.ResolvableType;
 import org.springframework.core.annotation.AnnotatedElementUtils;
 import org.springframework.core.env.Environment;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.PropertyPlaceholderHelper;
+import org.springframework.util.SystemPropertyUtils;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
-import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
-import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.method.HandlerMethod;
 
 public class SecurityRealmScanner {
 
     private static final Logger log = LoggerFactory.getLogger(SecurityRealmScanner.class);
 
+    // the servlet request matchers are only built when the Servlet API is available, e.g. not in a reactive application
+    private static final boolean servletPresent = ClassUtils.isPresent("jakarta.servlet.http.HttpServletRequest", SecurityRealmScanner.class.getClassLoader());
+
+    // the WebFlux dispatcher, only present in the context of a reactive application
+    private static final String REACTIVE_DISPATCHER_HANDLER = "org.springframework.web.reactive.DispatcherHandler";
+
+    // only used to list the keys of the placeholders, they are resolved by the environment
+    private static final PropertyPlaceholderHelper placeholderHelper = new PropertyPlaceholderHelper(
+        SystemPropertyUtils.PLACEHOLDER_PREFIX, SystemPropertyUtils.PLACEHOLDER_SUFFIX, SystemPropertyUtils.VALUE_SEPARATOR,
+        SystemPropertyUtils.ESCAPE_CHARACTER, true
+    );
+
     private final ApplicationContext context;
     private final Environment env;
-    private final RequestMappingHandlerMapping requestMappingHandlerMapping;
 
-    // scan result
-    private Collection<SecurityRealmDescriptor> descriptors;
-    private List<RequestMatcher> anonymousRequestMatchers;
+    // null when the classes are scanned
+    private final SecurityRealmIndex index;
+
+    // the reactive stack supports fewer asynchronous step return types than the servlet one
+    private final boolean reactive;
+
+    // the realms without a configured signing secret keep their random secret across reloads, so their tokens stay valid
+    private final Map<String, String> randomSigningSecrets = new ConcurrentHashMap<>();
 
+    // kept across reloads, so the derived keys in use are not derived again, only accessed by the (synchronized) scans
+    private SecurityRealmKeyDerivation keyDerivation;
+
+    // scan result, replaced as a whole by each scan
+    private volatile SecurityRealmSnapshot snapshot;
+
+    // the keys of the placeholders resolved by the last scan, and those being resolved by the current one
+    private volatile Set<String> placeholderKeys = Set.of();
+    private Set<String> scannedPlaceholderKeys = new HashSet<>();
+
+    /**
+     * Uses the {@link SecurityRealmIndex} found on the classpath when {@code security-realm.index.enabled} is set, otherwise scans the beans.
+     */
     public SecurityRealmScanner(ApplicationContext context, Environment env) {
+        this(context, env, loadIndex(context));
+    }
+
+    /**
+     * @param index the classes declaring the realms and anonymous routes, or null to scan all the beans
+     */
+    public SecurityRealmScanner(ApplicationContext context, Environment env, SecurityRealmIndex index) {
         this.context = context;
         this.env = env;
+        this.index = index;
+        this.reactive = isReactiveApplication(context);
+    }
 
-        // there could be multiple beans of this type, for example, when you include spring-boot-starter-actuator
-        // We only need one handler to register authentication endpoints, we prefer to use the application "regular" handler
-        // which has order=0 See WebMvcConfigurationSupport from spring-webmvc.
-        this.requestMappingHandlerMapping = context.getBeansOfType(RequestMappingHandlerMapping.class).values().stream().findFirst().get();
+    private static boolean isReactiveApplication(ApplicationContext context) {
+        if(!ClassUtils.isPresent(REACTIVE_DISPATCHER_HANDLER, context.getClassLoader())){
+            return false;
+        }
+        Class<?> dispatcherHandlerType = ClassUtils.resolveClassName(REACTIVE_DISPATCHER_HANDLER, context.getClassLoader());
+        return context.getBeanNamesForType(dispatcherHandlerType, false, false).length > 0;
+    }
+
+    private static SecurityRealmIndex loadIndex(ApplicationContext context) {
+        // opt-in, any jar of the classpath may ship an index, which would hide the realms and routes of the others
+        SecurityRealmConfigurationProperties properties = context.getBeanProvider(SecurityRealmConfigurationProperties.class).getIfAvailable();
+        if(properties == null || !properties.getIndex().isEnabled()){
+            return null;
+        }
+
+        SecurityRealmIndex index = SecurityRealmIndex.load(context.getClassLoader());
+        if(index != null){
+            log.debug("Using the security realm index, {} realms and {} classes with anonymous routes",
+                index.getSecurityRealmClasses().size(), index.getAnonymousAccessClasses().size());
+        }
+        return index;
     }
 
     public void scan() {
-        scanForSecurityRealms();
-        scanForAnonymousAccess();
+        scan(context.getBean(SecurityRealmConfigurationProperties.class));
+    }
+
+    /**
+     * Scans with the given configuration, then publishes the result as a new {@link SecurityRealmSnapshot}.
+     * If the scan fails, e.g. because of an invalid configuration, the previous snapshot stays in use.
+     */
+    public synchronized void scan(SecurityRealmConfigurationProperties properties) {
+        scannedPlaceholderKeys = new HashSet<>();
+        SecurityRealmRouteTable routeTable = new SecurityRealmRouteTable();
+        Collection<SecurityRealmDescriptor> descriptors = scanForSecurityRealms(properties, routeTable);
+        List<RequestMatcher> anonymousRequestMatchers = scanForAnonymousAccess(routeTable);
+        this.snapshot = new SecurityRealmSnapshot(descriptors, anonymousRequestMatchers, routeTable);
+        this.placeholderKeys = Set.copyOf(scannedPlaceholderKeys);
+    }
+
+    /**
+     * Binds the {@code security-realm.*} properties again from the environment, e.g. once it was refreshed,
+     * and scans with them, so the realms pick up their new signing secrets, token TTLs, formats and token caches.
+     * The realms and routes themselves are declared in code, they don't change.
+     *
+     * @throws IllegalArgumentException if the new configuration is invalid, the previous snapshot stays in use
+     */
+    public void reload() {
+        SecurityRealmConfigurationProperties properties = Binder
+            .get(env)
+            .bindOrCreate("security-realm", SecurityRealmConfigurationProperties.class);
+        scan(properties);
+        log.info("Reloaded the configuration of {} security realms", snapshot.getDescriptors().size());
+    }
+
+    /**
+     * @return the result of the last scan, or null if nothing was scanned yet
+     */
+    public SecurityRealmSnapshot getSnapshot() {
+        return snapshot;
     }
 
     public Collection<SecurityRealmDescriptor> getDescriptors() {
-        return descriptors;
+        return getSnapshot().getDescriptors();
+    }
+
+    /**
+     * @return the keys of the placeholders resolved by the last scan, e.g. {@code my-app.admin-realm-jwt-secret}
+     * for {@code @SecurityRealm(signingSecret = "${my-app.admin-realm-jwt-secret}")}, including the keys of nested and default placeholders
+     */
+    public Set<String> getPlaceholderKeys() {
+        return placeholderKeys;
     }
 
     public List<RequestMatcher> getAnonymousRequestMatchers() {
-        return anonymousRequestMatchers;
+        return getSnapshot().getAnonymousRequestMatchers();
+    }
+
+    /**
+     * @return the authentication endpoints and anonymous routes, compiled into a single lookup structure
+     */
+    public SecurityRealmRouteTable getRouteTable() {
+        return getSnapshot().getRouteTable();
     }
 
-    private void scanForSecurityRealms() {
+    private Collection<SecurityRealmDescriptor> scanForSecurityRealms(SecurityRealmConfigurationProperties properties, SecurityRealmRouteTable routeTable) {
         Map<String, SecurityRealmDescriptor> descriptors = new HashMap<>();
 
-        for(Object bean : context.getBeansWithAnnotation(SecurityRealm.class).values()){
+        if(index != null){
+            assertRealmsAreIndexed();
+        }
+
+        for(Object bean : findBeans(SecurityRealm.class, index == null ? null : index.getSecurityRealmClasses())){
             final SecurityRealm realmAnnotation = AopUtils.getTargetClass(bean).getAnnotation(SecurityRealm.class);
 
             validateRealmAnnotation(realmAnnotation);
 
+            SecurityRealmMetrics metrics = buildSecurityRealmMetrics(realmAnnotation);
+
             SecurityRealmDescriptor descriptor = new SecurityRealmDescriptor(
                 realmAnnotation.name(),
                 buildAuthenticationEndpointRequestMatcher(realmAnnotation),
                 realmAnnotation.firstStepName(),
-                buildSecurityRealmTokenCodec(realmAnnotation),
-                buildFullyAuthenticatedTokenTtl(realmAnnotation)
+                buildSecurityRealmTokenCodec(realmAnnotation, metrics, properties),
+                buildFullyAuthenticatedTokenTtl(realmAnnotation, properties),
+                buildAuthenticationStepHandlers(realmAnnotation, bean),
+                metrics
             );
 
-            registerAuthenticationStepHandlers(realmAnnotation, bean);
+            try{
+                routeTable.addAuthenticationEndpoint(HttpMethod.POST, realmAnnotation.authenticationEndpoint(), realmAnnotation.name());
+            }catch(Exception e){
+                throw new IllegalArgumentException(
+                    "Invalid authenticationEndpoint (" + realmAnnotation.authenticationEndpoint() + ") for SecurityRealm (" + realmAnnotation.name() + ")"
+                );
+            }
 
             if(descriptors.containsKey(realmAnnotation.name())){
                 throw new IllegalArgumentException("Invalid SecurityRealm name (" + realmAnnotation.name() + "). Realm name should be unique.");
@@ -94,7 +237,53 @@ public class SecurityRealmScanner {
             descriptors.put(realmAnnotation.name(), descriptor);
         }
 
-        this.descriptors = descriptors.values();
+        return descriptors.values();
+    }
+
+    /**
+     * Fails fast if a realm is missing from the index, e.g. declared in a module built without the processor, instead of silently ignoring it.
+     * Only the bean definitions are inspected, which is cheap next to the scan of the controller methods the index still saves.
+     */
+    private void assertRealmsAreIndexed() {
+        for(String beanName : context.getBeanNamesForAnnotation(SecurityRealm.class)){
+            Class<?> type = context.getType(beanName);
+            if(type != null && !index.getSecurityRealmClasses().contains(ClassUtils.getUserClass(type).getName())){
+                throw new IllegalStateException(
+                    "The SecurityRealm (" + ClassUtils.getUserClass(type).getName() + ") is missing from the security realm index (" + SecurityRealmIndex.LOCATION
+                        + "), enable SecurityRealmIndexProcessor in its module, or unset security-realm.index.enabled"
+                );
+            }
+        }
+    }
+
+    /**
+     * @param indexedClasses the classes to look the beans up by, or null to scan all the beans for the annotation
+     */
+    private Collection<Object> findBeans(Class<? extends Annotation> annotation, Set<String> indexedClasses) {
+        if(indexedClasses == null){
+            return context.getBeansWithAnnotation(annotation).values();
+        }
+
+        Map<String, Object> beans = new HashMap<>();
+        for(String className : indexedClasses){
+            Class<?> type;
+            try{
+                type = ClassUtils.forName(className, context.getClassLoader());
+            }catch(ClassNotFoundException | LinkageError e){
+                // e.g. a stale index entry
+                log.debug("Ignoring the indexed class ({}), it can not be loaded", className, e);
+                continue;
+            }
+
+            // only the beans of the indexed class itself, the annotations of a subclass are not inherited
+            context.getBeansOfType(type).forEach((name, bean) -> {
+                Class<?> targetClass = AopUtils.getTargetClass(bean);
+                if(targetClass == type && AnnotatedElementUtils.hasAnnotation(targetClass, annotation)){
+                    beans.put(name, bean);
+                }
+            });
+        }
+        return beans.values();
     }
 
     private void validateRealmAnnotation(SecurityRealm realmAnnotation) {
@@ -105,8 +294,8 @@ public class SecurityRealmScanner {
         }
     }
 
-    private void registerAuthenticationStepHandlers(SecurityRealm realmAnnotation, Object realmBean) {
-        Set<String> stepNames = new HashSet<>();
+    private Map<String, HandlerMethod> buildAuthenticationStepHandlers(SecurityRealm realmAnnotation, Object realmBean) {
+        Map<String, HandlerMethod> stepHandlers = new HashMap<>();
 
         for(Method method : AopUtils.getTargetClass(realmBean).getDeclaredMethods()){
             AuthenticationStep stepAnnotation = method.getAnnotation(AuthenticationStep.class);
@@ -119,30 +308,60 @@ public class SecurityRealmScanner {
                 throw new IllegalArgumentException("Invalid AuthenticationStep name (" + stepName + ") for SecurityRealm (" + realmAnnotation.name() + ")");
             }
 
-            if(stepNames.contains(stepName)){
+            if(stepHandlers.containsKey(stepName)){
                 throw new IllegalArgumentException(
                         "Found more than one AuthenticationStep with the same name (" + stepName + ") for SecurityRealm (" + realmAnnotation.name() + ")");
             }
 
-            if(!method.getReturnType().isAssignableFrom(SecurityRealmAuthentication.class)){
-                throw new IllegalArgumentException("Invalid return type (" + method.getReturnType().getCanonicalName() + ") "
+            if(!isValidAuthenticationStepReturnType(method, reactive)){
+                throw new IllegalArgumentException("Invalid return type (" + method.getGenericReturnType().getTypeName() + ") "
                         + "of AuthenticationStep (" + stepName + ") for SecurityRealm (" + realmAnnotation.name() + "). "
-                    + "It should be SecurityRealmAuthentication.");
+                    + (reactive
+                    ? "It should be SecurityRealmAuthentication, or a CompletionStage or Mono of SecurityRealmAuthentication, in a reactive application."
+                    : "It should be SecurityRealmAuthentication, or a CompletionStage, DeferredResult, Callable or Mono of SecurityRealmAuthentication."));
             }
 
-            stepNames.add(stepName);
+            // resolved once, the steps are then dispatched directly, see SecurityRealmAuthenticationStepDispatcher
+            stepHandlers.put(stepName, new HandlerMethod(realmBean, method).createWithValidateFlags());
+        }
+
+        return stepHandlers;
+    }
 
-            RequestMappingInfo mappingInfo = RequestMappingInfo
-                .paths(realmAnnotation.authenticationEndpoint())
-                .methods(RequestMethod.POST)
-                .customCondition(new AttributeValueRequestCondition(SecurityRealmAuthenticationFilter.AUTHENTICATION_REQUEST_ATTRIBUTE_NAME, stepName))
-                .build();
-            
-            requestMappingHandlerMapping.registerMapping(mappingInfo, realmBean, method);
+    /**
+     * @param reactive whether the application is reactive, DeferredResult and Callable are then not supported,
+     * see SecurityRealmReactiveAuthenticationStepDispatcher
+     */
+    private boolean isValidAuthenticationStepReturnType(Method method, boolean reactive) {
+        if(method.getReturnType().isAssignableFrom(SecurityRealmAuthentication.class)){
+            return true;
         }
+
+        // asynchronous steps, handled by the Servlet async support of Spring MVC, CompletionStage is also adapted by the reactive stack
+        ResolvableType returnType = ResolvableType.forMethodReturnType(method);
+        List<Class<?>> asyncTypes = reactive ? List.of(CompletionStage.class) : List.of(CompletionStage.class, DeferredResult.class, Callable.class);
+        for(Class<?> asyncType : asyncTypes){
+            if(asyncType.isAssignableFrom(method.getReturnType())){
+                Class<?> resultType = returnType.as(asyncType).getGeneric(0).resolve();
+                return resultType != null && resultType.isAssignableFrom(SecurityRealmAuthentication.class);
+            }
+        }
+
+        // single value reactive types, e.g. Mono, handled by both the servlet and the reactive stacks
+        ReactiveAdapter adapter = ReactiveAdapterRegistry.getSharedInstance().getAdapter(method.getReturnType());
+        if(adapter != null && !adapter.isMultiValue() && !adapter.isNoValue()){
+            Class<?> resultType = returnType.getGeneric(0).resolve();
+            return resultType != null && resultType.isAssignableFrom(SecurityRealmAuthentication.class);
+        }
+
+        return false;
     }
 
     private RequestMatcher buildAuthenticationEndpointRequestMatcher(SecurityRealm realmAnnotation) {
+        if(!servletPresent){
+            return null;
+        }
+
         try{
             return PathPatternRequestMatcher.withDefaults().matcher(HttpMethod.POST, realmAnnotation.authenticationEndpoint());
         }catch(Exception e){
@@ -152,14 +371,140 @@ public class SecurityRealmScanner {
         }
     }
 
-    private SecurityRealmTokenCodec buildSecurityRealmTokenCodec(SecurityRealm realmAnnotation) {
-        SecurityRealmConfigurationProperties defaultProperties = context.getBean(SecurityRealmConfigurationProperties.class);
+    private SecurityRealmTokenCodec buildSecurityRealmTokenCodec(SecurityRealm realmAnnotation, SecurityRealmMetrics metrics, SecurityRealmConfigurationProperties defaultProperties) {
+        SecurityRealmKeyRing keyRing = buildSecurityRealmKeyRing(realmAnnotation, defaultProperties);
+        SecurityRealmTokenFormat jwtFormat = new JwtSecurityRealmTokenFormat(keyRing, buildSecurityRealmTokenDecoder(realmAnnotation, defaultProperties));
+        SecurityRealmTokenFormat tokenFormat = buildSecurityRealmTokenFormat(realmAnnotation, keyRing, jwtFormat, defaultProperties);
+
+        // JWT tokens are still accepted when another format is used, so that switching formats does not log everyone out
+        List<SecurityRealmTokenFormat> legacyFormats = tokenFormat == jwtFormat ? List.of() : List.of(jwtFormat);
+
+        return SecurityRealmTokenCodec.builder(tokenFormat)
+            .legacyFormats(legacyFormats)
+            .cache(buildSecurityRealmTokenCache(defaultProperties))
+            .authorityDictionary(buildSecurityRealmAuthorityDictionary(realmAnnotation))
+            .metrics(metrics)
+            .observationRegistry(context.getBeanProvider(ObservationRegistry.class).getIfAvailable(() -> ObservationRegistry.NOOP))
+            .build();
+    }
+
+    private SecurityRealmKeyRing buildSecurityRealmKeyRing(SecurityRealm realmAnnotation, SecurityRealmConfigurationProperties defaultProperties) {
+        // determine the source of the keys (annotation or properties), the annotation keys are not mixed with the properties ones
+        boolean annotationKeys = !realmAnnotation.signingSecret().trim().isEmpty() || realmAnnotation.signingKeys().length > 0;
+
+        Map<String, String> signingKeys = new LinkedHashMap<>();
+        String activeSigningKey;
+        if(annotationKeys){
+            for(int i = 0; i < realmAnnotation.signingKeys().length; i++){
+                // support placeholders in the expression
+                String signingKey = resolveRequiredPlaceholders(realmAnnotation.signingKeys()[i]);
+                int separator = signingKey.indexOf('=');
+                if(separator < 0){
+                    // the entry is not logged, it may be a secret
+                    throw new IllegalArgumentException(
+                        "Invalid signingKeys (entry " + i + ") for SecurityRealm (" + realmAnnotation.name() + "). It should be written as id=secret."
+                    );
+                }
+                putSigningKey(signingKeys, signingKey.substring(0, separator), signingKey.substring(separator + 1), realmAnnotation);
+            }
+            activeSigningKey = resolvePlaceholders(realmAnnotation.activeSigningKey());
+        }else{
+            defaultProperties.getSigningKeys().forEach((id, secret) -> putSigningKey(signingKeys, id, resolveRequiredPlaceholders(secret), realmAnnotation));
+            activeSigningKey = defaultProperties.getActiveSigningKey();
+        }
+
+        // the keys shared by all the realms, in the properties, are not used as is, when derivation is enabled
+        SecurityRealmKeyDerivation derivation = annotationKeys ? null : buildSecurityRealmKeyDerivation(defaultProperties);
 
+        // the single key of the realm, or the key of the tokens issued before the realm started rotating its keys (without kid)
+        SecurityRealmSigningKey keyWithoutId = null;
+        String signingSecret = buildSigningSecret(realmAnnotation, defaultProperties, annotationKeys, !signingKeys.isEmpty(), derivation != null);
+        if(signingSecret != null){
+            keyWithoutId = buildSigningKey(null, signingSecret, derivation, realmAnnotation);
+        }
+
+        if(signingKeys.isEmpty()){
+            return new SecurityRealmKeyRing(keyWithoutId);
+        }
+
+        if(activeSigningKey == null || activeSigningKey.trim().isEmpty()){
+            if(signingKeys.size() > 1){
+                throw new IllegalArgumentException(
+                    "Invalid activeSigningKey () for SecurityRealm (" + realmAnnotation.name() + "). It should be specified when there is more than one signing key."
+                );
+            }
+            activeSigningKey = signingKeys.keySet().iterator().next();
+        }
+        String activeKeyId = activeSigningKey.trim();
+        if(!signingKeys.containsKey(activeKeyId)){
+            throw new IllegalArgumentException(
+                "Invalid activeSigningKey (" + activeKeyId + ") for SecurityRealm (" + realmAnnotation.name() + "). There is no signing key with this id."
+            );
+        }
+
+        List<SecurityRealmSigningKey> retiredKeys = new ArrayList<>();
+        signingKeys.forEach((id, secret) -> {
+            if(!id.equals(activeKeyId)){
+                retiredKeys.add(buildSigningKey(id, secret, derivation, realmAnnotation));
+            }
+        });
+        if(keyWithoutId != null){
+            retiredKeys.add(keyWithoutId);
+        }
+
+        return new SecurityRealmKeyRing(buildSigningKey(activeKeyId, signingKeys.get(activeKeyId), derivation, realmAnnotation), retiredKeys);
+    }
+
+    private SecurityRealmSigningKey buildSigningKey(String id, String secret, SecurityRealmKeyDerivation derivation, SecurityRealm realmAnnotation) {
+        return derivation == null ? new SecurityRealmSigningKey(id, secret) : derivation.deriveKey(id, secret, realmAnnotation.name());
+    }
+
+    /**
+     * @return the derivation shared by all the realms, or null if the keys are used as is
+     */
+    private SecurityRealmKeyDerivation buildSecurityRealmKeyDerivation(SecurityRealmConfigurationProperties defaultProperties) {
+        SecurityRealmConfigurationProperties.KeyDerivation properties = defaultProperties.getKeyDerivation();
+        if(properties == null || !properties.isEnabled()){
+            return null;
+        }
+
+        if(keyDerivation == null || keyDerivation.getMaximumSize() != properties.getMaximumSize()){
+            if(properties.getMaximumSize() <= 0){
+                throw new IllegalArgumentException(
+                    "Invalid security-realm.key-derivation.maximum-size (" + properties.getMaximumSize() + "), it should be positive"
+                );
+            }
+            keyDerivation = new SecurityRealmKeyDerivation(properties.getMaximumSize());
+        }
+        return keyDerivation;
+    }
+
+    private void putSigningKey(Map<String, String> signingKeys, String id, String secret, SecurityRealm realmAnnotation) {
+        id = id.trim();
+        if(id.isEmpty() || secret.isEmpty()){
+            throw new IllegalArgumentException("Invalid signingKeys (" + id + ") for SecurityRealm (" + realmAnnotation.name() + "). The id and secret should not be empty.");
+        }
+        if(signingKeys.putIfAbsent(id, secret) != null){
+            throw new IllegalArgumentException("Invalid signingKeys (" + id + ") for SecurityRealm (" + realmAnnotation.name() + "). Key ids should be unique.");
+        }
+    }
+
+    /**
+     * @param hasSigningKeys whether the realm has a key ring, so it does not need a signing secret
+     * @param derivedKeys whether the key of the realm is derived from the signing secret, so it is not shared with the other realms
+     * @return the secret of the key without id, or null if the realm only has keys with an id
+     */
+    private String buildSigningSecret(
+        SecurityRealm realmAnnotation, SecurityRealmConfigurationProperties defaultProperties, boolean annotationKeys, boolean hasSigningKeys, boolean derivedKeys
+    ) {
         // determine the source of the value (annotation or properties)
         String signingSecret = realmAnnotation.signingSecret();
         if(signingSecret == null || signingSecret.trim().isEmpty()){
+            if(annotationKeys || (hasSigningKeys && defaultProperties.getSigningSecret() == null)){
+                return null;
+            }
             if(defaultProperties.getSigningSecret() == null){
-                signingSecret = UUID.randomUUID().toString();
+                signingSecret = randomSigningSecrets.computeIfAbsent(realmAnnotation.name(), name -> UUID.randomUUID().toString());
                 log.warn(
                     "SecurityRealm ({}) does not specify a signing secret, "
                         + "nor configuration property security-realm.signing-secret was found, "
@@ -168,22 +513,108 @@ public class SecurityRealmScanner {
                 );
             }else{
                 signingSecret = defaultProperties.getSigningSecret();
-                log.warn(
-                    "SecurityRealm ({}) does not specify a signing secret, "
-                        + "will use the default specified under the configuration property security-realm.signing-secret",
-                    realmAnnotation.name()
-                );
+                if(!hasSigningKeys && !derivedKeys){
+                    log.warn(
+                        "SecurityRealm ({}) does not specify a signing secret, "
+                            + "will use the default specified under the configuration property security-realm.signing-secret",
+                        realmAnnotation.name()
+                    );
+                }
             }
         }
 
         // support placeholders in the expression
-        signingSecret = env.resolveRequiredPlaceholders(signingSecret);
+        return resolveRequiredPlaceholders(signingSecret);
+    }
+
+    private SecurityRealmAuthorityDictionary buildSecurityRealmAuthorityDictionary(SecurityRealm realmAnnotation) {
+        List<SecurityRealmAuthorityDictionary> beans = context
+            .getBeansOfType(SecurityRealmAuthorityDictionary.class)
+            .values()
+            .stream()
+            .filter(dictionary -> realmAnnotation.name().equals(dictionary.getRealm()))
+            .toList();
 
-        return new SecurityRealmTokenCodec(signingSecret);
+        if(beans.size() > 1 || (beans.size() == 1 && realmAnnotation.authorities().length > 0)){
+            throw new IllegalArgumentException(
+                "Found more than one authority dictionary (annotation or bean) for SecurityRealm (" + realmAnnotation.name() + ")"
+            );
+        }
+
+        if(beans.size() == 1){
+            return beans.get(0);
+        }
+
+        if(realmAnnotation.authorities().length == 0){
+            return null;
+        }
+
+        // support placeholders in the expression
+        List<String> authorities = new LinkedList<>();
+        for(String authority : realmAnnotation.authorities()){
+            authorities.add(resolveRequiredPlaceholders(authority));
+        }
+
+        return new SecurityRealmAuthorityDictionary(realmAnnotation.name(), authorities);
     }
 
-    private Duration buildFullyAuthenticatedTokenTtl(SecurityRealm realmAnnotation) {
-        SecurityRealmConfigurationProperties defaultProperties = context.getBean(SecurityRealmConfigurationProperties.class);
+    private SecurityRealmTokenFormat buildSecurityRealmTokenFormat(
+        SecurityRealm realmAnnotation, SecurityRealmKeyRing keyRing, SecurityRealmTokenFormat jwtFormat, SecurityRealmConfigurationProperties defaultProperties
+    ) {
+
+        // determine the source of the value (annotation or properties)
+        String format = resolvePlaceholders(realmAnnotation.tokenFormat()).trim();
+        if(format.isEmpty()){
+            format = defaultProperties.getTokenFormat() == null ? "JWT" : defaultProperties.getTokenFormat().trim();
+        }
+
+        if(format.equalsIgnoreCase("JWT")){
+            return jwtFormat;
+        }
+        if(format.equalsIgnoreCase("COMPACT")){
+            return new CompactSecurityRealmTokenFormat(keyRing);
+        }
+
+        try{
+            Class<?> formatClass = ClassUtils.forName(format, context.getClassLoader());
+            // formats that don't take the key ring sign and verify with the active key only
+            Constructor<?> keyRingConstructor = ClassUtils.getConstructorIfAvailable(formatClass, SecurityRealmKeyRing.class);
+            if(keyRingConstructor != null){
+                return (SecurityRealmTokenFormat) BeanUtils.instantiateClass(keyRingConstructor, keyRing);
+            }
+            return (SecurityRealmTokenFormat) BeanUtils.instantiateClass(formatClass.getConstructor(SecurityRealmSigningKey.class), keyRing.getActiveKey());
+        }catch(Exception e){
+            throw new IllegalArgumentException("Invalid tokenFormat (" + format + ") for SecurityRealm (" + realmAnnotation.name() + ")");
+        }
+    }
+
+    private SecurityRealmTokenDecoder buildSecurityRealmTokenDecoder(SecurityRealm realmAnnotation, SecurityRealmConfigurationProperties defaultProperties) {
+
+        // determine the source of the value (annotation or properties)
+        String decoder = resolvePlaceholders(realmAnnotation.tokenDecoder());
+        if(decoder.trim().isEmpty()){
+            return defaultProperties.getTokenDecoder() == null ? SecurityRealmTokenDecoder.STANDARD : defaultProperties.getTokenDecoder();
+        }
+
+        try{
+            return SecurityRealmTokenDecoder.valueOf(decoder.trim().toUpperCase());
+        }catch(Exception e){
+            throw new IllegalArgumentException("Invalid tokenDecoder (" + decoder + ") for SecurityRealm (" + realmAnnotation.name() + ")");
+        }
+    }
+
+    private SecurityRealmTokenCache buildSecurityRealmTokenCache(SecurityRealmConfigurationProperties defaultProperties) {
+        SecurityRealmConfigurationProperties.TokenCache properties = defaultProperties.getTokenCache();
+        return properties.isEnabled() ? new SecurityRealmTokenCache(properties.getMaximumSize()) : null;
+    }
+
+    private SecurityRealmMetrics buildSecurityRealmMetrics(SecurityRealm realmAnnotation) {
+        // no recorder (e.g. no MeterRegistry), no metrics, so the hot paths don't even read the clock
+        SecurityRealmMetricsRecorder recorder = context.getBeanProvider(SecurityRealmMetricsRecorder.class).getIfAvailable();
+        return recorder == null ? null : recorder.forRealm(realmAnnotation.name());
+    }
+
+    private Duration buildFullyAuthenticatedTokenTtl(SecurityRealm realmAnnotation, SecurityRealmConfigurationProperties defaultProperties) {
 
         // determine the source of the value (annotation or properties)
         String durationExpression = realmAnnotation.fullyAuthenticatedTokenTtl();
@@ -210,7 +641,7 @@ public class SecurityRealmScanner {
         }
 
         // support placeholders in the expression
-        durationExpression = env.resolvePlaceholders(durationExpression);
+        durationExpression = resolvePlaceholders(durationExpression);
 
         // parse
         Duration duration;
@@ -225,18 +656,15 @@ public class SecurityRealmScanner {
         return duration;
     }
 
-    private void scanForAnonymousAccess() {
+    private List<RequestMatcher> scanForAnonymousAccess(SecurityRealmRouteTable routeTable) {
         List<RequestMatcher> requestMatchers = new LinkedList<>();
 
-        // use map, so that if a class is annotated with both @Controller and @RestController we don't process it twice
-        Map<String, Object> beansMap = new HashMap<>();
-        beansMap.putAll(context.getBeansWithAnnotation(Controller.class));
-        beansMap.putAll(context.getBeansWithAnnotation(RestController.class));
-
-        for(Object bean : beansMap.values()){
+        // @RestController is meta-annotated with @Controller, so each controller is found once
+        for(Object bean : findBeans(Controller.class, index == null ? null : index.getAnonymousAccessClasses())){
             Method[] methods = AopUtils.getTargetClass(bean).getDeclaredMethods();
             for(Method method : methods){
-                if(!method.isAnnotationPresent(AnonymousAccess.class)){
+                AnonymousAccess anonymousAccess = method.getAnnotation(AnonymousAccess.class);
+                if(anonymousAccess == null){
                     continue;
                 }
 
@@ -262,17 +690,40 @@ public class SecurityRealmScanner {
 
                 for (String path : finalPaths) {
                     if (requestMethods.length == 0) { // No method restriction
-                        requestMatchers.add(PathPatternRequestMatcher.withDefaults().matcher(path));
+                        if (servletPresent) {
+                            requestMatchers.add(PathPatternRequestMatcher.withDefaults().matcher(path));
+                        }
+                        routeTable.addAnonymousRoute(null, path, anonymousAccess.anonymousOnly());
                     } else {
                         for (RequestMethod requestMethod : requestMethods) {
-                            requestMatchers.add(PathPatternRequestMatcher.withDefaults().matcher(requestMethod.asHttpMethod(), path));
+                            if (servletPresent) {
+                                requestMatchers.add(PathPatternRequestMatcher.withDefaults().matcher(requestMethod.asHttpMethod(), path));
+                            }
+                            routeTable.addAnonymousRoute(requestMethod.asHttpMethod(), path, anonymousAccess.anonymousOnly());
                         }
                     }
                 }
             }
         }
 
-        this.anonymousRequestMatchers = requestMatchers;
+        return requestMatchers;
     }
 
+    private String resolvePlaceholders(String text) {
+        recordPlaceholderKeys(text);
+        return env.resolvePlaceholders(text);
+    }
+
+    private String resolveRequiredPlaceholders(String text) {
+        recordPlaceholderKeys(text);
+        return env.resolveRequiredPlaceholders(text);
+    }
+
+    private void recordPlaceholderKeys(String text) {
+        placeholderHelper.replacePlaceholders(text, key -> {
+            scannedPlaceholderKeys.add(key);
+            // unresolved, so the default value is parsed too
+            return null;
+        });
+    }
 }
@@ -0,0 +1,81 @@
+package net.coder966.spring.multisecurityrealms.reflection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.coder966.spring.multisecurityrealms.converter.JwtSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenFormat;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+/**
+ * The result of a scan: the realms, with their token codecs, and the routes, as one immutable unit.
+ * <p>
+ * The scanner publishes a new snapshot on each scan, e.g. when the configuration is reloaded, and the filters read it once per request,
+ * so an in-flight request never sees the realms of one configuration and the routes of another, and never waits on a lock.
+ */
+public final class SecurityRealmSnapshot {
+
+    private final Map<String, SecurityRealmDescriptor> descriptors;
+    private final List<RequestMatcher> anonymousRequestMatchers;
+    private final SecurityRealmRouteTable routeTable;
+
+    // one instance of each token format (and JWT decoder) in use, reading a token does not depend on the realm
+    private final List<SecurityRealmTokenFormat> tokenFormats;
+
+    /**
+     * @param routeTable must not be modified once the snapshot is built
+     */
+    public SecurityRealmSnapshot(Collection<SecurityRealmDescriptor> descriptors, List<RequestMatcher> anonymousRequestMatchers, SecurityRealmRouteTable routeTable) {
+        Map<String, SecurityRealmDescriptor> descriptorsByName = new LinkedHashMap<>();
+        List<SecurityRealmTokenFormat> tokenFormats = new ArrayList<>();
+        for(SecurityRealmDescriptor descriptor : descriptors){
+            descriptorsByName.put(descriptor.getName(), descriptor);
+            descriptor.getSecurityRealmTokenCodec().getDecodingFormats().forEach(format -> {
+                if(tokenFormats.stream().noneMatch(existing -> readsAlike(existing, format))){
+                    tokenFormats.add(format);
+                }
+            });
+        }
+
+        this.descriptors = Collections.unmodifiableMap(descriptorsByName);
+        this.anonymousRequestMatchers = List.copyOf(anonymousRequestMatchers);
+        this.routeTable = routeTable;
+        this.tokenFormats = List.copyOf(tokenFormats);
+    }
+
+    /**
+     * The JWT format reads the tokens with its decoder, so that the realms of that decoder verify them without parsing them again.
+     */
+    private static boolean readsAlike(SecurityRealmTokenFormat format, SecurityRealmTokenFormat other) {
+        if(format.getClass() != other.getClass()){
+            return false;
+        }
+        return !(format instanceof JwtSecurityRealmTokenFormat jwtFormat) || jwtFormat.getDecoder() == ((JwtSecurityRealmTokenFormat) other).getDecoder();
+    }
+
+    public Collection<SecurityRealmDescriptor> getDescriptors() {
+        return descriptors.values();
+    }
+
+    /**
+     * @return the descriptor of the given realm, or null if there is no such realm
+     */
+    public SecurityRealmDescriptor getDescriptor(String realm) {
+        return realm == null ? null : descriptors.get(realm);
+    }
+
+    public List<RequestMatcher> getAnonymousRequestMatchers() {
+        return anonymousRequestMatchers;
+    }
+
+    public SecurityRealmRouteTable getRouteTable() {
+        return routeTable;
+    }
+
+    public List<SecurityRealmTokenFormat> getTokenFormats() {
+        return tokenFormats;
+    }
+}
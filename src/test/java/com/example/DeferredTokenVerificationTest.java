@@ -0,0 +1,125 @@
+package com.example;
+
+import com.example.dto.AuthOtpStepRequest;
+import com.example.dto.AuthUsernameAndPasswordStepRequest;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCacheStats;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmScanner;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpMethod;
+
+@SpringBootTest(
+    webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {
+        "security-realm.deferred-token-verification=true",
+        // the cache statistics tell whether the token was looked up
+        "security-realm.token-cache.enabled=true",
+        // otherwise the DispatcherServlet resolves the principal to publish a RequestHandledEvent
+        "spring.mvc.publish-request-handled-events=false"
+    }
+)
+public class DeferredTokenVerificationTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private SecurityRealmScanner securityRealmScanner;
+
+    @Test
+    public void tokenIsOnlyVerifiedWhenAuthenticationIsConsulted() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "tokenIsOnlyVerifiedWhenAuthenticationIsConsulted");
+
+        MultiSecurityRealmTest.SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/admin-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("khalid", "kpass"))
+            .exchange(MultiSecurityRealmTest.SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+
+        loginResponse = client
+            .request(HttpMethod.POST, "/admin-user/auth")
+            .header("Authorization", loginResponse.getToken())
+            .body(new AuthOtpStepRequest("1234"))
+            .exchange(MultiSecurityRealmTest.SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+
+        SecurityRealmTokenCacheStats before = getAdminRealmDescriptor().getSecurityRealmTokenCodec().getCache().getStats();
+
+        client
+            .request(HttpMethod.GET, "/actuator/health")
+            .header("Authorization", loginResponse.getToken())
+            .exchange(String.class)
+            .expectStatus(200);
+
+        SecurityRealmTokenCacheStats afterPublicRequest = getAdminRealmDescriptor().getSecurityRealmTokenCodec().getCache().getStats();
+
+        // a permitAll route never consults the authentication, so the token is not even looked up
+        Assertions.assertEquals(before.getHitCount() + before.getMissCount(), afterPublicRequest.getHitCount() + afterPublicRequest.getMissCount());
+
+        client
+            .request(HttpMethod.GET, "/admin-user/my-name")
+            .header("Authorization", loginResponse.getToken())
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("khalid");
+
+        SecurityRealmTokenCacheStats afterProtectedRequest = getAdminRealmDescriptor().getSecurityRealmTokenCodec().getCache().getStats();
+        Assertions.assertEquals(
+            afterPublicRequest.getHitCount() + afterPublicRequest.getMissCount() + 1,
+            afterProtectedRequest.getHitCount() + afterProtectedRequest.getMissCount()
+        );
+    }
+
+    @Test
+    public void realmContextIsAvailableBeforeTheAuthenticationIsConsulted() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "realmContextIsAvailableBeforeTheAuthenticationIsConsulted");
+
+        MultiSecurityRealmTest.SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/normal-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("mohammed", "mpass"))
+            .exchange(MultiSecurityRealmTest.SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+
+        // a permitAll route, the descriptor is resolved by verifying the token when it is read
+        client
+            .request(HttpMethod.GET, "/public/realm-name")
+            .header("Authorization", loginResponse.getToken())
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("NORMAL_USER");
+
+        client
+            .request(HttpMethod.GET, "/public/realm-name")
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("none");
+    }
+
+    @Test
+    public void anonymousRequestsCanMutateTheirDeferredSecurityContext() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "anonymousRequestsCanMutateTheirDeferredSecurityContext");
+
+        client
+            .request(HttpMethod.GET, "/open-apis/sign-out")
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("signed-out");
+    }
+
+    private SecurityRealmDescriptor getAdminRealmDescriptor() {
+        return securityRealmScanner
+            .getDescriptors()
+            .stream()
+            .filter(descriptor -> descriptor.getName().equals("ADMIN_USER"))
+            .findFirst()
+            .get();
+    }
+}
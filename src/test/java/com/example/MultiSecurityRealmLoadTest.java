@@ -0,0 +1,176 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.example.MultiSecurityRealmTest.SuccessResponse;
+import com.example.dto.AuthOtpStepRequest;
+import com.example.dto.AuthUsernameAndPasswordStepRequest;
+import com.example.entity.AdminUser;
+import com.example.entity.NormalUser;
+import com.example.other.Constants;
+import com.example.repo.AdminUserRepo;
+import com.example.repo.NormalUserRepo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpMethod;
+
+/**
+ * A load scenario of the test application on an embedded server: concurrent clients log in to both realms
+ * (username and password, then OTP), then call a realm protected api with the issued token.
+ * It reports the throughput and the p50, p99 and p999 latencies of each step.
+ * <p>
+ * It is skipped by the regular build, run it with:
+ * <pre>mvn test -Dtest=MultiSecurityRealmLoadTest -Dload-test=true</pre>
+ * Tune it with {@code -Dload-test.clients} (concurrent clients), {@code -Dload-test.logins} (logins per client, alternating realms),
+ * {@code -Dload-test.calls} (api calls per login) and {@code -Dload-test.warmup-logins} (logins per client that are not measured).
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "load-test", matches = "true")
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+public class MultiSecurityRealmLoadTest {
+
+    private final int clients = Integer.getInteger("load-test.clients", 16);
+    private final int logins = Integer.getInteger("load-test.logins", 50);
+    private final int calls = Integer.getInteger("load-test.calls", 10);
+    private final int warmupLogins = Integer.getInteger("load-test.warmup-logins", 10);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private AdminUserRepo adminUserRepo;
+
+    @Autowired
+    private NormalUserRepo normalUserRepo;
+
+    // by step, the latencies in nanoseconds
+    private final Map<String, Queue<Long>> latencies = new ConcurrentHashMap<>();
+
+    @Test
+    public void multiStepLogins() throws Exception {
+        // each client logs in as its own users, so that concurrent OTP steps don't clear each other's OTP
+        for(int i = 0; i < clients; i++){
+            adminUserRepo.save(new AdminUser("Load Admin " + i, "load-admin-" + i, "pass", new HashSet<>()));
+            normalUserRepo.save(new NormalUser("Load User " + i, "load-user-" + i, "pass"));
+        }
+
+        run(warmupLogins);
+        latencies.clear();
+
+        long start = System.nanoTime();
+        run(logins);
+        long elapsed = System.nanoTime() - start;
+
+        report(elapsed);
+    }
+
+    private void run(int loginsPerClient) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try{
+            List<Future<?>> futures = new ArrayList<>();
+            for(int i = 0; i < clients; i++){
+                int clientIndex = i;
+                futures.add(executor.submit(() -> runClient(clientIndex, loginsPerClient)));
+            }
+            for(Future<?> future : futures){
+                future.get();
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    private void runClient(int clientIndex, int loginsPerClient) {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "load-" + clientIndex);
+
+        for(int i = 0; i < loginsPerClient; i++){
+            boolean admin = (clientIndex + i) % 2 == 0;
+            String realm = admin ? "ADMIN_USER" : "NORMAL_USER";
+            String authenticationEndpoint = admin ? "/admin-user/auth" : "/normal-user/auth";
+            String username = (admin ? "load-admin-" : "load-user-") + clientIndex;
+
+            SuccessResponse firstStep = timed(realm + " " + Constants.StepNames.USERNAME_AND_PASSWORD, () -> client
+                .request(HttpMethod.POST, authenticationEndpoint)
+                .body(new AuthUsernameAndPasswordStepRequest(username, "pass"))
+                .exchange(SuccessResponse.class)
+                .expectStatus(200)
+                .readBody());
+
+            SuccessResponse otpStep = timed(realm + " " + Constants.StepNames.OTP, () -> client
+                .request(HttpMethod.POST, authenticationEndpoint)
+                .header("Authorization", firstStep.getToken())
+                .body(new AuthOtpStepRequest("1234"))
+                .exchange(SuccessResponse.class)
+                .expectStatus(200)
+                .readBody());
+
+            String api = admin ? "/admin-user/my-name" : "/normal-user/my-name";
+            for(int j = 0; j < calls; j++){
+                String name = timed(realm + " " + api, () -> client
+                    .request(HttpMethod.GET, api)
+                    .header("Authorization", otpStep.getToken())
+                    .exchange(String.class)
+                    .expectStatus(200)
+                    .readBody());
+                assertEquals(username, name);
+            }
+        }
+    }
+
+    private <T> T timed(String step, Supplier<T> request) {
+        long start = System.nanoTime();
+        T result = request.get();
+        latencies.computeIfAbsent(step, key -> new ConcurrentLinkedQueue<>()).add(System.nanoTime() - start);
+        return result;
+    }
+
+    private void report(long elapsedNanos) {
+        double elapsedSeconds = elapsedNanos / 1e9;
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(
+            "%n%d clients, %d logins each, %d api calls per login, in %.2f s%n", clients, logins, calls, elapsedSeconds
+        ));
+        report.append(String.format("%-40s %10s %12s %10s %10s %10s%n", "step", "count", "req/s", "p50 ms", "p99 ms", "p999 ms"));
+
+        for(Map.Entry<String, Queue<Long>> entry : new TreeMap<>(latencies).entrySet()){
+            long[] sorted = entry.getValue().stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            report.append(String.format(
+                "%-40s %10d %12.1f %10.2f %10.2f %10.2f%n",
+                entry.getKey(),
+                sorted.length,
+                sorted.length / elapsedSeconds,
+                percentileMillis(sorted, 0.50),
+                percentileMillis(sorted, 0.99),
+                percentileMillis(sorted, 0.999)
+            ));
+        }
+
+        log.info("Load test results:{}", report);
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
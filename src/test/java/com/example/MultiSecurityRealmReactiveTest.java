@@ -0,0 +1,219 @@
+package com.example;
+
+import com.example.MultiSecurityRealmTest.ErrorResponse;
+import com.example.MultiSecurityRealmTest.SuccessResponse;
+import com.example.dto.AuthOtpStepRequest;
+import com.example.dto.AuthUsernameAndPasswordStepRequest;
+import com.example.other.Constants.ErrorCodes;
+import com.example.other.Constants.StepNames;
+import java.time.Duration;
+import java.util.Set;
+import net.coder966.spring.multisecurityrealms.annotation.AnonymousAccess;
+import net.coder966.spring.multisecurityrealms.annotation.AuthenticationStep;
+import net.coder966.spring.multisecurityrealms.annotation.SecurityRealm;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationException;
+import net.coder966.spring.multisecurityrealms.reactive.ReactiveSecurityRealmContext;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.context.runner.ReactiveWebApplicationContextRunner;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import reactor.core.publisher.Mono;
+
+@SpringBootTest(
+    classes = MultiSecurityRealmReactiveTest.ReactiveTestApplication.class,
+    webEnvironment = WebEnvironment.MOCK,
+    properties = {
+        "spring.main.web-application-type=reactive",
+        "spring.autoconfigure.exclude="
+            + "org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration,"
+            + "org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration"
+    }
+)
+@AutoConfigureWebTestClient
+public class MultiSecurityRealmReactiveTest {
+
+    @Autowired
+    private WebTestClient client;
+
+    @Test
+    public void authenticationSuccess() {
+        client
+            .post()
+            .uri("/reactive-user/auth")
+            .bodyValue(new AuthUsernameAndPasswordStepRequest("lina", "wrong"))
+            .exchange()
+            .expectStatus().isEqualTo(400)
+            .expectBody(ErrorResponse.class).isEqualTo(new ErrorResponse(ErrorCodes.BAD_CREDENTIALS));
+
+        SuccessResponse response = client
+            .post()
+            .uri("/reactive-user/auth")
+            .bodyValue(new AuthUsernameAndPasswordStepRequest("lina", "lpass"))
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(SuccessResponse.class).returnResult().getResponseBody();
+        Assertions.assertEquals(new SuccessResponse("REACTIVE_USER", "ANY", StepNames.OTP, null, null), response);
+
+        // not fully authenticated yet
+        client
+            .get()
+            .uri("/reactive-user/my-name")
+            .header("Authorization", "Bearer " + response.getToken())
+            .exchange()
+            .expectStatus().isEqualTo(403);
+
+        response = client
+            .post()
+            .uri("/reactive-user/auth")
+            .header("Authorization", "Bearer " + response.getToken())
+            .bodyValue(new AuthOtpStepRequest("1234"))
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(SuccessResponse.class).returnResult().getResponseBody();
+        Assertions.assertEquals(new SuccessResponse("REACTIVE_USER", "ANY", null, null, null), response);
+
+        client
+            .get()
+            .uri("/reactive-user/my-name")
+            .header("Authorization", "Bearer " + response.getToken())
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class).isEqualTo("REACTIVE_USER:lina");
+
+        // logging in again once fully authenticated returns the current authentication
+        client
+            .post()
+            .uri("/reactive-user/auth")
+            .header("Authorization", "Bearer " + response.getToken())
+            .bodyValue(new AuthUsernameAndPasswordStepRequest("lina", "lpass"))
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(SuccessResponse.class).isEqualTo(new SuccessResponse("REACTIVE_USER", "ANY", null, null, null));
+    }
+
+    @Test
+    public void anonymousAccess() {
+        client
+            .get()
+            .uri("/reactive-user/my-name")
+            .exchange()
+            .expectStatus().isEqualTo(403);
+
+        client
+            .get()
+            .uri("/reactive-user/my-name")
+            .header("Authorization", "Bearer not-a-token")
+            .exchange()
+            .expectStatus().isEqualTo(403);
+
+        client
+            .get()
+            .uri("/reactive-open/who-am-i")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class).isEqualTo("anonymousUser");
+    }
+
+    @Test
+    public void servletOnlyAuthenticationStepsAreRejectedAtStartup() {
+        new ReactiveWebApplicationContextRunner()
+            .withUserConfiguration(ReactiveTestApplication.class, DeferredResultSecurityRealm.class)
+            .withPropertyValues(
+                "spring.autoconfigure.exclude="
+                    + "org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration,"
+                    + "org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration"
+            )
+            .run(context -> {
+                Assertions.assertNotNull(context.getStartupFailure());
+                Throwable cause = NestedExceptionUtils.getMostSpecificCause(context.getStartupFailure());
+                Assertions.assertInstanceOf(IllegalArgumentException.class, cause);
+                Assertions.assertTrue(cause.getMessage().startsWith("Invalid return type"), cause.getMessage());
+                Assertions.assertTrue(cause.getMessage().contains("DEFERRED_RESULT_USER"), cause.getMessage());
+            });
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @EnableAutoConfiguration
+    @Import({ReactiveUserSecurityRealm.class, ReactiveUserController.class})
+    static class ReactiveTestApplication {
+
+    }
+
+    @SecurityRealm(
+        name = "REACTIVE_USER",
+        authenticationEndpoint = "/reactive-user/auth",
+        firstStepName = StepNames.USERNAME_AND_PASSWORD
+    )
+    static class ReactiveUserSecurityRealm {
+
+        @AuthenticationStep(StepNames.USERNAME_AND_PASSWORD)
+        public Mono<SecurityRealmAuthentication> firstAuthenticationStep(@RequestBody AuthUsernameAndPasswordStepRequest request) {
+            if(!"lina".equals(request.getUsername()) || !"lpass".equals(request.getPassword())){
+                return Mono.error(new SecurityRealmAuthenticationException(ErrorCodes.BAD_CREDENTIALS));
+            }
+
+            return ReactiveSecurityRealmContext
+                .getCurrentStep()
+                .doOnNext(step -> Assertions.assertEquals(StepNames.USERNAME_AND_PASSWORD, step))
+                .map(step -> new SecurityRealmAuthentication("lina", null, StepNames.OTP, Duration.ofMinutes(5)));
+        }
+
+        @AuthenticationStep(StepNames.OTP)
+        public Mono<SecurityRealmAuthentication> otpAuthenticationStep(@RequestBody AuthOtpStepRequest request) {
+            return ReactiveSecurityContextHolder.getContext().map(context -> {
+                if(!"1234".equals(request.getOtp())){
+                    throw new SecurityRealmAuthenticationException(ErrorCodes.BAD_OTP);
+                }
+                return new SecurityRealmAuthentication(context.getAuthentication().getName(), Set.of(new SimpleGrantedAuthority("READ")));
+            });
+        }
+    }
+
+    @SecurityRealm(
+        name = "DEFERRED_RESULT_USER",
+        authenticationEndpoint = "/deferred-result-user/auth",
+        firstStepName = StepNames.USERNAME_AND_PASSWORD
+    )
+    static class DeferredResultSecurityRealm {
+
+        // only supported by the Servlet async support of Spring MVC
+        @AuthenticationStep(StepNames.USERNAME_AND_PASSWORD)
+        public DeferredResult<SecurityRealmAuthentication> firstAuthenticationStep(@RequestBody AuthUsernameAndPasswordStepRequest request) {
+            return new DeferredResult<>();
+        }
+    }
+
+    @RestController
+    static class ReactiveUserController {
+
+        @GetMapping("/reactive-user/my-name")
+        public Mono<String> myName() {
+            return ReactiveSecurityRealmContext
+                .getDescriptor()
+                .map(SecurityRealmDescriptor::getName)
+                .zipWith(ReactiveSecurityContextHolder.getContext(), (realm, context) -> realm + ":" + context.getAuthentication().getName());
+        }
+
+        @AnonymousAccess
+        @GetMapping("/reactive-open/who-am-i")
+        public Mono<String> whoAmI() {
+            return ReactiveSecurityContextHolder.getContext().map(context -> context.getAuthentication().getName());
+        }
+    }
+}
@@ -1,23 +1,56 @@
 package com.example;
 
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.example.config.AdminUserSecurityRealm;
+import com.example.config.AsyncUserSecurityRealm;
+import com.example.config.WebConfig;
+import com.example.controller.OpenApisFirstController;
 import com.example.dto.AuthOtpStepRequest;
 import com.example.dto.AuthUsernameAndPasswordStepRequest;
 import com.example.other.Constants;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.time.Duration;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContext;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContextHolderStrategy;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContextState;
+import net.coder966.spring.multisecurityrealms.context.ThreadLocalSecurityRealmContextHolderStrategy;
+import net.coder966.spring.multisecurityrealms.converter.JwtSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenDecoder;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.metrics.MicrometerSecurityRealmMetricsRecorder;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmIndex;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmRoute;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmRouteTable;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmScanner;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.Environment;
 import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
 @Slf4j
 @AutoConfigureMockMvc
@@ -27,6 +60,18 @@ public class MultiSecurityRealmTest {
     @LocalServerPort
     private int port;
 
+    @Autowired
+    private SecurityRealmScanner securityRealmScanner;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private Environment environment;
+
     @Test
     public void testLoginWithUserFromDifferentRealm() {
         BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "testLoginWithUserFromDifferentRealm");
@@ -182,6 +227,24 @@ public class MultiSecurityRealmTest {
             .expectBody("my-third-open-api");
     }
 
+    @Test
+    public void anonymousRequestsCanMutateTheirSecurityContext() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "anonymousRequestsCanMutateTheirSecurityContext");
+
+        client
+            .request(HttpMethod.GET, "/open-apis/sign-out")
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("signed-out");
+
+        // the anonymous authentication itself is shared, so the next anonymous request is still anonymous
+        client
+            .request(HttpMethod.GET, "/open-apis-3/my-anonymous-only-api")
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("anonymousUser");
+    }
+
     @Test
     public void testAccessingProtectedApisWithAuthenticationNotFinishedAllSteps() {
         BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "testAccessingProtectedApisWithAuthenticationNotFinishedAllSteps");
@@ -410,6 +473,535 @@ public class MultiSecurityRealmTest {
             .readBody();
     }
 
+    @Test
+    public void routeTableResolvesAuthenticationEndpointsAndAnonymousRoutes() {
+        SecurityRealmRouteTable routeTable = securityRealmScanner.getRouteTable();
+
+        Assertions.assertEquals("ADMIN_USER", routeTable.lookup(new MockHttpServletRequest("POST", "/admin-user/auth")).getAuthenticationRealm());
+        Assertions.assertEquals(SecurityRealmRoute.NONE, routeTable.lookup(new MockHttpServletRequest("GET", "/admin-user/auth")));
+
+        Assertions.assertEquals(SecurityRealmRoute.ANONYMOUS, routeTable.lookup(new MockHttpServletRequest("GET", "/my-first-open-api")));
+        Assertions.assertEquals(SecurityRealmRoute.ANONYMOUS, routeTable.lookup(new MockHttpServletRequest("GET", "/open-apis/my-second-open-api")));
+        Assertions.assertEquals(SecurityRealmRoute.NONE, routeTable.lookup(new MockHttpServletRequest("POST", "/my-first-open-api")));
+        Assertions.assertEquals(SecurityRealmRoute.NONE, routeTable.lookup(new MockHttpServletRequest("GET", "/my-first-open-api/")));
+        Assertions.assertEquals(SecurityRealmRoute.NONE, routeTable.lookup(new MockHttpServletRequest("GET", "/admin-user/my-name")));
+        Assertions.assertEquals(SecurityRealmRoute.ANONYMOUS_ONLY, routeTable.lookup(new MockHttpServletRequest("GET", "/open-apis-3/my-anonymous-only-api")));
+
+        // encoded paths are decoded before being matched
+        Assertions.assertEquals(SecurityRealmRoute.ANONYMOUS, routeTable.lookup(new MockHttpServletRequest("GET", "/my-first-open%2Dapi")));
+    }
+
+    @Test
+    public void indexedScanFindsTheSameRealmsAndRoutesAsTheBeanScan() {
+        // written by SecurityRealmIndexProcessor when compiling the test sources
+        SecurityRealmIndex index = SecurityRealmIndex.load(getClass().getClassLoader());
+        Assertions.assertNotNull(index);
+        Assertions.assertTrue(index.getSecurityRealmClasses().contains(AdminUserSecurityRealm.class.getName()));
+        Assertions.assertTrue(index.getAnonymousAccessClasses().contains(OpenApisFirstController.class.getName()));
+
+        SecurityRealmScanner indexed = new SecurityRealmScanner(applicationContext, environment, index);
+        indexed.scan();
+        SecurityRealmScanner scanned = new SecurityRealmScanner(applicationContext, environment, null);
+        scanned.scan();
+
+        Assertions.assertEquals(
+            scanned.getDescriptors().stream().map(SecurityRealmDescriptor::getName).collect(Collectors.toSet()),
+            indexed.getDescriptors().stream().map(SecurityRealmDescriptor::getName).collect(Collectors.toSet())
+        );
+        for(SecurityRealmDescriptor descriptor : indexed.getDescriptors()){
+            Assertions.assertNotNull(descriptor.getAuthenticationStepHandler(descriptor.getFirstStepName()), descriptor.getName());
+        }
+        Assertions.assertEquals(scanned.getAnonymousRequestMatchers().size(), indexed.getAnonymousRequestMatchers().size());
+
+        for(MockHttpServletRequest request : List.of(
+            new MockHttpServletRequest("POST", "/admin-user/auth"),
+            new MockHttpServletRequest("POST", "/normal-user/auth"),
+            new MockHttpServletRequest("GET", "/my-first-open-api"),
+            new MockHttpServletRequest("GET", "/open-apis/my-second-open-api"),
+            new MockHttpServletRequest("GET", "/open-apis-3/my-anonymous-only-api"),
+            new MockHttpServletRequest("GET", "/admin-user/my-name")
+        )){
+            Assertions.assertEquals(
+                scanned.getRouteTable().lookup(request).toString(),
+                indexed.getRouteTable().lookup(request).toString(),
+                request.getRequestURI()
+            );
+        }
+    }
+
+    @Test
+    public void indexMissingARealmFailsFast() {
+        // e.g. another jar of the classpath ships an index, but the module of the application was built without the processor
+        SecurityRealmIndex index = new SecurityRealmIndex(Set.of(AdminUserSecurityRealm.class.getName()), Set.of(OpenApisFirstController.class.getName()));
+        SecurityRealmScanner indexed = new SecurityRealmScanner(applicationContext, environment, index);
+
+        IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, indexed::scan);
+        Assertions.assertTrue(e.getMessage().contains("missing from the security realm index"), e.getMessage());
+    }
+
+    @Test
+    public void anonymousOnlyApiIgnoresTheToken() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "anonymousOnlyApiIgnoresTheToken");
+
+        SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/admin-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("khalid", "kpass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+
+        loginResponse = client
+            .request(HttpMethod.POST, "/admin-user/auth")
+            .header("Authorization", loginResponse.getToken())
+            .body(new AuthOtpStepRequest("1234"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+
+        long verifications = verificationCount("ADMIN_USER");
+
+        client
+            .request(HttpMethod.GET, "/open-apis-3/my-anonymous-only-api")
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("anonymousUser");
+
+        client
+            .request(HttpMethod.GET, "/open-apis-3/my-anonymous-only-api")
+            .header("Authorization", loginResponse.getToken())
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("anonymousUser");
+
+        Assertions.assertEquals(verifications, verificationCount("ADMIN_USER"));
+    }
+
+    @Test
+    public void asynchronousAuthenticationSteps() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "asynchronousAuthenticationSteps");
+
+        client
+            .request(HttpMethod.POST, "/async-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("sara", "wrong"))
+            .exchange(ErrorResponse.class)
+            .expectStatus(400)
+            .expectBody(new ErrorResponse(Constants.ErrorCodes.BAD_CREDENTIALS));
+
+        // CompletableFuture
+        SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/async-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("sara", "spass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .expectBody(new SuccessResponse("ASYNC_USER", "ANY", Constants.StepNames.OTP, null, null))
+            .readBody();
+
+        // Callable
+        loginResponse = client
+            .request(HttpMethod.POST, "/async-user/auth")
+            .header("Authorization", loginResponse.getToken())
+            .body(new AuthOtpStepRequest("1234"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .expectBody(new SuccessResponse("ASYNC_USER", "ANY", AsyncUserSecurityRealm.CONFIRM_STEP, null, null))
+            .readBody();
+
+        // DeferredResult
+        client
+            .request(HttpMethod.POST, "/async-user/auth")
+            .header("Authorization", loginResponse.getToken())
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .expectBody(new SuccessResponse("ASYNC_USER", "ANY", null, null, null));
+    }
+
+    @Test
+    public void metricsAreRecordedPerRealm() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "metricsAreRecordedPerRealm");
+
+        double failedSteps = stepCount("ASYNC_USER", Constants.StepNames.USERNAME_AND_PASSWORD, "failure");
+        double succeededSteps = stepCount("ASYNC_USER", Constants.StepNames.USERNAME_AND_PASSWORD, "success");
+        double partialTokens = count(MicrometerSecurityRealmMetricsRecorder.TOKENS_ISSUED, "realm", "ASYNC_USER", "type", "partial");
+        double badSignatures = count(MicrometerSecurityRealmMetricsRecorder.TOKEN_REJECTIONS, "realm", "ASYNC_USER", "cause", "bad_signature");
+        double unknownRealms = count(MicrometerSecurityRealmMetricsRecorder.TOKEN_REJECTIONS, "realm", "unknown", "cause", "malformed");
+        double anonymousRequests = count(MicrometerSecurityRealmMetricsRecorder.ANONYMOUS_REQUESTS, "access", "anonymous");
+
+        client
+            .request(HttpMethod.POST, "/async-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("sara", "wrong"))
+            .exchange(ErrorResponse.class)
+            .expectStatus(400);
+
+        // asynchronous step, timed until its result is written
+        SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/async-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("sara", "spass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+
+        // tampered signature
+        String token = loginResponse.getToken();
+        client
+            .request(HttpMethod.GET, "/my-first-open-api")
+            .header("Authorization", token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA"))
+            .exchange(String.class)
+            .expectStatus(200);
+
+        client
+            .request(HttpMethod.GET, "/my-first-open-api")
+            .header("Authorization", "not a token")
+            .exchange(String.class)
+            .expectStatus(200);
+
+        Assertions.assertEquals(failedSteps + 1, stepCount("ASYNC_USER", Constants.StepNames.USERNAME_AND_PASSWORD, "failure"));
+        Assertions.assertEquals(succeededSteps + 1, stepCount("ASYNC_USER", Constants.StepNames.USERNAME_AND_PASSWORD, "success"));
+        Assertions.assertEquals(partialTokens + 1, count(MicrometerSecurityRealmMetricsRecorder.TOKENS_ISSUED, "realm", "ASYNC_USER", "type", "partial"));
+        Assertions.assertEquals(badSignatures + 1, count(MicrometerSecurityRealmMetricsRecorder.TOKEN_REJECTIONS, "realm", "ASYNC_USER", "cause", "bad_signature"));
+        Assertions.assertEquals(unknownRealms + 1, count(MicrometerSecurityRealmMetricsRecorder.TOKEN_REJECTIONS, "realm", "unknown", "cause", "malformed"));
+        Assertions.assertEquals(anonymousRequests + 2, count(MicrometerSecurityRealmMetricsRecorder.ANONYMOUS_REQUESTS, "access", "anonymous"));
+    }
+
+    @Test
+    public void observationsAreRecordedPerRealm() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "observationsAreRecordedPerRealm");
+
+        double filters = observationCount("security.realm.filter", "realm", "ASYNC_USER", "route", "authentication_endpoint");
+        double steps = observationCount("security.realm.step", "realm", "ASYNC_USER", "step", Constants.StepNames.USERNAME_AND_PASSWORD);
+        double encodes = observationCount("security.realm.token.encode", "realm", "ASYNC_USER");
+        double decodes = observationCount("security.realm.token.decode", "realm", "ASYNC_USER");
+
+        SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/async-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("sara", "spass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+
+        client
+            .request(HttpMethod.POST, "/async-user/auth")
+            .header("Authorization", loginResponse.getToken())
+            .body(new AuthOtpStepRequest("1234"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200);
+
+        // each asynchronous step goes through the filter twice, once to start it and once to write its result
+        Assertions.assertEquals(filters + 4, observationCount("security.realm.filter", "realm", "ASYNC_USER", "route", "authentication_endpoint"));
+        Assertions.assertEquals(steps + 1, observationCount("security.realm.step", "realm", "ASYNC_USER", "step", Constants.StepNames.USERNAME_AND_PASSWORD));
+        Assertions.assertEquals(encodes + 2, observationCount("security.realm.token.encode", "realm", "ASYNC_USER"));
+        Assertions.assertTrue(observationCount("security.realm.token.decode", "realm", "ASYNC_USER") >= decodes + 1);
+    }
+
+    private double observationCount(String name, String... tags) {
+        Timer timer = meterRegistry.find(name).tags(tags).timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    private double stepCount(String realm, String step, String outcome) {
+        // the step timers are registered on the first invocation of the step
+        Timer timer = meterRegistry.find(MicrometerSecurityRealmMetricsRecorder.AUTHENTICATION_STEP).tags("realm", realm, "step", step, "outcome", outcome).timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    private long verificationCount(String realm) {
+        return meterRegistry.get(MicrometerSecurityRealmMetricsRecorder.TOKEN_VERIFICATION).tags("realm", realm).timer().count();
+    }
+
+    private double count(String name, String... tags) {
+        return meterRegistry.get(name).tags(tags).counter().count();
+    }
+
+    @Test
+    public void realmContextIsClearedOnceTheRequestIsDone() throws InterruptedException {
+        SecurityRealmContextHolderStrategy defaultStrategy = SecurityRealmContext.getContextHolderStrategy();
+        Set<Thread> threadsHoldingState = ConcurrentHashMap.newKeySet();
+        SecurityRealmContext.setContextHolderStrategy(new ThreadLocalSecurityRealmContextHolderStrategy() {
+            @Override
+            public void setState(SecurityRealmContextState state) {
+                super.setState(state);
+                threadsHoldingState.add(Thread.currentThread());
+            }
+
+            @Override
+            public void clearState() {
+                super.clearState();
+                threadsHoldingState.remove(Thread.currentThread());
+            }
+        });
+
+        try{
+            BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "realmContextIsClearedOnceTheRequestIsDone");
+
+            SuccessResponse loginResponse = client
+                .request(HttpMethod.POST, "/admin-user/auth")
+                .body(new AuthUsernameAndPasswordStepRequest("khalid", "kpass"))
+                .exchange(SuccessResponse.class)
+                .expectStatus(200)
+                .readBody();
+
+            client
+                .request(HttpMethod.POST, "/admin-user/auth")
+                .header("Authorization", loginResponse.getToken())
+                .body(new AuthOtpStepRequest("wrong"))
+                .exchange(ErrorResponse.class)
+                .expectStatus(400);
+
+            // the response may be received right before the filter returns
+            for(int i = 0; i < 50 && !threadsHoldingState.isEmpty(); i++){
+                Thread.sleep(20);
+            }
+            Assertions.assertEquals(Set.of(), threadsHoldingState);
+        }finally{
+            SecurityRealmContext.setContextHolderStrategy(defaultStrategy);
+        }
+    }
+
+    @Test
+    public void testLightweightTokenDecoder() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "testLightweightTokenDecoder");
+        SecurityRealmTokenFormat format = securityRealmScanner.getSnapshot().getDescriptor("LIGHTWEIGHT_USER").getSecurityRealmTokenCodec().getFormat();
+        Assertions.assertEquals(SecurityRealmTokenDecoder.LIGHTWEIGHT, ((JwtSecurityRealmTokenFormat) format).getDecoder());
+        format = securityRealmScanner.getSnapshot().getDescriptor("ADMIN_USER").getSecurityRealmTokenCodec().getFormat();
+        Assertions.assertEquals(SecurityRealmTokenDecoder.STANDARD, ((JwtSecurityRealmTokenFormat) format).getDecoder());
+        // the tokens are read with the decoder that verifies them, so the snapshot keeps a JWT format per decoder
+        Assertions.assertEquals(
+            Set.of(SecurityRealmTokenDecoder.STANDARD, SecurityRealmTokenDecoder.LIGHTWEIGHT),
+            securityRealmScanner
+                .getSnapshot()
+                .getTokenFormats()
+                .stream()
+                .filter(JwtSecurityRealmTokenFormat.class::isInstance)
+                .map(tokenFormat -> ((JwtSecurityRealmTokenFormat) tokenFormat).getDecoder())
+                .collect(Collectors.toSet())
+        );
+
+        SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/lightweight-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("omar", "opass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .expectBody(new SuccessResponse("LIGHTWEIGHT_USER", "ANY", Constants.StepNames.OTP, null, null))
+            .readBody();
+
+        // a partial token does not give access to the realm apis
+        client
+            .request(HttpMethod.GET, "/lightweight-user/my-name")
+            .header("Authorization", loginResponse.getToken())
+            .exchange(null)
+            .expectStatus(403);
+
+        loginResponse = client
+            .request(HttpMethod.POST, "/lightweight-user/auth")
+            .header("Authorization", loginResponse.getToken())
+            .body(new AuthOtpStepRequest("1234"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .expectBody(new SuccessResponse("LIGHTWEIGHT_USER", "ANY", null, Map.of("tenant", "acme"), null))
+            .readBody();
+        String token = loginResponse.getToken();
+
+        client
+            .request(HttpMethod.GET, "/lightweight-user/my-name")
+            .header("Authorization", token)
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("omar");
+
+        client
+            .request(HttpMethod.GET, "/lightweight-user/my-tenant")
+            .header("Authorization", token)
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("acme");
+
+        client
+            .request(HttpMethod.GET, "/lightweight-user/write")
+            .header("Authorization", token)
+            .exchange(null)
+            .expectStatus(403);
+
+        client
+            .request(HttpMethod.GET, "/lightweight-user/my-name")
+            .header("Authorization", token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA"))
+            .exchange(null)
+            .expectStatus(403);
+
+        client
+            .request(HttpMethod.GET, "/admin-user/my-name")
+            .header("Authorization", token)
+            .exchange(null)
+            .expectStatus(403);
+    }
+
+    @Test
+    public void testCompactTokenFormat() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "testCompactTokenFormat");
+
+        SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/compact-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("nora", "npass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .expectBody(new SuccessResponse("COMPACT_USER", "ANY", Constants.StepNames.OTP, null, null))
+            .readBody();
+
+        Assertions.assertFalse(loginResponse.getToken().contains("."), loginResponse.getToken());
+
+        loginResponse = client
+            .request(HttpMethod.POST, "/compact-user/auth")
+            .header("Authorization", loginResponse.getToken())
+            .body(new AuthOtpStepRequest("1234"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .expectBody(new SuccessResponse("COMPACT_USER", "ANY", null, null, null))
+            .readBody();
+
+        Assertions.assertFalse(loginResponse.getToken().contains("."), loginResponse.getToken());
+
+        client
+            .request(HttpMethod.GET, "/compact-user/my-name")
+            .header("Authorization", loginResponse.getToken())
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("nora");
+
+        client
+            .request(HttpMethod.GET, "/admin-user/my-name")
+            .header("Authorization", loginResponse.getToken())
+            .exchange(null)
+            .expectStatus(403);
+
+        // JWT tokens issued before switching to the compact format are still accepted
+        SecurityRealmAuthentication auth = new SecurityRealmAuthentication("ali", Set.of(new SimpleGrantedAuthority("READ")));
+        auth._UNSAFE_overrideRealm("COMPACT_USER");
+        String jwtToken = new SecurityRealmTokenCodec("f=s|<u1oaJmYQ:5h3D5*v|;^-Q,UeBq(").encode(auth, Duration.ofMinutes(5));
+
+        client
+            .request(HttpMethod.GET, "/compact-user/my-name")
+            .header("Authorization", jwtToken)
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("ali");
+
+        // but not the JWT tokens signed with another secret
+        String foreignJwtToken = new SecurityRealmTokenCodec("another secret").encode(auth, Duration.ofMinutes(5));
+        client
+            .request(HttpMethod.GET, "/compact-user/my-name")
+            .header("Authorization", foreignJwtToken)
+            .exchange(null)
+            .expectStatus(403);
+
+        // and the realms using JWT keep issuing JWT tokens
+        SuccessResponse normalUserResponse = client
+            .request(HttpMethod.POST, "/normal-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("mohammed", "mpass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+        Assertions.assertEquals(3, normalUserResponse.getToken().split("\\.").length, normalUserResponse.getToken());
+    }
+
+    @Test
+    public void testAuthenticationStepDispatch() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "testAuthenticationStepDispatch");
+
+        // the path variables of the endpoint are bound, and the mapped interceptors and @CrossOrigin still apply
+        client
+            .request(HttpMethod.POST, "/tenant-user/acme/auth")
+            .header("Origin", "https://tenant.example.com")
+            .body(new AuthUsernameAndPasswordStepRequest("layla", "lpass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .expectHeader("Access-Control-Allow-Origin", "https://tenant.example.com")
+            .expectHeader(WebConfig.TENANT_INTERCEPTOR_HEADER, "true")
+            .expectBody(new SuccessResponse("TENANT_USER", "ANY", null, Map.of("tenant", "acme"), null));
+
+        client
+            .request(HttpMethod.POST, "/tenant-user/acme/auth")
+            .header("Origin", "https://other.example.com")
+            .body(new AuthUsernameAndPasswordStepRequest("layla", "lpass"))
+            .exchange(String.class)
+            .expectStatus(403)
+            .expectHeaderDoesNotExist("Access-Control-Allow-Origin");
+
+        // the @ExceptionHandler methods of the realm come first
+        client
+            .request(HttpMethod.POST, "/tenant-user/other/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("layla", "lpass"))
+            .exchange(String.class)
+            .expectStatus(404)
+            .expectBody("Unknown tenant");
+
+        client
+            .request(HttpMethod.POST, "/tenant-user/acme/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("layla", "wrong"))
+            .exchange(ErrorResponse.class)
+            .expectStatus(400)
+            .expectBody(new ErrorResponse(Constants.ErrorCodes.BAD_CREDENTIALS));
+
+        // a token pointing to a step the realm does not have
+        SecurityRealmAuthentication auth = new SecurityRealmAuthentication("layla", null, "NO_SUCH_STEP", Duration.ofMinutes(5));
+        auth._UNSAFE_overrideRealm("TENANT_USER");
+        client
+            .request(HttpMethod.POST, "/tenant-user/acme/auth")
+            .header("Authorization", new SecurityRealmTokenCodec("f=s|<u1oaJmYQ:5h3D5*v|;^-Q,UeBq(").encode(auth, Duration.ofMinutes(5)))
+            .body(new AuthOtpStepRequest("1234"))
+            .exchange(null)
+            .expectStatus(404);
+    }
+
+    @Test
+    public void testAuthorityDictionary() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "testAuthorityDictionary");
+
+        SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/dictionary-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("reem", "rpass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .expectBody(new SuccessResponse("DICTIONARY_USER", "ANY", Constants.StepNames.OTP, null, null))
+            .readBody();
+
+        loginResponse = client
+            .request(HttpMethod.POST, "/dictionary-user/auth")
+            .header("Authorization", loginResponse.getToken())
+            .body(new AuthOtpStepRequest("1234"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .expectBody(new SuccessResponse("DICTIONARY_USER", "ANY", null, null, null))
+            .readBody();
+
+        // the authorities are all in the realm dictionary, so they are carried as a bitmask
+        DecodedJWT jwt = JWT.decode(loginResponse.getToken());
+        Assertions.assertFalse(jwt.getClaim("authoritiesMask").isMissing());
+        Assertions.assertTrue(jwt.getClaim("authorities").isMissing());
+
+        client
+            .request(HttpMethod.GET, "/dictionary-user/my-name")
+            .header("Authorization", loginResponse.getToken())
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody("reem");
+
+        client
+            .request(HttpMethod.GET, "/dictionary-user/write")
+            .header("Authorization", loginResponse.getToken())
+            .exchange(null)
+            .expectStatus(403);
+
+        // the realms without a dictionary keep carrying the authority names
+        SuccessResponse adminLoginResponse = client
+            .request(HttpMethod.POST, "/admin-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("hassan", "hpass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+
+        DecodedJWT adminJwt = JWT.decode(adminLoginResponse.getToken());
+        Assertions.assertTrue(adminJwt.getClaim("authoritiesMask").isMissing());
+        Assertions.assertFalse(adminJwt.getClaim("authorities").isMissing());
+    }
+
     @Setter
     @Getter
     @ToString
@@ -0,0 +1,58 @@
+package com.example;
+
+import com.example.config.AdminUserSecurityRealm;
+import com.example.controller.OpenApisFirstController;
+import com.example.dto.AuthOtpStepRequest;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import net.coder966.spring.multisecurityrealms.aot.SecurityRealmRuntimeHints;
+import net.coder966.spring.multisecurityrealms.dto.SecurityRealmAuthenticationSuccessResponse;
+import net.coder966.spring.multisecurityrealms.expression.PermitRealmExpressionRoot;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.boot.SpringApplicationAotProcessor;
+import org.springframework.context.aot.AbstractAotProcessor;
+
+public class SecurityRealmAotTest {
+
+    @Test
+    public void runtimeHintsCoverTheExpressionRootAndTheResponses() throws Exception {
+        RuntimeHints hints = new RuntimeHints();
+        new SecurityRealmRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onMethod(PermitRealmExpressionRoot.class.getMethod("permitRealm", String.class)).test(hints));
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onField(SecurityRealmAuthenticationSuccessResponse.class.getField("token")).test(hints));
+        Assertions.assertTrue(RuntimeHintsPredicates.resource().forResource(SecurityRealmIndex.LOCATION).test(hints));
+    }
+
+    @Test
+    public void aotProcessingPrecomputesTheRealmsOfTheApplication(@TempDir Path output) throws Exception {
+        AbstractAotProcessor.Settings settings = AbstractAotProcessor.Settings
+            .builder()
+            .sourceOutput(output.resolve("sources"))
+            .resourceOutput(output.resolve("resources"))
+            .classOutput(output.resolve("classes"))
+            .groupId("com.example")
+            .artifactId("test-application")
+            .build();
+        new SpringApplicationAotProcessor(TestApplication.class, settings, new String[0]).process();
+
+        // the scan result, so the native image does not scan the beans
+        String index = Files.readString(output.resolve("resources").resolve(SecurityRealmIndex.LOCATION));
+        Assertions.assertTrue(index.contains(AdminUserSecurityRealm.class.getName() + "=" + SecurityRealmIndex.SECURITY_REALM), index);
+        Assertions.assertTrue(index.contains(OpenApisFirstController.class.getName() + "=" + SecurityRealmIndex.ANONYMOUS_ACCESS), index);
+
+        // the authentication steps are invoked reflectively, and their request bodies are bound by Jackson
+        String reflectConfig = Files.readString(
+            output.resolve("resources").resolve("META-INF/native-image/com.example/test-application/reflect-config.json")
+        );
+        Method otpStep = AdminUserSecurityRealm.class.getMethod("otpAuthenticationStep", AuthOtpStepRequest.class);
+        Assertions.assertTrue(reflectConfig.contains(otpStep.getName()), reflectConfig);
+        Assertions.assertTrue(reflectConfig.contains(AuthOtpStepRequest.class.getName()), reflectConfig);
+    }
+}
@@ -0,0 +1,92 @@
+package com.example;
+
+import io.micrometer.context.ContextExecutorService;
+import io.micrometer.context.ContextSnapshotFactory;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContext;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContextTaskDecorator;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContextTaskExecutorCustomizer;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+public class SecurityRealmContextPropagationTest {
+
+    private final SecurityRealmDescriptor descriptor = new SecurityRealmDescriptor("REALM", null, "FIRST", null, null, Map.of(), null);
+
+    @AfterEach
+    public void clearContext() {
+        SecurityRealmContext.clear();
+    }
+
+    @Test
+    public void taskDecoratorCarriesTheRealmContext() throws Exception {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setTaskDecorator(new SecurityRealmContextTaskDecorator());
+        executor.initialize();
+        try{
+            // the worker thread is started without any realm context
+            Assertions.assertNull(executor.submit(SecurityRealmContext::getDescriptor).get());
+
+            SecurityRealmContext.setDescriptor(descriptor);
+            SecurityRealmContext.setCurrentStep("SECOND");
+            Assertions.assertSame(descriptor, executor.submit(SecurityRealmContext::getDescriptor).get());
+            Assertions.assertEquals("SECOND", executor.submit(SecurityRealmContext::getCurrentStep).get());
+
+            // and the context doesn't stay on the worker thread
+            SecurityRealmContext.clear();
+            Assertions.assertNull(executor.submit(SecurityRealmContext::getDescriptor).get());
+        }finally{
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void executorCustomizerKeepsTheApplicationTaskDecorator() throws Exception {
+        AtomicInteger decoratedTasks = new AtomicInteger();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        new SecurityRealmContextTaskExecutorCustomizer(runnable -> {
+            decoratedTasks.incrementAndGet();
+            return runnable;
+        }).customize(executor);
+        executor.initialize();
+        try{
+            SecurityRealmContext.setDescriptor(descriptor);
+            Assertions.assertSame(descriptor, executor.submit(SecurityRealmContext::getDescriptor).get());
+            Assertions.assertEquals(1, decoratedTasks.get());
+        }finally{
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void contextPropagationCarriesTheRealmContext() throws Exception {
+        ExecutorService executor = ContextExecutorService.wrap(
+            Executors.newSingleThreadExecutor(),
+            () -> ContextSnapshotFactory.builder().build().captureAll()
+        );
+        try{
+            SecurityRealmContext.setDescriptor(descriptor);
+            SecurityRealmContext.setCurrentStep("SECOND");
+            Assertions.assertSame(descriptor, executor.submit(SecurityRealmContext::getDescriptor).get());
+            Assertions.assertEquals("THIRD", executor.submit(() -> {
+                // the task works on its own copy
+                SecurityRealmContext.setCurrentStep("THIRD");
+                return SecurityRealmContext.getCurrentStep();
+            }).get());
+            Assertions.assertEquals("SECOND", SecurityRealmContext.getCurrentStep());
+
+            SecurityRealmContext.clear();
+            Assertions.assertNull(executor.submit(SecurityRealmContext::getDescriptor).get());
+        }finally{
+            executor.shutdown();
+        }
+    }
+}
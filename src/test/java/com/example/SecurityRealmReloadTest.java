@@ -0,0 +1,237 @@
+package com.example;
+
+import com.example.MultiSecurityRealmTest.SuccessResponse;
+import com.example.dto.AuthOtpStepRequest;
+import com.example.dto.AuthUsernameAndPasswordStepRequest;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.configuration.SecurityRealmConfigurationReloader;
+import net.coder966.spring.multisecurityrealms.converter.JwtSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmKeyDerivation;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmKeyRing;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmSigningKey;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmScanner;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmSnapshot;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+public class SecurityRealmReloadTest {
+
+    private static final String INITIAL_SECRET = "f=s|<u1oaJmYQ:5h3D5*v|;^-Q,UeBq(";
+    private static final String ROTATED_SECRET = "rotated-secret-9c1d6a0e-1f0b-4d4e-a3a5-3b1b0f6c2e77";
+
+    private static Path reloadFile;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private SecurityRealmScanner securityRealmScanner;
+
+    @Autowired
+    private SecurityRealmConfigurationReloader securityRealmConfigurationReloader;
+
+    @Autowired
+    private ConfigurableEnvironment environment;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @DynamicPropertySource
+    static void reloadFileProperties(DynamicPropertyRegistry registry) throws IOException {
+        reloadFile = Files.createTempFile("security-realm-reload", ".properties");
+        reloadFile.toFile().deleteOnExit();
+        registry.add("security-realm.reload.enabled", () -> "true");
+        registry.add("security-realm.reload.file", reloadFile::toString);
+        registry.add("security-realm.reload.interval", () -> "100ms");
+    }
+
+    @Test
+    public void changingTheFilePublishesNewRealmsWithoutTouchingThePreviousOnes() throws Exception {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "changingTheFilePublishesNewRealms");
+
+        SecurityRealmSnapshot previous = securityRealmScanner.getSnapshot();
+        String previousToken = token(INITIAL_SECRET);
+        expectName(client, previousToken, 200);
+
+        write("security-realm.signing-secret=" + ROTATED_SECRET + "\nsecurity-realm.fully-authenticated-token-ttl=5m\n");
+        SecurityRealmSnapshot current = awaitNewSnapshot(previous);
+
+        // the previous snapshot is untouched, e.g. for the requests that were being handled with it
+        Assertions.assertEquals(Duration.ofHours(3), previous.getDescriptor("NORMAL_USER").getFullyAuthenticatedTokenTtl());
+        Assertions.assertNotNull(previous.getDescriptor("NORMAL_USER").getSecurityRealmTokenCodec().decode(previousToken));
+
+        Assertions.assertEquals(Duration.ofMinutes(5), current.getDescriptor("NORMAL_USER").getFullyAuthenticatedTokenTtl());
+        // set by the annotation, which takes precedence over the properties
+        Assertions.assertEquals(Duration.ofHours(8), current.getDescriptor("ADMIN_USER").getFullyAuthenticatedTokenTtl());
+
+        expectName(client, previousToken, 403);
+        expectName(client, token(ROTATED_SECRET), 200);
+
+        SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/normal-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest("mohammed", "mpass"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+        loginResponse = client
+            .request(HttpMethod.POST, "/normal-user/auth")
+            .header("Authorization", loginResponse.getToken())
+            .body(new AuthOtpStepRequest("1234"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+        Assertions.assertEquals(Duration.ofMinutes(5).toSeconds(), loginResponse.getExpiresInSeconds());
+
+        // back to the initial configuration once the file is removed
+        Files.delete(reloadFile);
+        awaitNewSnapshot(current);
+        expectName(client, previousToken, 200);
+    }
+
+    @Test
+    public void signingKeysAreRotatedWithoutInvalidatingTheIssuedTokens() throws Exception {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "signingKeysAreRotated");
+
+        SecurityRealmSnapshot previous = securityRealmScanner.getSnapshot();
+        String previousToken = token(INITIAL_SECRET);
+
+        // the signing secret still verifies the tokens without key id
+        write("security-realm.signing-keys.2025-06=" + ROTATED_SECRET + "\nsecurity-realm.active-signing-key=2025-06\n");
+        SecurityRealmSnapshot current = awaitNewSnapshot(previous);
+
+        expectName(client, previousToken, 200);
+        expectName(client, token(new SecurityRealmKeyRing(new SecurityRealmSigningKey("2025-06", ROTATED_SECRET))), 200);
+        expectName(client, token(ROTATED_SECRET), 403);
+        expectName(client, token(new SecurityRealmKeyRing(new SecurityRealmSigningKey("2025-01", ROTATED_SECRET))), 403);
+
+        Files.delete(reloadFile);
+        awaitNewSnapshot(current);
+    }
+
+    @Test
+    public void derivedKeysAreUniquePerRealm() throws Exception {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "derivedKeysAreUniquePerRealm");
+
+        SecurityRealmSnapshot previous = securityRealmScanner.getSnapshot();
+        write("security-realm.key-derivation.enabled=true\n");
+        SecurityRealmSnapshot current = awaitNewSnapshot(previous);
+
+        SecurityRealmKeyDerivation derivation = new SecurityRealmKeyDerivation(10);
+        expectName(client, token(new SecurityRealmKeyRing(derivation.deriveKey(null, INITIAL_SECRET, "NORMAL_USER"))), 200);
+        // the shared secret no longer signs, nor does the key of another realm
+        expectName(client, token(INITIAL_SECRET), 403);
+        expectName(client, token(new SecurityRealmKeyRing(derivation.deriveKey(null, INITIAL_SECRET, "ADMIN_USER"))), 403);
+
+        Files.delete(reloadFile);
+        awaitNewSnapshot(current);
+        expectName(client, token(INITIAL_SECRET), 200);
+    }
+
+    @Test
+    public void onlyTheRealmPropertiesOfTheFileAreApplied() throws Exception {
+        String adminSecret = environment.getProperty("my-app.admin-realm-jwt-secret");
+
+        SecurityRealmSnapshot previous = securityRealmScanner.getSnapshot();
+        write("security-realm.fully-authenticated-token-ttl=7m\nmy-app.admin-realm-jwt-secret=overridden\n");
+        SecurityRealmSnapshot current = awaitNewSnapshot(previous);
+
+        Assertions.assertEquals(Duration.ofMinutes(7), current.getDescriptor("NORMAL_USER").getFullyAuthenticatedTokenTtl());
+        Assertions.assertEquals("7m", environment.getProperty("security-realm.fully-authenticated-token-ttl"));
+        // the file does not override the other properties of the application, even those used by the realms
+        Assertions.assertEquals(adminSecret, environment.getProperty("my-app.admin-realm-jwt-secret"));
+
+        Files.delete(reloadFile);
+        awaitNewSnapshot(current);
+    }
+
+    @Test
+    public void environmentChangesOnlyReloadWhenTheyTouchTheRealms() {
+        SecurityRealmSnapshot previous = securityRealmScanner.getSnapshot();
+
+        applicationContext.publishEvent(new EnvironmentChangeEvent(Set.of("spring.datasource.url", "logging.level.root")));
+        Assertions.assertSame(previous, securityRealmScanner.getSnapshot());
+
+        // resolved through a placeholder of @SecurityRealm
+        Assertions.assertTrue(securityRealmScanner.getPlaceholderKeys().contains("my-app.admin-realm-jwt-secret"));
+        applicationContext.publishEvent(new EnvironmentChangeEvent(Set.of("my-app.admin-realm-jwt-secret")));
+        SecurityRealmSnapshot current = securityRealmScanner.getSnapshot();
+        Assertions.assertNotSame(previous, current);
+
+        applicationContext.publishEvent(new EnvironmentChangeEvent(Set.of("security-realm.fully-authenticated-token-ttl")));
+        Assertions.assertNotSame(current, securityRealmScanner.getSnapshot());
+    }
+
+    @Test
+    public void invalidConfigurationKeepsThePreviousSnapshot() {
+        SecurityRealmSnapshot previous = securityRealmScanner.getSnapshot();
+
+        environment.getPropertySources().addFirst(new MapPropertySource("invalid", Map.of("security-realm.token-format", "NOT_A_FORMAT")));
+        try{
+            Assertions.assertFalse(securityRealmConfigurationReloader.reload());
+            Assertions.assertSame(previous, securityRealmScanner.getSnapshot());
+        }finally{
+            environment.getPropertySources().remove("invalid");
+        }
+
+        Assertions.assertTrue(securityRealmConfigurationReloader.reload());
+        Assertions.assertNotSame(previous, securityRealmScanner.getSnapshot());
+    }
+
+    private static void write(String properties) throws IOException {
+        // moved into place, so the watcher never reads a partially written file
+        Path temp = Files.createTempFile(reloadFile.getParent(), "security-realm-reload", ".tmp");
+        Files.writeString(temp, properties);
+        // some file systems only keep the modification time to the second
+        Files.setLastModifiedTime(temp, FileTime.from(Instant.now().plusSeconds(5)));
+        Files.move(temp, reloadFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private SecurityRealmSnapshot awaitNewSnapshot(SecurityRealmSnapshot previous) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while(securityRealmScanner.getSnapshot() == previous){
+            Assertions.assertTrue(System.nanoTime() < deadline, "the configuration was not reloaded");
+            Thread.sleep(50);
+        }
+        return securityRealmScanner.getSnapshot();
+    }
+
+    private static String token(String secret) {
+        return token(new SecurityRealmKeyRing(new SecurityRealmSigningKey(secret)));
+    }
+
+    private static String token(SecurityRealmKeyRing keys) {
+        SecurityRealmAuthentication auth = new SecurityRealmAuthentication("ali", Set.of());
+        auth._UNSAFE_overrideRealm("NORMAL_USER");
+        return SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(keys)).build().encode(auth, Duration.ofMinutes(5));
+    }
+
+    private static void expectName(BrowserEmulatorTestHttpClient client, String token, int status) {
+        client
+            .request(HttpMethod.GET, "/normal-user/my-name")
+            .header("Authorization", token)
+            .exchange(null)
+            .expectStatus(status);
+    }
+}
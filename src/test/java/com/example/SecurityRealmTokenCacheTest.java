@@ -0,0 +1,81 @@
+package com.example;
+
+import com.example.MultiSecurityRealmTest.SuccessResponse;
+import com.example.dto.AuthOtpStepRequest;
+import com.example.dto.AuthUsernameAndPasswordStepRequest;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCacheStats;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmScanner;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpMethod;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "security-realm.token-cache.enabled=true")
+public class SecurityRealmTokenCacheTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private SecurityRealmScanner securityRealmScanner;
+
+    @Test
+    public void fullyAuthenticatedTokenIsServedFromCache() {
+        BrowserEmulatorTestHttpClient client = new BrowserEmulatorTestHttpClient(port, "fullyAuthenticatedTokenIsServedFromCache");
+
+        String token = login(client, "khalid", "kpass");
+        SecurityRealmTokenCacheStats before = getStats();
+
+        for(int i = 0; i < 3; i++){
+            expectName(client, token, "khalid");
+        }
+
+        // the first request verifies the token, the next ones are served from the cache
+        SecurityRealmTokenCacheStats after = getStats();
+        Assertions.assertEquals(before.getMissCount() + 1, after.getMissCount(), after.toString());
+        Assertions.assertEquals(before.getHitCount() + 2, after.getHitCount(), after.toString());
+
+        // another token is verified once too
+        String anotherToken = login(client, "hassan", "hpass");
+        before = getStats();
+        expectName(client, anotherToken, "hassan");
+
+        after = getStats();
+        Assertions.assertEquals(before.getMissCount() + 1, after.getMissCount(), after.toString());
+        Assertions.assertEquals(before.getHitCount(), after.getHitCount(), after.toString());
+    }
+
+    private String login(BrowserEmulatorTestHttpClient client, String username, String password) {
+        SuccessResponse loginResponse = client
+            .request(HttpMethod.POST, "/admin-user/auth")
+            .body(new AuthUsernameAndPasswordStepRequest(username, password))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .readBody();
+
+        return client
+            .request(HttpMethod.POST, "/admin-user/auth")
+            .header("Authorization", loginResponse.getToken())
+            .body(new AuthOtpStepRequest("1234"))
+            .exchange(SuccessResponse.class)
+            .expectStatus(200)
+            .readBody()
+            .getToken();
+    }
+
+    private void expectName(BrowserEmulatorTestHttpClient client, String token, String name) {
+        client
+            .request(HttpMethod.GET, "/admin-user/my-name")
+            .header("Authorization", token)
+            .exchange(String.class)
+            .expectStatus(200)
+            .expectBody(name);
+    }
+
+    private SecurityRealmTokenCacheStats getStats() {
+        return securityRealmScanner.getSnapshot().getDescriptor("ADMIN_USER").getSecurityRealmTokenCodec().getCache().getStats();
+    }
+}
@@ -0,0 +1,448 @@
+package com.example;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthorityDictionary;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthoritySet;
+import net.coder966.spring.multisecurityrealms.converter.CompactSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.JwtSecurityRealmTokenFormat;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmKeyDerivation;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmKeyRing;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmSigningKey;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenClaims;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenCodec;
+import net.coder966.spring.multisecurityrealms.converter.SecurityRealmTokenDecoder;
+import net.coder966.spring.multisecurityrealms.configuration.SecurityRealmConfigurationProperties;
+import net.coder966.spring.multisecurityrealms.jfr.SecurityRealmTokenDecodeEvent;
+import net.coder966.spring.multisecurityrealms.jfr.SecurityRealmTokenEncodeEvent;
+import net.coder966.spring.multisecurityrealms.jfr.SecurityRealmTokenVerifyEvent;
+import net.coder966.spring.multisecurityrealms.metrics.MicrometerSecurityRealmMetricsRecorder;
+import net.coder966.spring.multisecurityrealms.metrics.SecurityRealmTokenFailure;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Differential tests, the lightweight decoder and the compact format must behave exactly like the standard JWT decoder.
+ */
+public class SecurityRealmTokenCodecTest {
+
+    private static final String SECRET = "f=s|<u1oaJmYQ:5h3D5*v|;^-Q,UeBq(";
+
+    private static final SecurityRealmSigningKey KEY = new SecurityRealmSigningKey(SECRET);
+
+    private final SecurityRealmTokenCodec standard = SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(KEY, SecurityRealmTokenDecoder.STANDARD)).build();
+    private final SecurityRealmTokenCodec lightweight = SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(KEY, SecurityRealmTokenDecoder.LIGHTWEIGHT)).build();
+    private final SecurityRealmTokenCodec compact = SecurityRealmTokenCodec.builder(new CompactSecurityRealmTokenFormat(KEY))
+        .legacyFormats(List.of(new JwtSecurityRealmTokenFormat(KEY)))
+        .build();
+
+    @Test
+    public void decodesTheSameAuthentication() {
+        Map<String, Object> extras = new HashMap<>();
+        extras.put("int", 1);
+        extras.put("negative", -7);
+        extras.put("long", 5_000_000_000L);
+        extras.put("double", 1.5);
+        extras.put("bool", true);
+        extras.put("null", null);
+        extras.put("string", "with \"quotes\", a \\ backslash, a\nnew line, a tab\t and unicode ✓ \u0001");
+        extras.put("list", List.of(1, "two", List.of(3.25, false)));
+        extras.put("map", Map.of("nested", Map.of("deep", "x")));
+
+        List<SecurityRealmAuthentication> authentications = List.of(
+            authentication("khalid", Set.of(), null, Map.of()),
+            authentication("khalid", Set.of("ROLE_ADMIN", "READ", "WRITE"), null, extras),
+            authentication("محمد", Set.of("صلاحية"), "OTP", Map.of("countBadges", 0))
+        );
+
+        for(SecurityRealmAuthentication authentication : authentications){
+            String token = standard.encode(authentication, Duration.ofMinutes(5));
+            assertSameAuthentication(standard.decode(token), lightweight.decode(token));
+            assertSameAuthentication(standard.decode(token), compact.decode(token));
+
+            String compactToken = compact.encode(authentication, Duration.ofMinutes(5));
+            assertSameAuthentication(standard.decode(token), compact.decode(compactToken));
+            Assertions.assertTrue(compactToken.length() < token.length(), compactToken);
+        }
+    }
+
+    @Test
+    public void compactFormatRejectsInvalidTokens() {
+        String token = compact.encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5));
+        char flipped = token.charAt(10) == 'A' ? 'B' : 'A';
+
+        List<String> invalidTokens = List.of(
+            "A",
+            "AAAA",
+            token.substring(0, token.length() - 2),
+            token.substring(0, 10) + flipped + token.substring(11),
+            token + "AA",
+            SecurityRealmTokenCodec.builder(new CompactSecurityRealmTokenFormat(new SecurityRealmSigningKey("another secret"))).build()
+                .encode(authentication("khalid", Set.of(), null, Map.of()), Duration.ofMinutes(5)),
+            compact.encode(authentication("khalid", Set.of(), null, Map.of()), Duration.ofSeconds(-5))
+        );
+
+        for(String invalidToken : invalidTokens){
+            Assertions.assertNull(compact.decode(invalidToken), invalidToken);
+        }
+
+        // compact tokens are not accepted by a realm that does not use the compact format
+        Assertions.assertNull(standard.decode(token));
+    }
+
+    @Test
+    public void decodesTokensWithUnknownClaims() {
+        String token = JWT
+            .create()
+            .withClaim("realm", "TEST_REALM")
+            .withSubject("khalid")
+            .withClaim("authorities", List.of("READ"))
+            .withClaim("unknown", Map.of("a", List.of(1, 2)))
+            .withIssuedAt(Instant.now())
+            .withExpiresAt(Instant.now().plusSeconds(60))
+            .sign(Algorithm.HMAC512(SECRET));
+
+        assertSameAuthentication(standard.decode(token), lightweight.decode(token));
+        Assertions.assertNotNull(lightweight.decode(token));
+    }
+
+    @Test
+    public void verifiesTheClaimsItReadWithoutParsingTheTokenAgain() {
+        for(SecurityRealmTokenDecoder decoder : SecurityRealmTokenDecoder.values()){
+            JwtSecurityRealmTokenFormat format = new JwtSecurityRealmTokenFormat(KEY, decoder);
+            String token = format.encode(authentication("khalid", Set.of("READ"), null, Map.of()), Instant.now().plusSeconds(60));
+
+            SecurityRealmTokenClaims claims = format.read(token);
+            Assertions.assertSame(claims, format.verify(claims), decoder.name());
+        }
+    }
+
+    @Test
+    public void rejectsTheSameTokens() {
+        String token = standard.encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5));
+        String[] parts = token.split("\\.");
+
+        List<String> invalidTokens = List.of(
+            "",
+            "garbage",
+            "a.b.c",
+            parts[0] + "." + parts[1],
+            parts[0] + "." + parts[1] + ".",
+            parts[0] + "." + parts[1] + "." + parts[2].substring(0, parts[2].length() - 2),
+            parts[0] + "." + parts[1].substring(0, parts[1].length() - 4) + "." + parts[2],
+            new SecurityRealmTokenCodec("another secret").encode(authentication("khalid", Set.of(), null, Map.of()), Duration.ofMinutes(5)),
+            standard.encode(authentication("khalid", Set.of(), null, Map.of()), Duration.ofSeconds(-5)),
+            JWT.create().withClaim("realm", "TEST_REALM").withSubject("khalid").withClaim("authorities", List.of()).sign(Algorithm.none()),
+            JWT.create().withClaim("realm", "TEST_REALM").withSubject("khalid").withClaim("authorities", List.of()).sign(Algorithm.HMAC256(SECRET)),
+            JWT.create().withClaim("realm", "TEST_REALM").withClaim("authorities", List.of()).sign(Algorithm.HMAC512(SECRET)),
+            JWT.create().withClaim("realm", "TEST_REALM").withSubject("khalid").sign(Algorithm.HMAC512(SECRET)),
+            JWT.create().withClaim("realm", "TEST_REALM").withSubject("khalid").withClaim("authorities", 7).sign(Algorithm.HMAC512(SECRET)),
+            JWT.create().withClaim("realm", "TEST_REALM").withSubject("khalid").withClaim("authorities", "READ").sign(Algorithm.HMAC512(SECRET)),
+            JWT.create().withClaim("realm", "TEST_REALM").withSubject("khalid").withClaim("authorities", Map.of("READ", true)).sign(Algorithm.HMAC512(SECRET))
+        );
+
+        for(String invalidToken : invalidTokens){
+            Assertions.assertNull(standard.decode(invalidToken), invalidToken);
+            Assertions.assertNull(lightweight.decode(invalidToken), invalidToken);
+        }
+    }
+
+    @Test
+    public void rejectedTokensAreCountedByCause() {
+        for(SecurityRealmTokenDecoder decoder : SecurityRealmTokenDecoder.values()){
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            MicrometerSecurityRealmMetricsRecorder recorder = new MicrometerSecurityRealmMetricsRecorder(registry, new SecurityRealmConfigurationProperties.Metrics());
+            SecurityRealmTokenCodec codec = SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(KEY, decoder))
+                .metrics(recorder.forRealm("TEST_REALM"))
+                .build();
+
+            String token = codec.encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5));
+            Assertions.assertNotNull(codec.decode(token));
+            Assertions.assertNull(codec.decode(new SecurityRealmTokenCodec("another secret").encode(authentication("khalid", Set.of(), null, Map.of()), Duration.ofMinutes(5))));
+            Assertions.assertNull(codec.decode(codec.encode(authentication("khalid", Set.of(), null, Map.of()), Duration.ofSeconds(-5))));
+            Assertions.assertNull(codec.decode(JWT.create().withClaim("realm", "TEST_REALM").withSubject("khalid").sign(Algorithm.HMAC512(SECRET))));
+
+            Assertions.assertEquals(4, registry.get(MicrometerSecurityRealmMetricsRecorder.TOKEN_VERIFICATION).timer().count(), decoder.name());
+            for(SecurityRealmTokenFailure failure : SecurityRealmTokenFailure.values()){
+                double expected = failure == SecurityRealmTokenFailure.WRONG_REALM ? 0 : 1;
+                double actual = registry
+                    .get(MicrometerSecurityRealmMetricsRecorder.TOKEN_REJECTIONS)
+                    .tags("realm", "TEST_REALM", "cause", failure.name().toLowerCase())
+                    .counter()
+                    .count();
+                Assertions.assertEquals(expected, actual, decoder.name() + " " + failure.name());
+            }
+        }
+    }
+
+    @Test
+    public void flightRecorderEventsAreOnlyRecordedWhenEnabled() throws Exception {
+        SecurityRealmTokenCodec codec = SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(KEY)).build();
+
+        Assertions.assertTrue(recordEvents(codec, false).isEmpty());
+
+        List<RecordedEvent> events = recordEvents(codec, true);
+        Map<String, List<RecordedEvent>> eventsByName = events.stream().collect(Collectors.groupingBy(event -> event.getEventType().getName()));
+
+        RecordedEvent encode = eventsByName.get("net.coder966.spring.multisecurityrealms.TokenEncode").get(0);
+        Assertions.assertEquals("TEST_REALM", encode.getString("realm"));
+        Assertions.assertTrue(encode.getBoolean("fullyAuthenticated"));
+
+        List<String> decodeOutcomes = eventsByName.get("net.coder966.spring.multisecurityrealms.TokenDecode").stream().map(event -> event.getString("outcome")).toList();
+        Assertions.assertEquals(List.of("accepted", "bad_signature"), decodeOutcomes);
+
+        List<Boolean> verifications = eventsByName.get("net.coder966.spring.multisecurityrealms.TokenVerify").stream().map(event -> event.getBoolean("valid")).toList();
+        Assertions.assertEquals(List.of(true, false), verifications);
+    }
+
+    private List<RecordedEvent> recordEvents(SecurityRealmTokenCodec codec, boolean enabled) throws Exception {
+        Path file = Files.createTempFile("security-realm", ".jfr");
+        try(Recording recording = new Recording()){
+            if(enabled){
+                recording.enable(SecurityRealmTokenEncodeEvent.class).withoutThreshold();
+                recording.enable(SecurityRealmTokenDecodeEvent.class).withoutThreshold();
+                recording.enable(SecurityRealmTokenVerifyEvent.class).withoutThreshold();
+            }
+            recording.start();
+
+            String token = codec.encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5));
+            Assertions.assertNotNull(codec.decode(token));
+            Assertions.assertNull(codec.decode(token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA")));
+
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile
+                .readAllEvents(file)
+                .stream()
+                .filter(event -> event.getEventType().getName().startsWith("net.coder966.spring.multisecurityrealms."))
+                .toList();
+        }finally{
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void authoritiesAreCarriedAsBitmaskWhenInTheDictionary() {
+        SecurityRealmAuthorityDictionary dictionary = new SecurityRealmAuthorityDictionary("TEST_REALM", List.of("READ", "WRITE", "DELETE"));
+
+        List<SecurityRealmTokenCodec> codecs = List.of(
+            SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(KEY, SecurityRealmTokenDecoder.STANDARD)).authorityDictionary(dictionary).build(),
+            SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(KEY, SecurityRealmTokenDecoder.LIGHTWEIGHT)).authorityDictionary(dictionary).build(),
+            SecurityRealmTokenCodec.builder(new CompactSecurityRealmTokenFormat(KEY)).authorityDictionary(dictionary).build()
+        );
+
+        for(SecurityRealmTokenCodec codec : codecs){
+            SecurityRealmAuthentication known = codec.decode(codec.encode(authentication("khalid", Set.of("READ", "DELETE"), null, Map.of()), Duration.ofMinutes(5)));
+            Assertions.assertInstanceOf(SecurityRealmAuthoritySet.class, known.getAuthorities());
+            Assertions.assertEquals(Set.of(new SimpleGrantedAuthority("READ"), new SimpleGrantedAuthority("DELETE")), known.getAuthorities());
+            Assertions.assertTrue(known.getAuthorities().contains(new SimpleGrantedAuthority("DELETE")));
+            Assertions.assertFalse(known.getAuthorities().contains(new SimpleGrantedAuthority("WRITE")));
+            Assertions.assertSame(dictionary.get("READ"), known.getAuthorities().iterator().next());
+
+            // the encoded authentication is left untouched, even when it is immutable
+            SecurityRealmAuthentication encoded = authentication("khalid", Set.of("READ", "WRITE"), null, Map.of());
+            encoded._UNSAFE_makeImmutable();
+            Set<? extends GrantedAuthority> authorities = encoded.getAuthorities();
+            Assertions.assertInstanceOf(SecurityRealmAuthoritySet.class, codec.decode(codec.encode(encoded, Duration.ofMinutes(5))).getAuthorities());
+            Assertions.assertSame(authorities, encoded.getAuthorities());
+
+            // an authority outside the dictionary falls back to the names
+            SecurityRealmAuthentication unknown = codec.decode(codec.encode(authentication("khalid", Set.of("READ", "OTHER"), null, Map.of()), Duration.ofMinutes(5)));
+            Assertions.assertFalse(unknown.getAuthorities() instanceof SecurityRealmAuthoritySet);
+            Assertions.assertEquals(Set.of(new SimpleGrantedAuthority("READ"), new SimpleGrantedAuthority("OTHER")), unknown.getAuthorities());
+
+            // a realm without the dictionary can not make sense of the bitmask
+            String maskToken = codec.encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5));
+            SecurityRealmTokenCodec withoutDictionary = SecurityRealmTokenCodec.builder(codec.getFormat()).build();
+            Assertions.assertNull(withoutDictionary.decode(maskToken));
+        }
+
+        // bits outside a (shrunk) dictionary are rejected
+        String token = codecs.get(0).encode(authentication("khalid", Set.of("DELETE"), null, Map.of()), Duration.ofMinutes(5));
+        SecurityRealmAuthorityDictionary shrunk = new SecurityRealmAuthorityDictionary("TEST_REALM", List.of("READ", "WRITE"));
+        Assertions.assertNull(SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(KEY)).authorityDictionary(shrunk).build().decode(token));
+    }
+
+    @Test
+    public void emptyExtrasAreNotAllocated() {
+        for(SecurityRealmTokenCodec codec : List.of(standard, lightweight, compact)){
+            SecurityRealmAuthentication auth = codec.decode(codec.encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5)));
+            Assertions.assertSame(Collections.emptyMap(), auth.getExtras());
+
+            // still mutable, as long as it is not cached
+            auth.addExtra("key", "value");
+            Assertions.assertEquals(Map.of("key", "value"), auth.getExtras());
+        }
+    }
+
+    @Test
+    public void rotatedKeysStillVerifyTheTokensTheySigned() {
+        SecurityRealmSigningKey previousKey = new SecurityRealmSigningKey("2025-01", "previous secret");
+        SecurityRealmSigningKey currentKey = new SecurityRealmSigningKey("2025-06", "current secret");
+
+        // before the rotation: the realm has no key id yet, then signs with its first key
+        SecurityRealmKeyRing unnamed = new SecurityRealmKeyRing(KEY);
+        SecurityRealmKeyRing before = new SecurityRealmKeyRing(previousKey, List.of(KEY));
+        SecurityRealmKeyRing after = new SecurityRealmKeyRing(currentKey, List.of(previousKey, KEY));
+        SecurityRealmKeyRing retired = new SecurityRealmKeyRing(currentKey);
+
+        for(SecurityRealmTokenDecoder decoder : SecurityRealmTokenDecoder.values()){
+            for(boolean compactFormat : List.of(false, true)){
+                List<SecurityRealmTokenCodec> codecs = new ArrayList<>();
+                for(SecurityRealmKeyRing keys : List.of(unnamed, before, after, retired)){
+                    codecs.add(SecurityRealmTokenCodec.builder(
+                        compactFormat ? new CompactSecurityRealmTokenFormat(keys) : new JwtSecurityRealmTokenFormat(keys, decoder)
+                    ).build());
+                }
+
+                String unnamedToken = codecs.get(0).encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5));
+                String previousToken = codecs.get(1).encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5));
+                String currentToken = codecs.get(2).encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5));
+
+                if(!compactFormat){
+                    Assertions.assertNull(JWT.decode(unnamedToken).getKeyId());
+                    Assertions.assertEquals("2025-01", JWT.decode(previousToken).getKeyId());
+                    Assertions.assertEquals("2025-06", JWT.decode(currentToken).getKeyId());
+                }
+
+                for(String token : List.of(unnamedToken, previousToken, currentToken)){
+                    assertSameAuthentication(codecs.get(0).decode(unnamedToken), codecs.get(2).decode(token));
+                }
+                Assertions.assertNotNull(codecs.get(1).decode(unnamedToken));
+                Assertions.assertNull(codecs.get(1).decode(currentToken), "unknown key id");
+
+                // once the previous keys are removed
+                Assertions.assertNull(codecs.get(3).decode(unnamedToken));
+                Assertions.assertNull(codecs.get(3).decode(previousToken));
+                Assertions.assertNotNull(codecs.get(3).decode(currentToken));
+            }
+        }
+
+        // a token claiming the id of another key is verified by that key only
+        SecurityRealmKeyRing forged = new SecurityRealmKeyRing(new SecurityRealmSigningKey("2025-06", "forged secret"));
+        String forgedToken = SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(forged)).build()
+            .encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5));
+        Assertions.assertNull(SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(after)).build().decode(forgedToken));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SecurityRealmKeyRing(currentKey, List.of(new SecurityRealmSigningKey("2025-06", "x"))));
+    }
+
+    @Test
+    public void derivedKeysAreDistinctPerRealmAndBoundedInMemory() {
+        byte[] data = "header.payload".getBytes();
+        SecurityRealmKeyDerivation derivation = new SecurityRealmKeyDerivation(2);
+
+        SecurityRealmSigningKey tenant1 = derivation.deriveKey(null, SECRET, "TENANT_1");
+        SecurityRealmSigningKey tenant2 = derivation.deriveKey(null, SECRET, "TENANT_2");
+        SecurityRealmSigningKey tenant1WithId = derivation.deriveKey("2025-06", SECRET, "TENANT_1");
+        Assertions.assertEquals(2, derivation.size());
+        Assertions.assertEquals(2, derivation.getDerivationCount(), "only derived up front while the cache has room");
+        Assertions.assertEquals(1, derivation.getExtractionCount(), "extracted once for the master secret");
+
+        Assertions.assertFalse(Arrays.equals(KEY.sign(data), tenant1.sign(data)), "the master secret is never used as is");
+        Assertions.assertFalse(Arrays.equals(tenant1.sign(data), tenant2.sign(data)));
+        Assertions.assertFalse(Arrays.equals(tenant1.sign(data), tenant1WithId.sign(data)));
+        Assertions.assertNull(tenant1.getId());
+        Assertions.assertEquals("2025-06", tenant1WithId.getId());
+
+        // the same key, whichever instance derived it
+        Assertions.assertArrayEquals(tenant1.sign(data), new SecurityRealmKeyDerivation(1).deriveKey(null, SECRET, "TENANT_1").sign(data));
+        Assertions.assertArrayEquals(Arrays.copyOf(SecurityRealmKeyDerivation.hkdf(data, data, 100), 64), SecurityRealmKeyDerivation.hkdf(data, data, 64));
+
+        // evicted keys are derived again, and still verify the tokens they signed
+        for(SecurityRealmKeyRing keys : List.of(new SecurityRealmKeyRing(tenant1), new SecurityRealmKeyRing(tenant1WithId))){
+            SecurityRealmTokenCodec jwt = SecurityRealmTokenCodec.builder(new JwtSecurityRealmTokenFormat(keys, SecurityRealmTokenDecoder.LIGHTWEIGHT)).build();
+            SecurityRealmTokenCodec compactCodec = SecurityRealmTokenCodec.builder(new CompactSecurityRealmTokenFormat(keys)).build();
+            for(SecurityRealmTokenCodec codec : List.of(jwt, compactCodec)){
+                String token = codec.encode(authentication("khalid", Set.of("READ"), null, Map.of()), Duration.ofMinutes(5));
+                tenant2.sign(data);
+                Assertions.assertNotNull(codec.decode(token));
+                Assertions.assertTrue(derivation.size() <= 2);
+            }
+        }
+
+        // no derivation once the keys in use are cached
+        tenant2.sign(data);
+        long derivationCount = derivation.getDerivationCount();
+        for(int i = 0; i < 100; i++){
+            tenant2.sign(data);
+        }
+        Assertions.assertEquals(derivationCount, derivation.getDerivationCount());
+        // the keys evicted and derived again, or derived for another master secret, only extract the new master secret
+        Assertions.assertEquals(1, derivation.getExtractionCount());
+        derivation.deriveKey(null, "another secret", "TENANT_1");
+        derivation.deriveKey(null, "another secret", "TENANT_2");
+        Assertions.assertEquals(2, derivation.getExtractionCount());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SecurityRealmKeyDerivation(0));
+    }
+
+    @Test
+    public void signingKeyIsSafeToShareBetweenThreads() throws Exception {
+        byte[] data = "header.payload".getBytes();
+        byte[] expected = new SecurityRealmSigningKey(SECRET).sign(data);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try{
+            List<Future<Boolean>> results = new ArrayList<>();
+            for(int i = 0; i < 64; i++){
+                results.add(executor.submit(() -> {
+                    for(int j = 0; j < 200; j++){
+                        if(!KEY.verify(data, 0, data.length, expected)){
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for(Future<Boolean> result : results){
+                Assertions.assertTrue(result.get());
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    private SecurityRealmAuthentication authentication(String name, Set<String> authorities, String nextStep, Map<String, Object> extras) {
+        Set<GrantedAuthority> grantedAuthorities = authorities.stream().map(SimpleGrantedAuthority::new).collect(Collectors.toSet());
+        SecurityRealmAuthentication authentication = nextStep == null
+            ? new SecurityRealmAuthentication(name, grantedAuthorities)
+            : new SecurityRealmAuthentication(name, grantedAuthorities, nextStep, Duration.ofMinutes(5));
+        extras.forEach(authentication::addExtra);
+        authentication._UNSAFE_overrideRealm("TEST_REALM");
+        return authentication;
+    }
+
+    private void assertSameAuthentication(SecurityRealmAuthentication expected, SecurityRealmAuthentication actual) {
+        Assertions.assertNotNull(expected);
+        Assertions.assertNotNull(actual);
+        Assertions.assertEquals(expected.getRealm(), actual.getRealm());
+        Assertions.assertEquals(expected.getName(), actual.getName());
+        Assertions.assertEquals(expected.getAuthorities(), actual.getAuthorities());
+        Assertions.assertEquals(expected.getNextAuthenticationStep(), actual.getNextAuthenticationStep());
+        Assertions.assertEquals(expected.isAuthenticated(), actual.isAuthenticated());
+        Assertions.assertEquals(expected.getExtras(), actual.getExtras());
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.config;
+
+import com.example.dto.AuthOtpStepRequest;
+import com.example.dto.AuthUsernameAndPasswordStepRequest;
+import com.example.other.Constants.ErrorCodes;
+import com.example.other.Constants.StepNames;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import net.coder966.spring.multisecurityrealms.annotation.AuthenticationStep;
+import net.coder966.spring.multisecurityrealms.annotation.SecurityRealm;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContext;
+import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.context.request.async.DeferredResult;
+
+@SecurityRealm(
+    name = "ASYNC_USER",
+    authenticationEndpoint = "/async-user/auth",
+    firstStepName = StepNames.USERNAME_AND_PASSWORD
+)
+public class AsyncUserSecurityRealm {
+
+    public static final String CONFIRM_STEP = "CONFIRM";
+
+    @AuthenticationStep(StepNames.USERNAME_AND_PASSWORD)
+    public CompletableFuture<SecurityRealmAuthentication> firstAuthenticationStep(@RequestBody AuthUsernameAndPasswordStepRequest request) {
+        // e.g. a slow password hash
+        return CompletableFuture.supplyAsync(() -> {
+            if(!"sara".equals(request.getUsername()) || !"spass".equals(request.getPassword())){
+                throw new SecurityRealmAuthenticationException(ErrorCodes.BAD_CREDENTIALS);
+            }
+            return new SecurityRealmAuthentication("sara", null, StepNames.OTP, Duration.ofMinutes(5));
+        });
+    }
+
+    @AuthenticationStep(StepNames.OTP)
+    public Callable<SecurityRealmAuthentication> otpAuthenticationStep(@RequestBody AuthOtpStepRequest request) {
+        return () -> {
+            // both contexts are carried into the thread executing the callable
+            SecurityRealmAuthentication previousStepAuth = (SecurityRealmAuthentication) SecurityContextHolder.getContext().getAuthentication();
+            if(!"ASYNC_USER".equals(SecurityRealmContext.getDescriptor().getName()) || !StepNames.OTP.equals(SecurityRealmContext.getCurrentStep())){
+                throw new IllegalStateException("SecurityRealmContext was not propagated");
+            }
+
+            if(!"1234".equals(request.getOtp())){
+                throw new SecurityRealmAuthenticationException(ErrorCodes.BAD_OTP);
+            }
+            return new SecurityRealmAuthentication(previousStepAuth.getName(), null, CONFIRM_STEP, Duration.ofMinutes(5));
+        };
+    }
+
+    @AuthenticationStep(CONFIRM_STEP)
+    public DeferredResult<SecurityRealmAuthentication> confirmAuthenticationStep() {
+        String name = SecurityContextHolder.getContext().getAuthentication().getName();
+
+        // e.g. completed by a callback from an SMS gateway
+        DeferredResult<SecurityRealmAuthentication> result = new DeferredResult<>();
+        new Thread(() -> result.setResult(new SecurityRealmAuthentication(name, null))).start();
+        return result;
+    }
+}
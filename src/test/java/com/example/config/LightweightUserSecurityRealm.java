@@ -0,0 +1,43 @@
+package com.example.config;
+
+import com.example.dto.AuthOtpStepRequest;
+import com.example.dto.AuthUsernameAndPasswordStepRequest;
+import com.example.other.Constants.ErrorCodes;
+import com.example.other.Constants.StepNames;
+import java.time.Duration;
+import java.util.Set;
+import net.coder966.spring.multisecurityrealms.annotation.AuthenticationStep;
+import net.coder966.spring.multisecurityrealms.annotation.SecurityRealm;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationException;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.RequestBody;
+
+@SecurityRealm(
+    name = "LIGHTWEIGHT_USER",
+    authenticationEndpoint = "/lightweight-user/auth",
+    firstStepName = StepNames.USERNAME_AND_PASSWORD,
+    tokenDecoder = "LIGHTWEIGHT"
+)
+public class LightweightUserSecurityRealm {
+
+    @AuthenticationStep(StepNames.USERNAME_AND_PASSWORD)
+    public SecurityRealmAuthentication firstAuthenticationStep(@RequestBody AuthUsernameAndPasswordStepRequest request) {
+        if(!"omar".equals(request.getUsername()) || !"opass".equals(request.getPassword())){
+            throw new SecurityRealmAuthenticationException(ErrorCodes.BAD_CREDENTIALS);
+        }
+        return new SecurityRealmAuthentication("omar", null, StepNames.OTP, Duration.ofMinutes(5));
+    }
+
+    @AuthenticationStep(StepNames.OTP)
+    public SecurityRealmAuthentication otpAuthenticationStep(@RequestBody AuthOtpStepRequest request) {
+        SecurityRealmAuthentication previousStepAuth = (SecurityRealmAuthentication) SecurityContextHolder.getContext().getAuthentication();
+
+        if(!"1234".equals(request.getOtp())){
+            throw new SecurityRealmAuthenticationException(ErrorCodes.BAD_OTP);
+        }
+        return new SecurityRealmAuthentication(previousStepAuth.getName(), Set.of(new SimpleGrantedAuthority("READ")))
+            .addExtra("tenant", "acme");
+    }
+}
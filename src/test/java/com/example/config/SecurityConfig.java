@@ -23,7 +23,7 @@ public class SecurityConfig {
 
         http.addFilterBefore(multiSecurityRealmAuthenticationFilter, AnonymousAuthenticationFilter.class);
         http.authorizeHttpRequests(configurer -> configurer
-            .requestMatchers("/actuator/health").permitAll()
+            .requestMatchers("/actuator/health", "/error", "/public/**").permitAll()
             .anyRequest().authenticated()
         );
         http.csrf(AbstractHttpConfigurer::disable);
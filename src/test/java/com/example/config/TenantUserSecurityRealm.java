@@ -0,0 +1,45 @@
+package com.example.config;
+
+import com.example.dto.AuthUsernameAndPasswordStepRequest;
+import com.example.other.Constants.ErrorCodes;
+import com.example.other.Constants.StepNames;
+import java.util.Set;
+import net.coder966.spring.multisecurityrealms.annotation.AuthenticationStep;
+import net.coder966.spring.multisecurityrealms.annotation.SecurityRealm;
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import net.coder966.spring.multisecurityrealms.exception.SecurityRealmAuthenticationException;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+
+// resolved through the environment, same as on a controller
+@CrossOrigin(origins = "${my-app.tenant-origin:https://tenant.example.com}")
+@SecurityRealm(
+    name = "TENANT_USER",
+    authenticationEndpoint = "/tenant-user/{tenant}/auth",
+    firstStepName = StepNames.USERNAME_AND_PASSWORD
+)
+public class TenantUserSecurityRealm {
+
+    @AuthenticationStep(StepNames.USERNAME_AND_PASSWORD)
+    public SecurityRealmAuthentication firstAuthenticationStep(@PathVariable String tenant, @RequestBody AuthUsernameAndPasswordStepRequest request) {
+        if(!"acme".equals(tenant)){
+            throw new UnknownTenantException();
+        }
+        if(!"layla".equals(request.getUsername()) || !"lpass".equals(request.getPassword())){
+            throw new SecurityRealmAuthenticationException(ErrorCodes.BAD_CREDENTIALS);
+        }
+        return new SecurityRealmAuthentication("layla", Set.of(new SimpleGrantedAuthority("READ"))).addExtra("tenant", tenant);
+    }
+
+    @ExceptionHandler(UnknownTenantException.class)
+    public ResponseEntity<String> handle(UnknownTenantException ex) {
+        return ResponseEntity.status(404).body("Unknown tenant");
+    }
+
+    public static class UnknownTenantException extends RuntimeException {
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.controller;
+
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@PreAuthorize("permitRealm('COMPACT_USER') and hasAuthority('READ')")
+@RestController
+public class CompactUserController {
+
+    @GetMapping("/compact-user/my-name")
+    public String myName() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication.getName();
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.controller;
+
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class DictionaryUserController {
+
+    @PreAuthorize("permitRealm('DICTIONARY_USER') and hasAuthority('READ')")
+    @GetMapping("/dictionary-user/my-name")
+    public String myName() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication.getName();
+    }
+
+    @PreAuthorize("permitRealm('DICTIONARY_USER') and hasAuthority('WRITE')")
+    @GetMapping("/dictionary-user/write")
+    public String write() {
+        return "written";
+    }
+}
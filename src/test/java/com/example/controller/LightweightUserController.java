@@ -0,0 +1,32 @@
+package com.example.controller;
+
+import net.coder966.spring.multisecurityrealms.authentication.SecurityRealmAuthentication;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class LightweightUserController {
+
+    @PreAuthorize("permitRealm('LIGHTWEIGHT_USER') and hasAuthority('READ')")
+    @GetMapping("/lightweight-user/my-name")
+    public String myName() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication.getName();
+    }
+
+    @PreAuthorize("permitRealm('LIGHTWEIGHT_USER')")
+    @GetMapping("/lightweight-user/my-tenant")
+    public Object myTenant() {
+        SecurityRealmAuthentication authentication = (SecurityRealmAuthentication) SecurityContextHolder.getContext().getAuthentication();
+        return authentication.getExtras().get("tenant");
+    }
+
+    @PreAuthorize("permitRealm('LIGHTWEIGHT_USER') and hasAuthority('WRITE')")
+    @GetMapping("/lightweight-user/write")
+    public String write() {
+        return "written";
+    }
+}
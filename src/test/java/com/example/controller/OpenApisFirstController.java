@@ -1,6 +1,8 @@
 package com.example.controller;
 
 import net.coder966.spring.multisecurityrealms.annotation.AnonymousAccess;
+import net.coder966.spring.multisecurityrealms.context.SecurityRealmContext;
+import net.coder966.spring.multisecurityrealms.reflection.SecurityRealmDescriptor;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -13,4 +15,11 @@ public class OpenApisFirstController {
         return "my-first-open-api";
     }
 
+    // permitted by the security config, not by @AnonymousAccess, so the realm of the token (if any) applies
+    @GetMapping("/public/realm-name")
+    public String realmName() {
+        SecurityRealmDescriptor descriptor = SecurityRealmContext.getDescriptor();
+        return descriptor == null ? "none" : descriptor.getName();
+    }
+
 }
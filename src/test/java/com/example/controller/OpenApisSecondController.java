@@ -1,6 +1,7 @@
 package com.example.controller;
 
 import net.coder966.spring.multisecurityrealms.annotation.AnonymousAccess;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -21,4 +22,12 @@ public class OpenApisSecondController {
         return "my-second-open-api-v2";
     }
 
+    @AnonymousAccess
+    @GetMapping("/sign-out")
+    public String signOut() {
+        // the context of an anonymous request is its own, so it can be mutated, e.g. by a logout handler
+        SecurityContextHolder.getContext().setAuthentication(null);
+        return "signed-out";
+    }
+
 }
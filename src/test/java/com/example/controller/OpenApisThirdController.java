@@ -2,6 +2,7 @@ package com.example.controller;
 
 import net.coder966.spring.multisecurityrealms.annotation.AnonymousAccess;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -17,4 +18,10 @@ public class OpenApisThirdController {
         return "my-third-open-api";
     }
 
+    @AnonymousAccess(anonymousOnly = true)
+    @GetMapping("/my-anonymous-only-api")
+    public String myAnonymousOnlyApi() {
+        return SecurityContextHolder.getContext().getAuthentication().getName();
+    }
+
 }
@@ -0,0 +1,21 @@
+package org.springframework.cloud.context.environment;
+
+import java.util.Set;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Stands in for the Spring Cloud event, which the reloader detects by name, since Spring Cloud is not a dependency.
+ */
+public class EnvironmentChangeEvent extends ApplicationEvent {
+
+    private final Set<String> keys;
+
+    public EnvironmentChangeEvent(Set<String> keys) {
+        super(keys);
+        this.keys = keys;
+    }
+
+    public Set<String> getKeys() {
+        return keys;
+    }
+}